@@ -0,0 +1,104 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/*
+ * The JNI copies of a 60 ms block alone, without the Speex work, for JniBenchmark.
+ * Each native copies the bytes of every 320-sample frame that an encoder would write,
+ * so only the way the arrays cross JNI differs.
+ */
+
+#include <jni.h>
+#include <string.h>
+
+/* Samples of a wideband Speex frame. */
+#define FRAME_SIZE 320
+
+/* The encode before the arrays were pinned, one region copy in and out per frame. */
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_benchmark_JniBenchmark_nativeCopyRegions(JNIEnv *env, jclass clazz,
+                                                                jshortArray lin, jint offset, jint size,
+                                                                jbyteArray encoded, jint frameBytes) {
+    jshort in[FRAME_SIZE];
+    jbyte out[FRAME_SIZE * 2];
+    jint total = 0;
+    int i;
+
+    if (frameBytes < 0 || frameBytes > FRAME_SIZE * 2) {
+        return (jint)-1;
+    }
+    for (i = 0; i + FRAME_SIZE <= size; i += FRAME_SIZE) {
+        (*env)->GetShortArrayRegion(env, lin, offset + i, FRAME_SIZE, in);
+        memcpy(out, in, frameBytes);
+        (*env)->SetByteArrayRegion(env, encoded, total, frameBytes, out);
+        total += frameBytes;
+    }
+    return total;
+}
+
+/* The encode now, both arrays pinned once per block. */
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_benchmark_JniBenchmark_nativeCopyCritical(JNIEnv *env, jclass clazz,
+                                                                 jshortArray lin, jint offset, jint size,
+                                                                 jbyteArray encoded, jint frameBytes) {
+    jshort *in;
+    jbyte *out;
+    jint total = 0;
+    int i;
+
+    if (frameBytes < 0 || frameBytes > FRAME_SIZE * 2) {
+        return (jint)-1;
+    }
+    in = (jshort *)(*env)->GetPrimitiveArrayCritical(env, lin, NULL);
+    out = (jbyte *)(*env)->GetPrimitiveArrayCritical(env, encoded, NULL);
+    if (in == NULL || out == NULL) {
+        if (out != NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, encoded, out, JNI_ABORT);
+        }
+        if (in != NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, lin, in, JNI_ABORT);
+        }
+        return (jint)-1;
+    }
+    for (i = 0; i + FRAME_SIZE <= size; i += FRAME_SIZE) {
+        memcpy(out + total, in + offset + i, frameBytes);
+        total += frameBytes;
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, encoded, out, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, lin, in, JNI_ABORT);
+    return total;
+}
+
+/* The encode of direct buffers, no copy and no pinning. */
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_benchmark_JniBenchmark_nativeCopyBuffer(JNIEnv *env, jclass clazz,
+                                                               jobject lin, jint offset, jint size,
+                                                               jobject encoded, jint frameBytes) {
+    jbyte *in = (jbyte *)(*env)->GetDirectBufferAddress(env, lin);
+    jbyte *out = (jbyte *)(*env)->GetDirectBufferAddress(env, encoded);
+    jint total = 0;
+    int i;
+
+    if (in == NULL || out == NULL || frameBytes < 0 || frameBytes > FRAME_SIZE * 2) {
+        return (jint)-1;
+    }
+    for (i = 0; i + FRAME_SIZE * 2 <= size; i += FRAME_SIZE * 2) {
+        memcpy(out + total, in + offset + i, frameBytes);
+        total += frameBytes;
+    }
+    return total;
+}
@@ -0,0 +1,253 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import ai.olami.android.AudioBufferPool;
+import ai.olami.android.AudioFrameQueue;
+import ai.olami.android.AudioPreRollBuffer;
+import ai.olami.android.CaptureStatistics;
+import ai.olami.android.EncodedAudioBuffer;
+import ai.olami.android.IAudioSource;
+import ai.olami.android.JavaSpeexEncoder;
+import ai.olami.android.SyntheticAudioSource;
+import ai.olami.android.VoiceActivityDetector;
+import ai.olami.android.jni.Codec;
+
+/**
+ * Check that the capture to encode loop of the recognizers allocates nothing per block
+ * in steady state, with the allocation counter of the JVM for the current thread.
+ * The recorder, encode and upload stages run on one thread, block by block, with the same
+ * buffer pool, queue, pre-roll store, VAD, encoder and encoded audio buffer as the recognizers.
+ * It needs libspeexjni built for the host.
+ * The checks fail the process with exit code 1, so it can run on a CI machine.
+ *
+ * Usage: AllocationCheck [--blocks 10000]
+ */
+public class AllocationCheck {
+
+    // The same block, encoder and upload length as the recognizers.
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLISECONDS = 60;
+    private static final int BLOCK_SIZE = SAMPLE_RATE / 1000 * BLOCK_MILLISECONDS * 2;
+    private static final int MODE_WIDEBAND = 1;
+    private static final int SPEEX_AUDIO_TYPE = 1;
+    private static final int UPLOAD_MILLISECONDS = 300;
+    private static final int PRE_ROLL_BLOCKS = 10;
+    private static final int VAD_FRAME_MILLISECONDS = 10;
+
+    // Enough blocks for the JIT, the pools and the buffers to reach their steady state.
+    private static final int WARM_UP_BLOCKS = 5000;
+
+    private static int mFailures = 0;
+
+    private static com.sun.management.ThreadMXBean mThreads;
+
+    /**
+     * The stages of a recognizer, created once like for a recognition.
+     */
+    private static class Pipeline {
+        final AudioBufferPool mBufferPool = AudioBufferPool.getSharedPool(BLOCK_SIZE);
+        final AudioFrameQueue<ByteBuffer> mQueue =
+                new AudioFrameQueue<ByteBuffer>(256, AudioFrameQueue.WaitStrategy.BLOCK);
+        final AudioPreRollBuffer mPreRoll = new AudioPreRollBuffer(PRE_ROLL_BLOCKS, mBufferPool);
+        final CaptureStatistics mStatistics = new CaptureStatistics();
+        final VoiceActivityDetector mVad = new VoiceActivityDetector(SAMPLE_RATE, VAD_FRAME_MILLISECONDS);
+        final EncodedAudioBuffer mEncodedAudio = new EncodedAudioBuffer(BLOCK_SIZE * 4);
+        final IAudioSource mSource;
+
+        // Only one of them is used.
+        final Codec mCodec;
+        final ByteBuffer mEncodedData;
+        final JavaSpeexEncoder mJavaEncoder;
+        final byte[] mJavaEncodedData;
+
+        boolean mVoiceBegin = false;
+        long mVolumes = 0;
+        long mUploadedBytes = 0;
+
+        Pipeline(boolean javaEncoder) throws Exception {
+            // A second of silence for the pre-roll store, then a tone long enough for any run.
+            mSource = new SyntheticAudioSource(1000, 100000000, 0, 440, 8000);
+            mSource.open();
+            mStatistics.reset(BLOCK_MILLISECONDS);
+            if (javaEncoder) {
+                mCodec = null;
+                mEncodedData = null;
+                mJavaEncoder = JavaSpeexEncoder.open(MODE_WIDEBAND, 10);
+                mJavaEncodedData = new byte[BLOCK_SIZE];
+            } else {
+                mCodec = new Codec();
+                mCodec.open(MODE_WIDEBAND, 10);
+                mEncodedData = mBufferPool.acquire();
+                mJavaEncoder = null;
+                mJavaEncodedData = null;
+            }
+        }
+
+        /**
+         * One block through the recorder thread, the encode stage and the upload stage.
+         */
+        void processBlock() throws Exception {
+            // Recorder thread.
+            ByteBuffer audioData = mBufferPool.acquire();
+            int readSize = mSource.read(audioData, BLOCK_SIZE);
+            long captureTime = CaptureStatistics.now();
+            mStatistics.onRead(readSize, BLOCK_SIZE, captureTime);
+            int vadEvent = mVad.process(audioData, BLOCK_SIZE);
+            mVolumes += mVad.getVolume();
+            if (!mVoiceBegin) {
+                if ((vadEvent & VoiceActivityDetector.EVENT_SPEECH_BEGIN) == 0) {
+                    mPreRoll.add(audioData, captureTime);
+                } else {
+                    mVoiceBegin = true;
+                    mPreRoll.drainTo(mQueue);
+                    mQueue.put(audioData, captureTime);
+                }
+            } else {
+                mQueue.put(audioData, captureTime);
+            }
+            mStatistics.onProcessed(captureTime, CaptureStatistics.now());
+
+            // Encode stage.
+            ByteBuffer block;
+            while ((block = mQueue.poll()) != null) {
+                long timestamp = mQueue.getLastTimestamp();
+                mStatistics.onDequeued(timestamp, CaptureStatistics.now());
+                if (mJavaEncoder != null) {
+                    int size = mJavaEncoder.encodeBuffer(block, 0, BLOCK_SIZE, mJavaEncodedData);
+                    mEncodedAudio.write(mJavaEncodedData, 0, size, SPEEX_AUDIO_TYPE,
+                            BLOCK_MILLISECONDS, timestamp);
+                } else {
+                    int size = mCodec.encodeBuffer(block, 0, BLOCK_SIZE, mEncodedData);
+                    mEncodedAudio.write(mEncodedData, 0, size, SPEEX_AUDIO_TYPE,
+                            BLOCK_MILLISECONDS, timestamp);
+                }
+                mBufferPool.release(block);
+            }
+
+            // Upload stage, the batch is what would be sent.
+            EncodedAudioBuffer.Batch batch = mEncodedAudio.take(UPLOAD_MILLISECONDS, 0);
+            if (batch != null) {
+                mUploadedBytes += batch.getSize();
+            }
+        }
+
+        void close() {
+            mPreRoll.clear();
+            if (mCodec != null) {
+                mCodec.close();
+                mBufferPool.release(mEncodedData);
+            } else {
+                mJavaEncoder.close();
+            }
+            mSource.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int blocks = 10000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--blocks") && (i + 1 < args.length)) {
+                blocks = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                        .isThreadAllocatedMemorySupported()) {
+            System.out.println("FAIL  this JVM cannot count the allocated memory of a thread");
+            System.exit(1);
+        }
+        mThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+
+        if (Codec.getVariant() != null) {
+            checkSteadyState(blocks);
+        } else {
+            System.out.println("FAIL  libspeexjni is not built for the host");
+            mFailures++;
+        }
+        reportJavaEncoder(Math.max(blocks / 10, 1));
+
+        if (mFailures > 0) {
+            System.out.println(mFailures + " check(s) failed.");
+            System.exit(1);
+        }
+    }
+
+    private static void check(boolean passed, String name) {
+        System.out.println((passed ? "PASS  " : "FAIL  ") + name);
+        if (!passed) {
+            mFailures++;
+        }
+    }
+
+    /**
+     * The recognizers encode with the native codec unless told otherwise.
+     */
+    private static void checkSteadyState(int blocks) throws Exception {
+        Pipeline pipeline = new Pipeline(false);
+        long allocated = measure(pipeline, blocks);
+        pipeline.close();
+
+        // Any object is at least 16 bytes, so less than a byte per block means no allocation
+        // per block, only noise of the counter.
+        System.out.println(String.format("      %d bytes over %d blocks, %d bytes uploaded",
+                allocated, blocks, pipeline.mUploadedBytes));
+        check(pipeline.mVoiceBegin && (pipeline.mUploadedBytes > 0), "speech is detected and uploaded");
+        check(allocated < blocks, "no allocation per block in steady state");
+    }
+
+    /**
+     * The encoder bundled with the Java client allocates its work arrays in each encode(),
+     * which cannot be avoided from outside, so the Java encoder is only reported.
+     */
+    private static void reportJavaEncoder(int blocks) throws Exception {
+        Pipeline pipeline = new Pipeline(true);
+        long allocated = measure(pipeline, blocks);
+        pipeline.close();
+        System.out.println(String.format("INFO  with the Java encoder: %d bytes per block",
+                allocated / blocks));
+    }
+
+    private static long measure(Pipeline pipeline, int blocks) throws Exception {
+        for (int i = 0; i < WARM_UP_BLOCKS; i++) {
+            pipeline.processBlock();
+        }
+
+        // What reading the counter costs, taken away from the measurement.
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+
+        long before = allocatedBytes();
+        for (int i = 0; i < blocks; i++) {
+            pipeline.processBlock();
+        }
+        return allocatedBytes() - before - overhead;
+    }
+
+    private static long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,464 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+
+package ai.olami.android.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.xiph.speex.SpeexEncoder;
+
+import ai.olami.android.JavaSpeexEncoder;
+import ai.olami.android.jni.Codec;
+
+/**
+ * Check and measure the native Speex codec on the desktop JVM, with libspeexjni built for the host,
+ * and compare it with the Speex encoder in Java.
+ * The checks fail the process with exit code 1, so it can run on a CI machine.
+ *
+ * Usage: CodecBenchmark [--seconds 20] [--skip-benchmark] [--variant float|fixed|neon]
+ */
+public class CodecBenchmark {
+
+    // The same block and encoder as the recognizers.
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLISECONDS = 60;
+    private static final int BLOCK_SAMPLES = SAMPLE_RATE / 1000 * BLOCK_MILLISECONDS;
+    private static final int BLOCK_SIZE = BLOCK_SAMPLES * 2;
+    private static final int MODE_WIDEBAND = 1;
+
+    // Lowest SNR in dB of a decoded tone at quality 10, Speex keeps well above it.
+    private static final double MIN_ROUND_TRIP_SNR = 10.0;
+
+    private static int mFailures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = 20;
+        boolean benchmark = true;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seconds") && (i + 1 < args.length)) {
+                seconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--skip-benchmark")) {
+                benchmark = false;
+            } else if (args[i].equals("--variant") && (i + 1 < args.length)) {
+                // Read when the Codec class is loaded, so before the first use.
+                System.setProperty(Codec.VARIANT_PROPERTY, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        short[] speech = createTestSignal(seconds * SAMPLE_RATE);
+        System.out.println("Speex variant: " + Codec.getVariant());
+
+        checkRoundTrip();
+        checkEncodersAgree(speech);
+        checkInstancesIndependent(speech);
+        checkJavaEncoder(speech);
+        System.out.println();
+
+        if (benchmark) {
+            runBenchmark(speech);
+            System.out.println();
+            runJavaBenchmark(speech);
+        }
+
+        if (mFailures > 0) {
+            System.out.println(mFailures + " check(s) failed.");
+            System.exit(1);
+        }
+    }
+
+    private static void check(boolean passed, String name) {
+        System.out.println((passed ? "PASS  " : "FAIL  ") + name);
+        if (!passed) {
+            mFailures++;
+        }
+    }
+
+    /**
+     * Encode and decode a tone frame by frame, the decoded tone must match the input
+     * after the delay of the codec.
+     */
+    private static void checkRoundTrip() {
+        short[] tone = new short[SAMPLE_RATE];
+        for (int i = 0; i < tone.length; i++) {
+            tone[i] = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        Codec codec = new Codec();
+        check(codec.open(MODE_WIDEBAND, 10) == 0, "open wideband");
+        int frameSize = codec.getFrameSize();
+        check(frameSize == 320, "wideband frame size is 320 samples");
+
+        short[] decoded = new short[tone.length];
+        byte[] encoded = new byte[frameSize * 2];
+        for (int offset = 0; offset + frameSize <= tone.length; offset += frameSize) {
+            int size = codec.encode(tone, offset, frameSize, encoded);
+            short[] frame = new short[frameSize];
+            codec.decode(encoded, frame, size);
+            System.arraycopy(frame, 0, decoded, offset, frameSize);
+        }
+        codec.close();
+
+        double snr = bestSnr(tone, decoded, frameSize);
+        check(snr > MIN_ROUND_TRIP_SNR, String.format("round trip of a tone, SNR %.1f dB", snr));
+        check(codec.open(9, 10) == -1, "unknown mode is refused");
+    }
+
+    /**
+     * All encode paths must produce the same bitstream.
+     */
+    private static void checkEncodersAgree(short[] speech) {
+        byte[] pcm = toLittleEndian(speech);
+        byte[] fromShorts = encodeAll(speech, pcm, 0);
+        check(Arrays.equals(fromShorts, encodeAll(speech, pcm, 1)), "encodeBytes equals encode");
+        check(Arrays.equals(fromShorts, encodeAll(speech, pcm, 2)), "encodeBuffer equals encode");
+
+        Codec codec = new Codec();
+        codec.open(MODE_WIDEBAND, 10);
+        int[] frameSizes = new int[BLOCK_SAMPLES / codec.getFrameSize()];
+        int size = codec.encodeBytes(pcm, 0, BLOCK_SIZE, new byte[BLOCK_SIZE], frameSizes);
+        codec.close();
+        int sum = 0;
+        for (int frameSize : frameSizes) {
+            sum += frameSize;
+        }
+        check(sum == size, "frame sizes add up to the encoded size");
+
+        // A range out of the PCM data must be refused, not read out of bounds.
+        ByteBuffer in = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        ByteBuffer out = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        codec.open(MODE_WIDEBAND, 10);
+        check((codec.encodeBuffer(in, BLOCK_SIZE / 3, BLOCK_SIZE, out) == -1)
+                && (codec.encodeBuffer(in, -2, BLOCK_SIZE / 3, out) == -1)
+                && (codec.encodeBuffer(in, 0, -1, out) == -1),
+                "encodeBuffer refuses a range out of the PCM buffer");
+        codec.close();
+    }
+
+    /**
+     * Interleaved codecs must produce the same bitstream as each codec alone.
+     */
+    private static void checkInstancesIndependent(short[] speech) {
+        byte[] pcm = toLittleEndian(speech);
+        byte[] alone = encodeAll(speech, pcm, 0);
+
+        Codec first = new Codec();
+        Codec second = new Codec();
+        first.open(MODE_WIDEBAND, 10);
+        second.open(MODE_WIDEBAND, 4);
+        byte[] encoded = new byte[BLOCK_SIZE];
+        byte[] interleaved = new byte[alone.length];
+        int total = 0;
+        for (int offset = 0; offset + BLOCK_SAMPLES <= speech.length; offset += BLOCK_SAMPLES) {
+            int size = first.encode(speech, offset, BLOCK_SAMPLES, encoded);
+            System.arraycopy(encoded, 0, interleaved, total, size);
+            total += size;
+            second.encode(speech, offset, BLOCK_SAMPLES, encoded);
+        }
+        first.close();
+        second.close();
+        check((total == alone.length) && Arrays.equals(alone, interleaved),
+                "interleaved codecs do not share state");
+    }
+
+    /**
+     * The Java encoder must produce the bitstream of the encoder bundled with the Java client,
+     * and the native decoder must decode it.
+     */
+    private static void checkJavaEncoder(short[] speech) {
+        byte[] pcm = toLittleEndian(speech);
+        ByteBuffer in = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        byte[] encoded = new byte[BLOCK_SIZE];
+
+        // Twice, so the second stream runs on the encoder given back to the pool.
+        byte[] bundled = encodeAllBundled(pcm);
+        for (int stream = 1; stream <= 2; stream++) {
+            JavaSpeexEncoder encoder = JavaSpeexEncoder.open(MODE_WIDEBAND, 10);
+            byte[] all = new byte[pcm.length];
+            int total = 0;
+            for (int offset = 0; offset + BLOCK_SIZE <= pcm.length; offset += BLOCK_SIZE) {
+                in.clear();
+                in.put(pcm, offset, BLOCK_SIZE);
+                int size = encoder.encodeBuffer(in, 0, BLOCK_SIZE, encoded);
+                System.arraycopy(encoded, 0, all, total, size);
+                total += size;
+            }
+            encoder.close();
+            check(Arrays.equals(bundled, Arrays.copyOf(all, total)),
+                    "Java encoder equals the bundled encoder, stream " + stream);
+        }
+
+        short[] tone = new short[SAMPLE_RATE];
+        for (int i = 0; i < tone.length; i++) {
+            tone[i] = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        byte[] tonePcm = toLittleEndian(tone);
+        JavaSpeexEncoder encoder = JavaSpeexEncoder.open(MODE_WIDEBAND, 10);
+        Codec decoder = new Codec();
+        decoder.open(MODE_WIDEBAND, 10);
+        int frameSize = encoder.getFrameSize();
+        short[] decoded = new short[tone.length];
+        short[] frame = new short[frameSize];
+        for (int offset = 0; offset + frameSize <= tone.length; offset += frameSize) {
+            in.clear();
+            in.put(tonePcm, offset * 2, frameSize * 2);
+            int size = encoder.encodeBuffer(in, 0, frameSize * 2, encoded);
+            decoder.decode(encoded, frame, size);
+            System.arraycopy(frame, 0, decoded, offset, frameSize);
+        }
+        encoder.close();
+        decoder.close();
+
+        double snr = bestSnr(tone, decoded, frameSize);
+        check(snr > MIN_ROUND_TRIP_SNR, String.format("Java encoder to native decoder, SNR %.1f dB", snr));
+    }
+
+    private static void runBenchmark(short[] speech) {
+        byte[] pcm = toLittleEndian(speech);
+        int blocks = speech.length / BLOCK_SAMPLES;
+        double audioSeconds = blocks * BLOCK_MILLISECONDS / 1000.0;
+        ByteBuffer in = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        ByteBuffer out = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        System.out.println("quality vbr |  us/block  frames/s  x realtime  cpu ms/s |   kbps | decode us/frame");
+        for (int quality : new int[] {10, 8, 6, 4, 0}) {
+            for (boolean vbr : new boolean[] {false, true}) {
+                Codec codec = new Codec();
+                codec.open(MODE_WIDEBAND, quality);
+                codec.setVBR(vbr);
+                int frameSize = codec.getFrameSize();
+
+                // Warm up the JIT and the caches with the first part of the audio.
+                for (int b = 0; b < Math.min(blocks, 50); b++) {
+                    in.clear();
+                    in.asShortBuffer().put(speech, b * BLOCK_SAMPLES, BLOCK_SAMPLES);
+                    codec.encodeBuffer(in, 0, BLOCK_SIZE, out);
+                }
+
+                long bytes = 0;
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                long start = System.nanoTime();
+                for (int b = 0; b < blocks; b++) {
+                    in.clear();
+                    in.asShortBuffer().put(speech, b * BLOCK_SAMPLES, BLOCK_SAMPLES);
+                    bytes += codec.encodeBuffer(in, 0, BLOCK_SIZE, out);
+                }
+                long encodeNanoseconds = System.nanoTime() - start;
+                long encodeCpuNanoseconds = threads.getCurrentThreadCpuTime() - cpuStart;
+
+                byte[] encoded = new byte[BLOCK_SIZE];
+                short[] decoded = new short[frameSize];
+                int size = codec.encodeBytes(pcm, 0, frameSize * 2, encoded, null);
+                int decodes = blocks * (BLOCK_SAMPLES / frameSize);
+                start = System.nanoTime();
+                for (int i = 0; i < decodes; i++) {
+                    codec.decode(encoded, decoded, size);
+                }
+                long decodeNanoseconds = System.nanoTime() - start;
+                codec.close();
+
+                double encodeSeconds = encodeNanoseconds / 1e9;
+                // CPU time of the encoding thread for each second of audio.
+                System.out.println(String.format("%7d %3s | %9.1f %9.0f %11.1f %9.2f | %6.1f | %15.1f",
+                        quality, vbr ? "on" : "off",
+                        encodeNanoseconds / 1000.0 / blocks,
+                        blocks * (BLOCK_SAMPLES / frameSize) / encodeSeconds,
+                        audioSeconds / encodeSeconds,
+                        encodeCpuNanoseconds / 1e6 / audioSeconds,
+                        bytes * 8 / audioSeconds / 1000,
+                        decodeNanoseconds / 1000.0 / decodes));
+            }
+        }
+    }
+
+    /**
+     * Encode cost of the Java encoder against the native one, on the same blocks as the recognizers.
+     */
+    private static void runJavaBenchmark(short[] speech) {
+        byte[] pcm = toLittleEndian(speech);
+        int blocks = speech.length / BLOCK_SAMPLES;
+        double audioSeconds = blocks * BLOCK_MILLISECONDS / 1000.0;
+        ByteBuffer in = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        ByteBuffer out = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        byte[] encoded = new byte[BLOCK_SIZE];
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        System.out.println("quality vbr | native us/block  cpu ms/s |   Java us/block  cpu ms/s   kbps | Java/native");
+        for (int quality : new int[] {10, 8, 6, 4, 0}) {
+            for (boolean vbr : new boolean[] {false, true}) {
+                Codec codec = new Codec();
+                codec.open(MODE_WIDEBAND, quality);
+                codec.setVBR(vbr);
+                JavaSpeexEncoder encoder = JavaSpeexEncoder.open(MODE_WIDEBAND, quality);
+                encoder.setVBR(vbr);
+
+                // Warm up the JIT, the Java encoder needs more blocks than the native one.
+                for (int b = 0; b < Math.min(blocks, 200); b++) {
+                    in.clear();
+                    in.put(pcm, b * BLOCK_SIZE, BLOCK_SIZE);
+                    codec.encodeBuffer(in, 0, BLOCK_SIZE, out);
+                    encoder.encodeBuffer(in, 0, BLOCK_SIZE, encoded);
+                }
+                codec.open(MODE_WIDEBAND, quality);
+                codec.setVBR(vbr);
+                encoder.close();
+                encoder = JavaSpeexEncoder.open(MODE_WIDEBAND, quality);
+                encoder.setVBR(vbr);
+
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                long start = System.nanoTime();
+                for (int b = 0; b < blocks; b++) {
+                    in.clear();
+                    in.put(pcm, b * BLOCK_SIZE, BLOCK_SIZE);
+                    codec.encodeBuffer(in, 0, BLOCK_SIZE, out);
+                }
+                long nativeNanoseconds = System.nanoTime() - start;
+                long nativeCpuNanoseconds = threads.getCurrentThreadCpuTime() - cpuStart;
+
+                long bytes = 0;
+                cpuStart = threads.getCurrentThreadCpuTime();
+                start = System.nanoTime();
+                for (int b = 0; b < blocks; b++) {
+                    in.clear();
+                    in.put(pcm, b * BLOCK_SIZE, BLOCK_SIZE);
+                    bytes += encoder.encodeBuffer(in, 0, BLOCK_SIZE, encoded);
+                }
+                long javaNanoseconds = System.nanoTime() - start;
+                long javaCpuNanoseconds = threads.getCurrentThreadCpuTime() - cpuStart;
+                codec.close();
+                encoder.close();
+
+                System.out.println(String.format("%7d %3s | %15.1f %9.2f | %15.1f %9.2f %6.1f | %11.2f",
+                        quality, vbr ? "on" : "off",
+                        nativeNanoseconds / 1000.0 / blocks,
+                        nativeCpuNanoseconds / 1e6 / audioSeconds,
+                        javaNanoseconds / 1000.0 / blocks,
+                        javaCpuNanoseconds / 1e6 / audioSeconds,
+                        bytes * 8 / audioSeconds / 1000,
+                        (double) javaCpuNanoseconds / Math.max(nativeCpuNanoseconds, 1)));
+            }
+        }
+    }
+
+    /**
+     * Encode the whole signal frame by frame with the encoder bundled with the Java client,
+     * the way the Java client does.
+     */
+    private static byte[] encodeAllBundled(byte[] pcm) {
+        SpeexEncoder encoder = new SpeexEncoder();
+        encoder.init(MODE_WIDEBAND, 10, SAMPLE_RATE, 1);
+        int frameBytes = encoder.getFrameSize() * 2;
+        byte[] all = new byte[pcm.length];
+        int total = 0;
+        for (int offset = 0; offset + BLOCK_SIZE <= pcm.length; offset += BLOCK_SIZE) {
+            for (int frame = offset; frame + frameBytes <= offset + BLOCK_SIZE; frame += frameBytes) {
+                encoder.processData(pcm, frame, frameBytes);
+                total += encoder.getProcessedData(all, total);
+            }
+        }
+        return Arrays.copyOf(all, total);
+    }
+
+    /**
+     * Encode the whole signal by block.
+     *
+     * @param path - 0 for encode(), 1 for encodeBytes(), 2 for encodeBuffer().
+     */
+    private static byte[] encodeAll(short[] speech, byte[] pcm, int path) {
+        Codec codec = new Codec();
+        codec.open(MODE_WIDEBAND, 10);
+        byte[] encoded = new byte[BLOCK_SIZE];
+        byte[] all = new byte[speech.length * 2];
+        ByteBuffer in = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        ByteBuffer out = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        int total = 0;
+        for (int offset = 0; offset + BLOCK_SAMPLES <= speech.length; offset += BLOCK_SAMPLES) {
+            int size;
+            if (path == 0) {
+                size = codec.encode(speech, offset, BLOCK_SAMPLES, encoded);
+            } else if (path == 1) {
+                size = codec.encodeBytes(pcm, offset * 2, BLOCK_SIZE, encoded, null);
+            } else {
+                in.clear();
+                in.asShortBuffer().put(speech, offset, BLOCK_SAMPLES);
+                size = codec.encodeBuffer(in, 0, BLOCK_SIZE, out);
+                out.clear();
+                out.get(encoded, 0, size);
+            }
+            System.arraycopy(encoded, 0, all, total, size);
+            total += size;
+        }
+        codec.close();
+        return Arrays.copyOf(all, total);
+    }
+
+    /**
+     * Voiced harmonics with a moving pitch, pauses and a little noise, a rough stand-in for speech.
+     */
+    private static short[] createTestSignal(int length) {
+        Random random = new Random(1);
+        short[] signal = new short[length];
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double s = random.nextGaussian() * 100;
+            // 1.5 s of voice then 0.5 s of pause.
+            if ((t % 2.0) < 1.5) {
+                double f0 = 140 + 20 * Math.sin(2 * Math.PI * 0.7 * t);
+                for (int h = 1; h * f0 < 4000; h++) {
+                    s += 3000.0 / h * Math.sin(2 * Math.PI * f0 * h * t + h);
+                }
+            }
+            signal[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+        }
+        return signal;
+    }
+
+    private static byte[] toLittleEndian(short[] samples) {
+        byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return bytes;
+    }
+
+    /**
+     * SNR of the decoded signal at the delay which matches the input best.
+     */
+    private static double bestSnr(short[] input, short[] decoded, int maxDelay) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (int delay = 0; delay <= maxDelay; delay++) {
+            double signal = 0;
+            double noise = 0;
+            for (int i = maxDelay; i < input.length - maxDelay; i++) {
+                double d = decoded[i + delay] - input[i];
+                signal += (double) input[i] * input[i];
+                noise += d * d;
+            }
+            best = Math.max(best, 10 * Math.log10(signal / Math.max(noise, 1)));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ai.olami.android.AudioBufferPool;
+import ai.olami.android.EncodedAudioBuffer;
+import ai.olami.android.IAudioSource;
+import ai.olami.android.PipelinedAudioUploader;
+import ai.olami.android.SyntheticAudioSource;
+import ai.olami.android.jni.Codec;
+import ai.olami.cloudService.APIConfiguration;
+import ai.olami.cloudService.CookieSet;
+import ai.olami.cloudService.SpeechRecognizer;
+
+/**
+ * Count the bytes copied per audio second between the recorder and the request sent to the server,
+ * on the legacy 44.1 kHz byte[] path of the recognizers and on the pooled direct buffer path.
+ * Both paths run block by block against a local HTTP server, so each counted copy is really done
+ * with its real size:
+ * - legacy: AudioRecord.read into a short[], convert441To16 into a new byte[], the short[] of
+ *   Codec.encodeByte, the region copies of the JNI encode before the arrays were pinned,
+ *   appendSpeexAudioFramesData and the merge of flushToUploadAudio.
+ * - pooled: AudioRecord.read into the pooled buffer, the encoded audio into EncodedAudioBuffer,
+ *   the last block it keeps back for the next batch, and the request built by
+ *   PipelinedAudioUploader.createRequest, measured as the bytes the server receives.
+ * What the encoder writes itself, and the copies below the HTTP client of each path, are left out.
+ * It needs libspeexjni built for the host.
+ *
+ * Usage: CopyBenchmark [--seconds 60]
+ */
+public class CopyBenchmark {
+
+    // The same block, encoder and upload length as the recognizers.
+    private static final int SAMPLE_RATE = 16000;
+    private static final int LEGACY_SAMPLE_RATE = 44100;
+    private static final int BLOCK_MILLISECONDS = 60;
+    private static final int BLOCK_SIZE = SAMPLE_RATE / 1000 * BLOCK_MILLISECONDS * 2;
+    private static final int LEGACY_BLOCK_SAMPLES = LEGACY_SAMPLE_RATE * BLOCK_MILLISECONDS / 1000;
+    private static final int MODE_WIDEBAND = 1;
+    private static final int UPLOAD_MILLISECONDS = 300;
+
+    private static final int TONE_FREQUENCY = 440;
+    private static final int TONE_AMPLITUDE = 8000;
+
+    /**
+     * Bytes copied by each stage of a path, in the order of the stages.
+     */
+    private static class CopyCount {
+        private final Map<String, Long> mStages = new LinkedHashMap<String, Long>();
+
+        void add(String stage, long bytes) {
+            Long total = mStages.get(stage);
+            mStages.put(stage, (total == null) ? bytes : total + bytes);
+        }
+
+        long print(String title, long milliseconds) {
+            System.out.println(String.format("%-44s | B/audio s", title));
+            long total = 0;
+            for (Map.Entry<String, Long> stage : mStages.entrySet()) {
+                System.out.println(String.format("  %-42s | %9d", stage.getKey(),
+                        stage.getValue() * 1000 / milliseconds));
+                total += stage.getValue();
+            }
+            System.out.println(String.format("  %-42s | %9d", "total", total * 1000 / milliseconds));
+            return total * 1000 / milliseconds;
+        }
+    }
+
+    /**
+     * HTTP/1.1 server on the loopback interface, which acknowledges every request
+     * and counts the bytes of the requests it receives.
+     */
+    private static class LoopbackServer implements Runnable {
+        private static final byte[] RESPONSE_BODY = "{\"status\":\"ok\",\"data\":{}}".getBytes();
+
+        private final ServerSocket mServerSocket;
+        private final AtomicLong mReceivedBytes = new AtomicLong();
+
+        LoopbackServer() throws IOException {
+            mServerSocket = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "LoopbackServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/cloudservice/api";
+        }
+
+        long getReceivedBytes() {
+            return mReceivedBytes.get();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = mServerSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "LoopbackConnection");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream input = new BufferedInputStream(socket.getInputStream());
+                OutputStream output = socket.getOutputStream();
+                String line;
+                while ((line = readLine(input)) != null) {
+                    long received = line.length() + 2;
+                    int contentLength = 0;
+                    while (((line = readLine(input)) != null) && !line.isEmpty()) {
+                        received += line.length() + 2;
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                    }
+                    received += 2;
+                    for (int i = 0; i < contentLength; i++) {
+                        if (input.read() < 0) {
+                            return;
+                        }
+                    }
+                    mReceivedBytes.addAndGet(received + contentLength);
+
+                    // SpeechRecognizer needs a session cookie in each response.
+                    output.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+                            + "Set-Cookie: session=1; Path=/\r\n"
+                            + "Content-Length: " + RESPONSE_BODY.length + "\r\n\r\n").getBytes("ISO-8859-1"));
+                    output.write(RESPONSE_BODY);
+                    output.flush();
+                }
+            } catch (IOException e) {
+                // The client closed the connection.
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing to do.
+                }
+            }
+        }
+
+        private static String readLine(InputStream input) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = input.read()) != '\n') {
+                if (c < 0) {
+                    return null;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = 60;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seconds") && (i + 1 < args.length)) {
+                seconds = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if (Codec.getVariant() == null) {
+            System.out.println("FAIL  libspeexjni is not built for the host");
+            System.exit(1);
+        }
+
+        int blocks = seconds * 1000 / BLOCK_MILLISECONDS;
+        long milliseconds = (long) blocks * BLOCK_MILLISECONDS;
+        System.out.println(String.format("%d blocks of %d ms, uploaded every %d ms", blocks,
+                BLOCK_MILLISECONDS, UPLOAD_MILLISECONDS));
+        System.out.println();
+
+        long legacy = runLegacyPath(blocks).print("legacy 44.1 kHz byte[] path", milliseconds);
+        System.out.println();
+        long pooled = runPooledPath(blocks).print("pooled direct buffer path", milliseconds);
+        System.out.println();
+        System.out.println(String.format("pooled / legacy: %.2f", (double) pooled / legacy));
+    }
+
+    private static SpeechRecognizer createRecognizer(final LoopbackServer server) throws Exception {
+        APIConfiguration configuration = new APIConfiguration("appKey", "appSecret",
+                APIConfiguration.LOCALIZE_OPTION_SIMPLIFIED_CHINESE) {
+            @Override
+            public String getBaseRequestURL(String apiName, Map<String, String> query)
+                    throws NoSuchAlgorithmException {
+                StringBuilder url = new StringBuilder(server.getUrl()).append("?api=").append(apiName);
+                if (query != null) {
+                    for (Map.Entry<String, String> parameter : query.entrySet()) {
+                        url.append('&').append(parameter.getKey()).append('=').append(parameter.getValue());
+                    }
+                }
+                return url.toString();
+            }
+        };
+        SpeechRecognizer recognizer = new SpeechRecognizer(configuration);
+        recognizer.setTimeout(5000);
+        return recognizer;
+    }
+
+    /**
+     * The recorder and the upload of the recognizers before the direct buffers:
+     * a new byte[] per block at 16 kHz, encoded by encodeByte and appended to SpeechRecognizer.
+     */
+    private static CopyCount runLegacyPath(int blocks) throws Exception {
+        CopyCount count = new CopyCount();
+        LoopbackServer server = new LoopbackServer();
+        SpeechRecognizer recognizer = createRecognizer(server);
+        recognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX);
+        CookieSet cookie = new CookieSet();
+        Codec codec = new Codec();
+        codec.open(MODE_WIDEBAND, 10);
+
+        short[] audioData441 = new short[LEGACY_BLOCK_SAMPLES];
+        long n = 0;
+        int appended = 0;
+        int length = 0;
+        for (int b = 0; b < blocks; b++) {
+            // AudioRecord.read(short[]).
+            for (int i = 0; i < audioData441.length; i++, n++) {
+                audioData441[i] = (short) (TONE_AMPLITUDE
+                        * Math.sin(2 * Math.PI * TONE_FREQUENCY * n / LEGACY_SAMPLE_RATE));
+            }
+            count.add("AudioRecord.read into short[]", audioData441.length * 2);
+
+            byte[] audioData = new byte[BLOCK_SIZE];
+            ResamplerBenchmark.convert441To16(audioData441, audioData);
+            count.add("convert441To16 into a new byte[]", audioData.length);
+
+            // Codec.encodeByte converted the bytes into a new short[].
+            short[] samples = new short[audioData.length / 2];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) ((audioData[i * 2] & 0xff) | (audioData[i * 2 + 1] << 8));
+            }
+            count.add("encodeByte into a new short[]", audioData.length);
+
+            byte[] encBuffer = new byte[audioData.length];
+            int encSize = codec.encode(samples, 0, samples.length, encBuffer);
+            count.add("JNI region copies in and out", audioData.length + encSize);
+
+            recognizer.appendSpeexAudioFramesData(encBuffer, encSize);
+            count.add("appendSpeexAudioFramesData", encSize);
+            appended += encSize;
+
+            length += BLOCK_MILLISECONDS;
+            boolean isFinal = (b == blocks - 1);
+            if ((length >= UPLOAD_MILLISECONDS) || isFinal) {
+                if (!recognizer.flushToUploadAudio(cookie, isFinal).ok()) {
+                    throw new IOException("The upload was not acknowledged");
+                }
+                count.add("flushToUploadAudio merge", appended);
+                appended = 0;
+                length = 0;
+            }
+        }
+
+        codec.close();
+        return count;
+    }
+
+    /**
+     * The recorder, encode and upload stages of the recognizers now, on one thread:
+     * pooled direct buffers, encodeBuffer, EncodedAudioBuffer and PipelinedAudioUploader.
+     * The first upload of a stream goes through SpeechRecognizer for the session cookie,
+     * here all of them go through the uploader.
+     */
+    private static CopyCount runPooledPath(int blocks) throws Exception {
+        CopyCount count = new CopyCount();
+        LoopbackServer server = new LoopbackServer();
+        PipelinedAudioUploader uploader = new PipelinedAudioUploader(createRecognizer(server));
+        uploader.begin(new CookieSet());
+
+        AudioBufferPool bufferPool = AudioBufferPool.getSharedPool(BLOCK_SIZE);
+        EncodedAudioBuffer encodedAudio = new EncodedAudioBuffer(BLOCK_SIZE * 4);
+        IAudioSource source = new SyntheticAudioSource(0, blocks * BLOCK_MILLISECONDS, 0,
+                TONE_FREQUENCY, TONE_AMPLITUDE);
+        source.open();
+        Codec codec = new Codec();
+        codec.open(MODE_WIDEBAND, 10);
+        ByteBuffer encodedData = bufferPool.acquire();
+
+        long written = 0;
+        long taken = 0;
+        int uploads = 0;
+        for (int b = 0; b < blocks; b++) {
+            // AudioRecord.read(ByteBuffer).
+            ByteBuffer audioData = bufferPool.acquire();
+            source.read(audioData, BLOCK_SIZE);
+            count.add("AudioRecord.read into the pooled buffer", BLOCK_SIZE);
+
+            int encSize = codec.encodeBuffer(audioData, 0, BLOCK_SIZE, encodedData);
+            bufferPool.release(audioData);
+            encodedAudio.write(encodedData, 0, encSize, SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX,
+                    BLOCK_MILLISECONDS, b * BLOCK_MILLISECONDS);
+            count.add("EncodedAudioBuffer.write", encSize);
+            written += encSize;
+
+            if (b == blocks - 1) {
+                encodedAudio.finish();
+            }
+            EncodedAudioBuffer.Batch batch = encodedAudio.take(UPLOAD_MILLISECONDS, 0);
+            if (batch != null) {
+                taken += batch.getSize();
+                // What is not in the batch is the last block, moved to the next batch.
+                count.add("EncodedAudioBuffer last block kept back", written - taken);
+                uploader.upload(batch.getData(), batch.getSize(), batch.getAudioType(),
+                        batch.getMilliseconds(), batch.getCaptureTimestamp(), batch.isFinal());
+                uploads++;
+            }
+        }
+
+        for (int acknowledged = 0; acknowledged < uploads; ) {
+            if (uploader.takeAcknowledgement(5000) == null) {
+                throw new IOException("The upload was not acknowledged");
+            }
+            acknowledged++;
+        }
+        count.add("createRequest, head included", server.getReceivedBytes());
+
+        uploader.abort();
+        bufferPool.release(encodedData);
+        codec.close();
+        source.close();
+        return count;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import ai.olami.android.jni.Codec;
+
+/**
+ * Measure what crossing JNI costs for a 60 ms block of 960 samples, the block of the recognizers.
+ * The copy natives of libjnibench do only the JNI side of an encode: one region copy in and out
+ * per 320-sample frame like Codec.encode before the arrays were pinned, both arrays pinned once
+ * per block like now, or direct buffers like encodeBuffer. The full encode of each path of Codec
+ * is then timed with libspeexjni, to show the overhead against the Speex work.
+ * It needs libjnibench and libspeexjni built for the host.
+ * The checks fail the process with exit code 1, so it can run on a CI machine.
+ *
+ * Usage: JniBenchmark [--blocks 200000]
+ */
+public class JniBenchmark {
+
+    // The same block and encoder as the recognizers.
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLISECONDS = 60;
+    private static final int BLOCK_SAMPLES = SAMPLE_RATE / 1000 * BLOCK_MILLISECONDS;
+    private static final int BLOCK_SIZE = BLOCK_SAMPLES * 2;
+    private static final int MODE_WIDEBAND = 1;
+
+    // Bytes of a wideband frame at quality 10, what the copy natives write per frame.
+    private static final int ENCODED_FRAME_BYTES = 106;
+
+    // Blocks of different offsets, so the copies do not always hit the same cache lines.
+    private static final int SOURCE_BLOCKS = 100;
+
+    private static int mFailures = 0;
+
+    static {
+        System.loadLibrary("jnibench");
+    }
+
+    private static native int nativeCopyRegions(short lin[], int offset, int size,
+                                                byte encoded[], int frameBytes);
+
+    private static native int nativeCopyCritical(short lin[], int offset, int size,
+                                                 byte encoded[], int frameBytes);
+
+    private static native int nativeCopyBuffer(ByteBuffer lin, int offset, int size,
+                                               ByteBuffer encoded, int frameBytes);
+
+    public static void main(String[] args) {
+        int blocks = 200000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--blocks") && (i + 1 < args.length)) {
+                blocks = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        final short[] speech = new short[BLOCK_SAMPLES * SOURCE_BLOCKS];
+        for (int i = 0; i < speech.length; i++) {
+            speech[i] = (short) (8000 * Math.sin(i * 0.05) + 2000 * Math.sin(i * 0.9));
+        }
+        final byte[] pcm = new byte[speech.length * 2];
+        ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(speech);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(pcm.length).order(ByteOrder.nativeOrder());
+        direct.asShortBuffer().put(speech);
+
+        checkCopies(speech, direct);
+        System.out.println();
+        runCopyBenchmark(speech, direct, blocks);
+        System.out.println();
+        if (Codec.getVariant() != null) {
+            runEncodeBenchmark(speech, pcm, direct, Math.max(blocks / 100, 1));
+        } else {
+            System.out.println("FAIL  libspeexjni is not built for the host");
+            mFailures++;
+        }
+
+        if (mFailures > 0) {
+            System.out.println(mFailures + " check(s) failed.");
+            System.exit(1);
+        }
+    }
+
+    private static void check(boolean passed, String name) {
+        System.out.println((passed ? "PASS  " : "FAIL  ") + name);
+        if (!passed) {
+            mFailures++;
+        }
+    }
+
+    /**
+     * The three copy paths must write the same bytes, or the timings compare different work.
+     */
+    private static void checkCopies(short[] speech, ByteBuffer direct) {
+        int offset = BLOCK_SAMPLES * 7;
+        byte[] regions = new byte[BLOCK_SIZE];
+        byte[] critical = new byte[BLOCK_SIZE];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        int size = nativeCopyRegions(speech, offset, BLOCK_SAMPLES, regions, ENCODED_FRAME_BYTES);
+        check((size == ENCODED_FRAME_BYTES * 3)
+                && (nativeCopyCritical(speech, offset, BLOCK_SAMPLES, critical, ENCODED_FRAME_BYTES) == size)
+                && Arrays.equals(regions, critical), "region copies and critical pinning agree");
+
+        byte[] fromBuffer = new byte[BLOCK_SIZE];
+        size = nativeCopyBuffer(direct, offset * 2, BLOCK_SIZE, buffer, ENCODED_FRAME_BYTES);
+        buffer.get(fromBuffer, 0, Math.max(size, 0));
+        check((size == ENCODED_FRAME_BYTES * 3) && Arrays.equals(regions, fromBuffer),
+                "direct buffers and region copies agree");
+    }
+
+    private static void runCopyBenchmark(final short[] speech, final ByteBuffer direct, int blocks) {
+        final byte[] encoded = new byte[BLOCK_SIZE];
+        final ByteBuffer encodedBuffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        final int[] block = new int[1];
+        final long[] sink = new long[1];
+
+        System.out.println("JNI copies of a " + BLOCK_SAMPLES + "-sample block, without Speex");
+        System.out.println("path                            |  ns/block");
+        printCost("region copies per frame", blocks, block, new Runnable() {
+            @Override
+            public void run() {
+                sink[0] += nativeCopyRegions(speech, block[0] * BLOCK_SAMPLES, BLOCK_SAMPLES,
+                        encoded, ENCODED_FRAME_BYTES);
+            }
+        });
+        printCost("critical pinning per block", blocks, block, new Runnable() {
+            @Override
+            public void run() {
+                sink[0] += nativeCopyCritical(speech, block[0] * BLOCK_SAMPLES, BLOCK_SAMPLES,
+                        encoded, ENCODED_FRAME_BYTES);
+            }
+        });
+        printCost("direct buffers", blocks, block, new Runnable() {
+            @Override
+            public void run() {
+                sink[0] += nativeCopyBuffer(direct, block[0] * BLOCK_SIZE, BLOCK_SIZE,
+                        encodedBuffer, ENCODED_FRAME_BYTES);
+            }
+        });
+        // Keep the results alive.
+        System.out.println("(" + sink[0] + ")");
+    }
+
+    private static void runEncodeBenchmark(final short[] speech, final byte[] pcm,
+                                           final ByteBuffer direct, int blocks) {
+        final Codec codec = new Codec();
+        codec.open(MODE_WIDEBAND, 10);
+        final byte[] encoded = new byte[BLOCK_SIZE];
+        final ByteBuffer encodedBuffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        final int[] block = new int[1];
+        final long[] sink = new long[1];
+
+        System.out.println("Full wideband encode at quality 10, variant " + Codec.getVariant());
+        System.out.println("path                            |  ns/block");
+        printCost("encode(short[])", blocks, block, new Runnable() {
+            @Override
+            public void run() {
+                sink[0] += codec.encode(speech, block[0] * BLOCK_SAMPLES, BLOCK_SAMPLES, encoded);
+            }
+        });
+        printCost("encodeBytes(byte[])", blocks, block, new Runnable() {
+            @Override
+            public void run() {
+                sink[0] += codec.encodeBytes(pcm, block[0] * BLOCK_SIZE, BLOCK_SIZE, encoded, null);
+            }
+        });
+        printCost("encodeBuffer(direct)", blocks, block, new Runnable() {
+            @Override
+            public void run() {
+                sink[0] += codec.encodeBuffer(direct, block[0] * BLOCK_SIZE, BLOCK_SIZE, encodedBuffer);
+            }
+        });
+        codec.close();
+        System.out.println("(" + sink[0] + ")");
+    }
+
+    /**
+     * @param block - Set to the source block of each run, for the paths to read.
+     */
+    private static void printCost(String name, int blocks, int[] block, Runnable path) {
+        // Warm up the JIT.
+        for (int i = 0; i < Math.min(blocks, 20000); i++) {
+            block[0] = i % SOURCE_BLOCKS;
+            path.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < blocks; i++) {
+            block[0] = i % SOURCE_BLOCKS;
+            path.run();
+        }
+        long nanoseconds = System.nanoTime() - start;
+        System.out.println(String.format("%-31s | %9.0f", name, (double) nanoseconds / blocks));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ai.olami.android.IAudioSource;
+import ai.olami.android.StreamAudioSource;
+
+public class LabeledUtterance {
+
+    public static final String LABEL_FILE_EXTENSION = ".lab";
+
+    private final File mAudioFile;
+    private final int mSampleRate;
+    private final int mSpeechStartMilliseconds;
+    private final int mSpeechEndMilliseconds;
+
+    /**
+     * Create an utterance with its speech annotation.
+     *
+     * @param audioFile - WAVE file, or raw 16-bit little-endian mono PCM file.
+     * @param sampleRate - Sample rate of a raw PCM file, it is ignored for a WAVE file.
+     * @param speechStartMilliseconds - Where the speech starts in the audio.
+     * @param speechEndMilliseconds - Where the speech ends in the audio.
+     */
+    public LabeledUtterance(
+            File audioFile,
+            int sampleRate,
+            int speechStartMilliseconds,
+            int speechEndMilliseconds
+    ) {
+        if (speechEndMilliseconds < speechStartMilliseconds) {
+            throw new IllegalArgumentException("Illegal speech range of " + audioFile);
+        }
+        mAudioFile = audioFile;
+        mSampleRate = sampleRate;
+        mSpeechStartMilliseconds = speechStartMilliseconds;
+        mSpeechEndMilliseconds = speechEndMilliseconds;
+    }
+
+    /**
+     * Load all labeled utterances of a directory.
+     * Each .pcm or .wav file needs a sidecar .lab file of the same name, which contains
+     * the speech start and end in milliseconds on one line, such as "820 2940".
+     * Lines starting with '#' are comments. Audio files without a label are skipped.
+     *
+     * @param directory - Corpus directory.
+     * @param pcmSampleRate - Sample rate of the raw PCM files.
+     * @return Utterances sorted by file name.
+     * @throws IOException Failed to read a label file.
+     */
+    public static List<LabeledUtterance> loadDirectory(File directory, int pcmSampleRate)
+            throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+
+        List<LabeledUtterance> utterances = new ArrayList<LabeledUtterance>();
+        for (File file : files) {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                continue;
+            }
+            String extension = name.substring(dot).toLowerCase();
+            if (!extension.equals(".pcm") && !extension.equals(".wav")) {
+                continue;
+            }
+            File label = new File(directory, name.substring(0, dot) + LABEL_FILE_EXTENSION);
+            if (!label.isFile()) {
+                continue;
+            }
+            int[] range = readLabel(label);
+            utterances.add(new LabeledUtterance(file, pcmSampleRate, range[0], range[1]));
+        }
+        return utterances;
+    }
+
+    /**
+     * Create a new audio source of the utterance, which must be closed after use.
+     *
+     * @return Audio source.
+     * @throws IOException Failed to open the file.
+     */
+    public IAudioSource createAudioSource() throws IOException {
+        FileInputStream stream = new FileInputStream(mAudioFile);
+        if (mAudioFile.getName().toLowerCase().endsWith(".wav")) {
+            return new StreamAudioSource(stream);
+        }
+        return new StreamAudioSource(stream, mSampleRate);
+    }
+
+    public File getAudioFile() {
+        return mAudioFile;
+    }
+
+    public int getSpeechStartMilliseconds() {
+        return mSpeechStartMilliseconds;
+    }
+
+    public int getSpeechEndMilliseconds() {
+        return mSpeechEndMilliseconds;
+    }
+
+    private static int[] readLabel(File label) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(label));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length < 2) {
+                    break;
+                }
+                try {
+                    return new int[] {Integer.parseInt(fields[0]), Integer.parseInt(fields[1])};
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        throw new IOException("Illegal label file: " + label);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ai.olami.android.AudioFrameQueue;
+
+/**
+ * Compare the hand-off of recorded blocks from the recorder thread to the sending thread
+ * through AudioFrameQueue with the way the recognizers used to do it: a new byte[] for each
+ * block put into a LinkedBlockingQueue under synchronized, and a sender spinning on isEmpty().
+ *
+ * Throughput is the time per block when the recorder produces as fast as it can.
+ * Latency is the time from put to take when the recorder produces one block per interval,
+ * along with the CPU time the sending thread burns while it waits.
+ *
+ * Usage: QueueBenchmark [--blocks 200000] [--interval-us 1000] [--samples 20000]
+ */
+public class QueueBenchmark {
+
+    private static final int BLOCK_SIZE = 1920;
+    private static final int RING_CAPACITY = 256;
+
+    /**
+     * One way to hand blocks over, a recorder thread puts and a sending thread takes.
+     */
+    private static abstract class Handoff {
+        final String mName;
+
+        Handoff(String name) {
+            mName = name;
+        }
+
+        abstract void put(long timestamp) throws InterruptedException;
+
+        /**
+         * @return Timestamp given to the block when it was put.
+         */
+        abstract long take() throws InterruptedException;
+    }
+
+    /**
+     * The recognizers before AudioFrameQueue.
+     */
+    private static class LegacyHandoff extends Handoff {
+        private final BlockingQueue<byte[]> mQueue = new LinkedBlockingQueue<byte[]>();
+
+        LegacyHandoff() {
+            super("LinkedBlockingQueue");
+        }
+
+        @Override
+        void put(long timestamp) throws InterruptedException {
+            synchronized (mQueue) {
+                byte[] audioData = new byte[BLOCK_SIZE];
+                for (int i = 0; i < 8; i++) {
+                    audioData[i] = (byte) (timestamp >>> (i * 8));
+                }
+                mQueue.put(audioData);
+            }
+        }
+
+        @Override
+        long take() throws InterruptedException {
+            while (mQueue.isEmpty()) {
+                // The sending thread polled the queue without waiting.
+            }
+            byte[] audioData = mQueue.take();
+            long timestamp = 0;
+            for (int i = 0; i < 8; i++) {
+                timestamp |= (audioData[i] & 0xffL) << (i * 8);
+            }
+            return timestamp;
+        }
+    }
+
+    /**
+     * AudioFrameQueue with preallocated blocks, like the recognizers now.
+     */
+    private static class RingHandoff extends Handoff {
+        private final AudioFrameQueue<ByteBuffer> mQueue;
+        private final ByteBuffer[] mBlocks = new ByteBuffer[RING_CAPACITY * 2];
+        private int mNext = 0;
+
+        RingHandoff(AudioFrameQueue.WaitStrategy waitStrategy) {
+            super("AudioFrameQueue " + waitStrategy);
+            mQueue = new AudioFrameQueue<ByteBuffer>(RING_CAPACITY, waitStrategy);
+            for (int i = 0; i < mBlocks.length; i++) {
+                mBlocks[i] = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            }
+        }
+
+        @Override
+        void put(long timestamp) throws InterruptedException {
+            // More blocks than the ring holds, so a block is never reused while still queued.
+            ByteBuffer block = mBlocks[mNext];
+            mNext = (mNext + 1) % mBlocks.length;
+            mQueue.put(block, timestamp);
+        }
+
+        @Override
+        long take() throws InterruptedException {
+            while (mQueue.poll(1, TimeUnit.SECONDS) == null) {
+                // Keep waiting, the recorder is slow.
+            }
+            return mQueue.getLastTimestamp();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int blocks = 200000;
+        int intervalMicroseconds = 1000;
+        int samples = 20000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--blocks") && (i + 1 < args.length)) {
+                blocks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--interval-us") && (i + 1 < args.length)) {
+                intervalMicroseconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--samples") && (i + 1 < args.length)) {
+                samples = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        // On a single core a spinning sender competes with the recorder for the CPU.
+        System.out.println("Throughput of " + blocks + " blocks, latency of " + samples
+                + " blocks put every " + intervalMicroseconds + " us, on "
+                + Runtime.getRuntime().availableProcessors() + " processor(s)");
+        System.out.println("hand-off                       |  ns/block"
+                + " | latency us p50    p99    max | sender cpu %");
+        // The first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            for (Handoff handoff : createHandoffs()) {
+                double throughput = runThroughput(handoff, blocks);
+                double[] latency = runLatency(handoff, samples, intervalMicroseconds * 1000L);
+                if (round > 0) {
+                    System.out.println(String.format("%-30s | %9.1f | %14.1f %6.1f %6.1f | %12.1f",
+                            handoff.mName, throughput, latency[0], latency[1], latency[2], latency[3]));
+                }
+            }
+        }
+    }
+
+    private static Handoff[] createHandoffs() {
+        return new Handoff[] {
+                new LegacyHandoff(),
+                new RingHandoff(AudioFrameQueue.WaitStrategy.SPIN_THEN_PARK),
+                new RingHandoff(AudioFrameQueue.WaitStrategy.BLOCK)
+        };
+    }
+
+    /**
+     * @return Nanoseconds per block.
+     */
+    private static double runThroughput(final Handoff handoff, final int blocks) throws Exception {
+        Thread recorder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < blocks; i++) {
+                        handoff.put(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        recorder.start();
+        for (int i = 0; i < blocks; i++) {
+            if (handoff.take() != i) {
+                throw new IllegalStateException(handoff.mName + " lost the order of the blocks");
+            }
+        }
+        long nanoseconds = System.nanoTime() - start;
+        recorder.join();
+        return (double) nanoseconds / blocks;
+    }
+
+    /**
+     * @return Latency in microseconds at the 50th and 99th percentile and the maximum,
+     *         then the CPU usage of the sending thread in percent.
+     */
+    private static double[] runLatency(final Handoff handoff, final int samples,
+                                       final long intervalNanoseconds) throws Exception {
+        final long[] latencies = new long[samples];
+        final long[] senderCpu = new long[1];
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                try {
+                    for (int i = 0; i < samples; i++) {
+                        long timestamp = handoff.take();
+                        latencies[i] = System.nanoTime() - timestamp;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                senderCpu[0] = threads.getCurrentThreadCpuTime() - cpuStart;
+            }
+        });
+
+        sender.start();
+        long start = System.nanoTime();
+        long next = start;
+        for (int i = 0; i < samples; i++) {
+            next += intervalNanoseconds;
+            while (System.nanoTime() < next) {
+                // Pace the blocks like a recorder does.
+            }
+            handoff.put(System.nanoTime());
+        }
+        sender.join();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return new double[] {
+                latencies[samples / 2] / 1000.0,
+                latencies[samples * 99 / 100] / 1000.0,
+                latencies[samples - 1] / 1000.0,
+                100.0 * senderCpu[0] / elapsed
+        };
+    }
+}
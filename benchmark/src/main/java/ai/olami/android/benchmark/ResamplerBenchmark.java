@@ -0,0 +1,200 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import ai.olami.android.AudioResampler;
+
+/**
+ * Compare the polyphase resampler with the linear interpolation of
+ * AudioRecordManager.convert441To16, on the 60 ms blocks recorded at 44.1 kHz.
+ * It reports the cost of each block and how much of a tone is left after resampling,
+ * a tone above 8 kHz must be removed since it aliases into the speech band.
+ *
+ * Usage: ResamplerBenchmark [--blocks 50000]
+ */
+public class ResamplerBenchmark {
+
+    private static final int INPUT_SAMPLE_RATE = 44100;
+    private static final int OUTPUT_SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLISECONDS = 60;
+    private static final int INPUT_BLOCK_SAMPLES = INPUT_SAMPLE_RATE * BLOCK_MILLISECONDS / 1000;
+    private static final int OUTPUT_BLOCK_SAMPLES = OUTPUT_SAMPLE_RATE * BLOCK_MILLISECONDS / 1000;
+
+    private static final double TONE_AMPLITUDE = 10000;
+    private static final int[] TONE_FREQUENCIES = {1000, 6000, 12000};
+
+    private static final String[] QUALITY_NAMES = {"low", "medium", "high"};
+
+    public static void main(String[] args) {
+        int blocks = 50000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--blocks") && (i + 1 < args.length)) {
+                blocks = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.println("Block: " + INPUT_BLOCK_SAMPLES + " samples at " + INPUT_SAMPLE_RATE
+                + " Hz to " + OUTPUT_BLOCK_SAMPLES + " samples at " + OUTPUT_SAMPLE_RATE + " Hz");
+        System.out.println();
+        runToneResponse();
+        System.out.println();
+        runBenchmark(blocks);
+    }
+
+    /**
+     * RMS left of each tone after resampling, against the RMS of the input tone.
+     */
+    private static void runToneResponse() {
+        StringBuilder header = new StringBuilder("method          ");
+        for (int frequency : TONE_FREQUENCIES) {
+            header.append(String.format(" | %6d Hz", frequency));
+        }
+        System.out.println(header + "   (RMS, input " + Math.round(TONE_AMPLITUDE / Math.sqrt(2)) + ")");
+
+        for (int method = -1; method < QUALITY_NAMES.length; method++) {
+            StringBuilder line = new StringBuilder(String.format("%-16s", methodName(method)));
+            for (int frequency : TONE_FREQUENCIES) {
+                short[] output = resampleTone(method, frequency, 16);
+                // Skip the start, where the filter is still filling.
+                line.append(String.format(" | %9.1f", rms(output, OUTPUT_BLOCK_SAMPLES * 2,
+                        output.length - OUTPUT_BLOCK_SAMPLES * 2)));
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static void runBenchmark(int blocks) {
+        short[] input = new short[INPUT_BLOCK_SAMPLES];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) (8000 * Math.sin(i * 0.1));
+        }
+        byte[] output = new byte[OUTPUT_BLOCK_SAMPLES * 2];
+        // The recorder resamples into a pooled direct buffer.
+        ByteBuffer outputBuffer = ByteBuffer.allocateDirect(output.length).order(ByteOrder.LITTLE_ENDIAN);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        System.out.println("method           |  ns/block  cpu us/s | x legacy");
+        long legacyNanoseconds = 0;
+        for (int method = -1; method < QUALITY_NAMES.length; method++) {
+            AudioResampler resampler = (method < 0) ? null
+                    : new AudioResampler(INPUT_SAMPLE_RATE, OUTPUT_SAMPLE_RATE, method);
+
+            // Warm up the JIT.
+            for (int b = 0; b < Math.min(blocks, 20000); b++) {
+                resampleBlock(resampler, input, output, outputBuffer);
+            }
+
+            long cpuStart = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            for (int b = 0; b < blocks; b++) {
+                resampleBlock(resampler, input, output, outputBuffer);
+            }
+            long nanoseconds = System.nanoTime() - start;
+            long cpuNanoseconds = threads.getCurrentThreadCpuTime() - cpuStart;
+            if (method < 0) {
+                legacyNanoseconds = nanoseconds;
+            }
+
+            double audioSeconds = (double) blocks * BLOCK_MILLISECONDS / 1000;
+            System.out.println(String.format("%-16s | %9.0f %9.1f | %8.2f",
+                    methodName(method),
+                    (double) nanoseconds / blocks,
+                    cpuNanoseconds / 1000.0 / audioSeconds,
+                    (double) nanoseconds / Math.max(legacyNanoseconds, 1)));
+        }
+    }
+
+    private static String methodName(int method) {
+        return (method < 0) ? "legacy linear" : "polyphase " + QUALITY_NAMES[method];
+    }
+
+    private static void resampleBlock(AudioResampler resampler, short[] input, byte[] output,
+                                      ByteBuffer outputBuffer) {
+        if (resampler == null) {
+            convert441To16(input, output);
+        } else {
+            resampler.process(input, 0, input.length, outputBuffer, 0);
+        }
+    }
+
+    /**
+     * Resample a continuous tone block by block, the way the recorder thread does.
+     *
+     * @param method - -1 for the legacy linear interpolation, or the resampler quality.
+     */
+    private static short[] resampleTone(int method, int frequency, int blocks) {
+        AudioResampler resampler = (method < 0) ? null
+                : new AudioResampler(INPUT_SAMPLE_RATE, OUTPUT_SAMPLE_RATE, method);
+        short[] input = new short[INPUT_BLOCK_SAMPLES];
+        byte[] block = new byte[OUTPUT_BLOCK_SAMPLES * 2];
+        ByteBuffer blockBuffer = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        short[] output = new short[OUTPUT_BLOCK_SAMPLES * blocks];
+        long n = 0;
+        for (int b = 0; b < blocks; b++) {
+            for (int i = 0; i < input.length; i++, n++) {
+                input[i] = (short) (TONE_AMPLITUDE
+                        * Math.sin(2 * Math.PI * frequency * n / INPUT_SAMPLE_RATE));
+            }
+            resampleBlock(resampler, input, block, blockBuffer);
+            for (int i = 0; i < OUTPUT_BLOCK_SAMPLES; i++) {
+                output[b * OUTPUT_BLOCK_SAMPLES + i] =
+                        (short) ((block[2 * i] & 0xff) | (block[2 * i + 1] << 8));
+            }
+        }
+        return output;
+    }
+
+    private static double rms(short[] samples, int offset, int length) {
+        double sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += (double) samples[i] * samples[i];
+        }
+        return Math.sqrt(sum / length);
+    }
+
+    /**
+     * A copy of AudioRecordManager.convert441To16, which cannot be loaded without Android.
+     */
+    static void convert441To16(short[] from, byte[] to) {
+        double ratio = (double) INPUT_SAMPLE_RATE / (double) OUTPUT_SAMPLE_RATE;
+        for (int i = 0; i < to.length / 2; i++) {
+            double p = i * ratio;
+            int m = (int) p;
+            double delta = p - m;
+            int n = m;
+            if (delta != 0) {
+                n = m + 1;
+            }
+            if (n >= from.length - 1) {
+                n = from.length - 1;
+            }
+
+            short t = (short) (from[m] + (short) ((from[n] - from[m]) * delta));
+            to[2 * i] = (byte) (t & 0x00ff);
+            to[2 * i + 1] = (byte) ((t >> 8) & 0x00ff);
+        }
+    }
+}
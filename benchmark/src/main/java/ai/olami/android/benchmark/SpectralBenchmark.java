@@ -0,0 +1,359 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import ai.olami.android.VoiceActivityDetector;
+import ai.olami.android.jni.SpectralAnalyzer;
+
+/**
+ * Measure the spectral VAD on the desktop JVM, with libspeexjni built for the host.
+ *
+ * The first table runs every VAD mode on synthetic voice in silence, in the noise of a fan
+ * and in music: 3 seconds of background, 2 seconds of voice over it, then 3 seconds of background.
+ * A begin before the voice is a false trigger, an end long after the voice means the background
+ * kept the VAD in speech.
+ *
+ * The second table compares the cost of the native features of a 60 ms block with the same
+ * features computed in Java on a radix-2 FFT, and the cost of each VAD mode.
+ *
+ * Usage: SpectralBenchmark [--blocks 20000]
+ */
+public class SpectralBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLISECONDS = 60;
+    private static final int BLOCK_SAMPLES = SAMPLE_RATE / 1000 * BLOCK_MILLISECONDS;
+    private static final int BLOCK_SIZE = BLOCK_SAMPLES * 2;
+
+    private static final int BACKGROUND_MILLISECONDS = 3000;
+    private static final int VOICE_MILLISECONDS = 2000;
+    private static final int VAD_END_MILLISECONDS = 1000;
+
+    private static final String[] MODE_NAMES = {"fixed", "adaptive", "spectral"};
+    private static final String[] BACKGROUND_NAMES = {"silence", "fan", "music"};
+
+    public static void main(String[] args) {
+        int blocks = 20000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--blocks") && (i + 1 < args.length)) {
+                blocks = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        runDetection();
+        System.out.println();
+        runCost(blocks);
+    }
+
+    private static void runDetection() {
+        System.out.println("Voice from " + BACKGROUND_MILLISECONDS + " to "
+                + (BACKGROUND_MILLISECONDS + VOICE_MILLISECONDS) + " ms, VAD end "
+                + VAD_END_MILLISECONDS + " ms");
+        System.out.println("background mode     | false begins | begin ms |   end ms");
+        for (int background = 0; background < BACKGROUND_NAMES.length; background++) {
+            short[] audio = createScenario(background);
+            for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+                VoiceActivityDetector vad = createVad(mode, VoiceActivityDetector.FRAME_LENGTH_20_MILLISECONDS);
+                ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+                int falseBegins = 0;
+                int begin = -1;
+                int end = -1;
+                for (int b = 0; (b + 1) * BLOCK_SAMPLES <= audio.length; b++) {
+                    block.clear();
+                    block.asShortBuffer().put(audio, b * BLOCK_SAMPLES, BLOCK_SAMPLES);
+                    int events = vad.process(block, BLOCK_SIZE);
+                    int time = (b + 1) * BLOCK_MILLISECONDS;
+                    if ((events & VoiceActivityDetector.EVENT_SPEECH_BEGIN) != 0) {
+                        if (time <= BACKGROUND_MILLISECONDS) {
+                            falseBegins++;
+                        } else if (begin < 0) {
+                            begin = time;
+                        }
+                    }
+                    if (((events & VoiceActivityDetector.EVENT_SPEECH_END) != 0)
+                            && (begin >= 0) && (end < 0)) {
+                        end = time;
+                    }
+                }
+                vad.release();
+                System.out.println(String.format("%-10s %-8s | %12d | %8s | %8s",
+                        BACKGROUND_NAMES[background], MODE_NAMES[mode], falseBegins,
+                        (begin < 0) ? "-" : String.valueOf(begin), (end < 0) ? "-" : String.valueOf(end)));
+            }
+        }
+    }
+
+    private static void runCost(int blocks) {
+        short[] audio = createScenario(1);
+        ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        block.asShortBuffer().put(audio, BACKGROUND_MILLISECONDS * SAMPLE_RATE / 1000, BLOCK_SAMPLES);
+
+        System.out.println("per 60 ms block                 |  ns/block");
+        for (int frameMilliseconds : new int[] {VoiceActivityDetector.FRAME_LENGTH_10_MILLISECONDS,
+                VoiceActivityDetector.FRAME_LENGTH_20_MILLISECONDS}) {
+            final int frameSamples = SAMPLE_RATE / 1000 * frameMilliseconds;
+            final int frames = BLOCK_SAMPLES / frameSamples;
+
+            final SpectralAnalyzer analyzer = new SpectralAnalyzer(SAMPLE_RATE, frameSamples);
+            final ByteBuffer features = SpectralAnalyzer.allocateFeatures(frames);
+            final ByteBuffer input = block;
+            printCost(String.format("native features, %d ms frames", frameMilliseconds), blocks, new Runnable() {
+                @Override
+                public void run() {
+                    analyzer.analyze(input, 0, BLOCK_SIZE, features);
+                }
+            });
+            analyzer.close();
+
+            final JavaSpectralAnalyzer javaAnalyzer = new JavaSpectralAnalyzer(frameSamples);
+            final float[] javaFeatures = new float[SpectralAnalyzer.FEATURE_COUNT];
+            printCost(String.format("Java features, %d ms frames", frameMilliseconds), blocks, new Runnable() {
+                @Override
+                public void run() {
+                    for (int f = 0; f < frames; f++) {
+                        javaAnalyzer.analyze(input, f * frameSamples * 2, javaFeatures);
+                    }
+                }
+            });
+        }
+
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            final VoiceActivityDetector vad = createVad(mode, VoiceActivityDetector.FRAME_LENGTH_20_MILLISECONDS);
+            final ByteBuffer input = block;
+            printCost("VAD " + MODE_NAMES[mode] + ", 20 ms frames", blocks, new Runnable() {
+                @Override
+                public void run() {
+                    vad.process(input, BLOCK_SIZE);
+                }
+            });
+            vad.release();
+        }
+    }
+
+    private static void printCost(String name, int blocks, Runnable block) {
+        // Warm up the JIT.
+        for (int i = 0; i < Math.min(blocks, 5000); i++) {
+            block.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < blocks; i++) {
+            block.run();
+        }
+        long nanoseconds = System.nanoTime() - start;
+        System.out.println(String.format("%-31s | %9.0f", name, (double) nanoseconds / blocks));
+    }
+
+    private static VoiceActivityDetector createVad(int mode, int frameMilliseconds) {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE, frameMilliseconds);
+        vad.setMode(mode);
+        vad.setEndMilliseconds(VAD_END_MILLISECONDS);
+        vad.setInstantNoiseMilliseconds(1000);
+        vad.reset();
+        return vad;
+    }
+
+    /**
+     * Background, then voice over the background, then the background again.
+     *
+     * @param background - 0 for silence, 1 for a fan, 2 for music.
+     */
+    private static short[] createScenario(int background) {
+        int voiceFrom = BACKGROUND_MILLISECONDS * SAMPLE_RATE / 1000;
+        int voiceTo = voiceFrom + VOICE_MILLISECONDS * SAMPLE_RATE / 1000;
+        short[] audio = new short[voiceTo + voiceFrom];
+        Random random = new Random(3);
+        double slow = 0;
+        double fast = 0;
+        for (int n = 0; n < audio.length; n++) {
+            double t = (double) n / SAMPLE_RATE;
+            double s = random.nextGaussian() * 30;
+            if (background == 1) {
+                // Low-passed noise with a hum of the motor.
+                slow += 0.05 * (random.nextGaussian() - slow);
+                fast += 0.2 * (random.nextGaussian() - fast);
+                s += 6000 * slow + 1000 * fast + 300 * Math.sin(2 * Math.PI * 100 * t);
+            } else if (background == 2) {
+                // Chords changing every half second, with their harmonics.
+                int chord = (int) (t * 2) % 3;
+                double[] notes = (chord == 0) ? new double[] {262, 330, 392}
+                        : (chord == 1) ? new double[] {294, 370, 440} : new double[] {247, 311, 370};
+                for (double note : notes) {
+                    for (int h = 1; h <= 4; h++) {
+                        s += 700.0 / h * Math.sin(2 * Math.PI * note * h * t);
+                    }
+                }
+            }
+            if ((n >= voiceFrom) && (n < voiceTo)) {
+                s += voice(t);
+            }
+            audio[n] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+        }
+        return audio;
+    }
+
+    /**
+     * Voiced harmonics with a moving pitch, shaped by three formants and a syllable rhythm.
+     */
+    private static double voice(double t) {
+        double f0 = 140 + 20 * Math.sin(2 * Math.PI * 0.7 * t);
+        double s = 0;
+        for (int h = 1; h * f0 < 4000; h++) {
+            double f = f0 * h;
+            double gain = Math.exp(-Math.pow((f - 700) / 400, 2))
+                    + 0.6 * Math.exp(-Math.pow((f - 1800) / 500, 2))
+                    + 0.3 * Math.exp(-Math.pow((f - 2800) / 600, 2));
+            s += gain * Math.sin(2 * Math.PI * f * t + h);
+        }
+        double syllables = 0.5 + 0.5 * Math.abs(Math.sin(2 * Math.PI * 2.5 * t));
+        return 3500 * s * syllables;
+    }
+
+    /**
+     * The features of SpectralAnalyzer in Java: band energies, flatness and SNR against
+     * the tracked noise of the voice band, on a zero-padded radix-2 FFT.
+     */
+    private static class JavaSpectralAnalyzer {
+        private static final int[] BAND_EDGES = {0, 300, 1000, 2000, 4000};
+
+        private final int mFrameSize;
+        private final int mFftSize;
+        private final double[] mWindow;
+        private final double[] mReal;
+        private final double[] mImaginary;
+        private final double[] mNoise;
+        private final int[] mBandStart = new int[SpectralAnalyzer.BAND_COUNT + 1];
+        private final int mVoiceStart;
+        private final int mVoiceEnd;
+        private final double mNoiseTrack;
+        private final double mNoiseRise;
+        private boolean mNoiseReady = false;
+
+        JavaSpectralAnalyzer(int frameSize) {
+            mFrameSize = frameSize;
+            mFftSize = Integer.highestOneBit(frameSize - 1) << 1;
+            mWindow = new double[frameSize];
+            for (int i = 0; i < frameSize; i++) {
+                mWindow[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / frameSize);
+            }
+            mReal = new double[mFftSize];
+            mImaginary = new double[mFftSize];
+            int bins = mFftSize / 2 + 1;
+            mNoise = new double[bins];
+            for (int band = 0; band < SpectralAnalyzer.BAND_COUNT; band++) {
+                mBandStart[band] = toBin(BAND_EDGES[band]);
+            }
+            mBandStart[SpectralAnalyzer.BAND_COUNT] = bins;
+            mVoiceStart = Math.max(toBin(300), 1);
+            mVoiceEnd = toBin(4000);
+            double frameSeconds = (double) frameSize / SAMPLE_RATE;
+            mNoiseTrack = 1 - Math.exp(-frameSeconds / 0.5);
+            mNoiseRise = 1 - Math.exp(-frameSeconds / 10.0);
+        }
+
+        private int toBin(int hz) {
+            return Math.min(hz * mFftSize / SAMPLE_RATE, mFftSize / 2 + 1);
+        }
+
+        void analyze(ByteBuffer pcm, int offset, float[] features) {
+            for (int i = 0; i < mFftSize; i++) {
+                mReal[i] = (i < mFrameSize) ? pcm.getShort(offset + i * 2) * mWindow[i] : 0;
+                mImaginary[i] = 0;
+            }
+            fft(mReal, mImaginary);
+            for (int i = 0; i < mBandStart[SpectralAnalyzer.BAND_COUNT]; i++) {
+                mReal[i] = mReal[i] * mReal[i] + mImaginary[i] * mImaginary[i];
+            }
+            for (int band = 0; band < SpectralAnalyzer.BAND_COUNT; band++) {
+                double energy = 0;
+                for (int i = mBandStart[band]; i < mBandStart[band + 1]; i++) {
+                    energy += mReal[i];
+                }
+                features[band] = (float) energy;
+            }
+
+            if (!mNoiseReady) {
+                System.arraycopy(mReal, mVoiceStart, mNoise, mVoiceStart, mVoiceEnd - mVoiceStart);
+                mNoiseReady = true;
+            }
+            double logSum = 0;
+            double sum = 0;
+            double noiseSum = 0;
+            for (int i = mVoiceStart; i < mVoiceEnd; i++) {
+                double power = mReal[i] + 1;
+                logSum += Math.log(power);
+                sum += power;
+                noiseSum += mNoise[i] + 1;
+            }
+            double alpha = (sum < noiseSum * 4) ? mNoiseTrack : mNoiseRise;
+            for (int i = mVoiceStart; i < mVoiceEnd; i++) {
+                mNoise[i] += (mReal[i] - mNoise[i]) * alpha;
+            }
+            int bins = mVoiceEnd - mVoiceStart;
+            features[SpectralAnalyzer.FEATURE_FLATNESS] = (float) (Math.exp(logSum / bins) / (sum / bins));
+            features[SpectralAnalyzer.FEATURE_SNR] = (float) (10 * Math.log10(sum / noiseSum));
+        }
+
+        private static void fft(double[] real, double[] imaginary) {
+            int n = real.length;
+            for (int i = 1, j = 0; i < n; i++) {
+                int bit = n >> 1;
+                for (; (j & bit) != 0; bit >>= 1) {
+                    j ^= bit;
+                }
+                j ^= bit;
+                if (i < j) {
+                    double t = real[i];
+                    real[i] = real[j];
+                    real[j] = t;
+                    t = imaginary[i];
+                    imaginary[i] = imaginary[j];
+                    imaginary[j] = t;
+                }
+            }
+            for (int length = 2; length <= n; length <<= 1) {
+                double angle = -2 * Math.PI / length;
+                double stepReal = Math.cos(angle);
+                double stepImaginary = Math.sin(angle);
+                for (int i = 0; i < n; i += length) {
+                    double wReal = 1;
+                    double wImaginary = 0;
+                    for (int j = 0; j < length / 2; j++) {
+                        int u = i + j;
+                        int v = u + length / 2;
+                        double xReal = real[v] * wReal - imaginary[v] * wImaginary;
+                        double xImaginary = real[v] * wImaginary + imaginary[v] * wReal;
+                        real[v] = real[u] - xReal;
+                        imaginary[v] = imaginary[u] - xImaginary;
+                        real[u] += xReal;
+                        imaginary[u] += xImaginary;
+                        double t = wReal * stepReal - wImaginary * stepImaginary;
+                        wImaginary = wReal * stepImaginary + wImaginary * stepReal;
+                        wReal = t;
+                    }
+                }
+            }
+        }
+    }
+}
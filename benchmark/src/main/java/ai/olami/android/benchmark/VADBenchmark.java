@@ -0,0 +1,346 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ai.olami.android.IAudioSource;
+import ai.olami.android.VoiceActivityDetector;
+import ai.olami.android.jni.Preprocessor;
+
+/**
+ * Run the VAD of the recognizers over a labeled corpus and report how early the speech is
+ * detected, how late it is ended, how often it is cut off and how much audio is uploaded,
+ * for every combination of the given settings.
+ *
+ * Usage: VADBenchmark corpus-directory [options], each option takes a comma-separated list.
+ *   --mode fixed,adaptive,spectral   VAD mode. Default is fixed.
+ *   --frame 10,20                    VAD frame length in milliseconds. Default is 10.
+ *   --end 2000                       Length of VAD end in milliseconds. Default is 2000.
+ *   --silence-level 5                Silence level of VAD tail. Default is 5.
+ *   --pre-roll 1000                  Length of pre-roll in milliseconds. Default is 1000.
+ *   --preprocess off,denoise,agc,all Native preprocessing before the VAD. Default is off.
+ *   --pcm-rate 16000                 Sample rate of the raw PCM files. Default is 16000.
+ */
+public class VADBenchmark {
+
+    // The same block and VAD settings as SpeechRecognizerBase.
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLISECONDS = 60;
+    private static final int BLOCK_SIZE = SAMPLE_RATE / 1000 * BLOCK_MILLISECONDS * 2;
+    private static final int INSTANT_NOISE_LENGTH_MILLISECONDS = 1000;
+
+    private static final String[] MODE_NAMES = {"fixed", "adaptive", "spectral"};
+    private static final String[] PREPROCESS_NAMES = {"off", "denoise", "agc", "all"};
+    private static final int PREPROCESS_DENOISE = 1;
+    private static final int PREPROCESS_AGC = 2;
+
+    private static class Settings {
+        int mode;
+        int frameMilliseconds;
+        int endMilliseconds;
+        int silenceLevel;
+        int preRollMilliseconds;
+        int preprocess;
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %3d %6d %3d %6d %-7s", MODE_NAMES[mode], frameMilliseconds,
+                    endMilliseconds, silenceLevel, preRollMilliseconds, PREPROCESS_NAMES[preprocess]);
+        }
+    }
+
+    private static class Result {
+        boolean begun = false;
+        int beginMilliseconds = -1;
+        int headMilliseconds = -1;
+        int endMilliseconds = -1;
+        int uploadedMilliseconds = 0;
+    }
+
+    private static class Summary {
+        Settings settings;
+        int utterances = 0;
+        int missed = 0;
+        int earlyBegins = 0;
+        int headClipped = 0;
+        int prematureCuts = 0;
+        int notEnded = 0;
+        long onsetDelaySum = 0;
+        int onsetCount = 0;
+        List<Integer> endDelays = new ArrayList<Integer>();
+        long uploadedSum = 0;
+        String error = null;
+
+        double meanOnsetDelay() {
+            return (onsetCount == 0) ? Double.NaN : (double) onsetDelaySum / onsetCount;
+        }
+
+        double meanEndDelay() {
+            if (endDelays.isEmpty()) {
+                return Double.NaN;
+            }
+            long sum = 0;
+            for (int delay : endDelays) {
+                sum += delay;
+            }
+            return (double) sum / endDelays.size();
+        }
+
+        int percentileEndDelay(int percent) {
+            if (endDelays.isEmpty()) {
+                return -1;
+            }
+            Integer[] sorted = endDelays.toArray(new Integer[endDelays.size()]);
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+        }
+
+        boolean isClean() {
+            return (error == null) && (missed == 0) && (headClipped == 0)
+                    && (prematureCuts == 0) && (notEnded == 0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: VADBenchmark corpus-directory [--mode fixed,adaptive,spectral]"
+                    + " [--frame 10,20] [--end ms,...] [--silence-level n,...] [--pre-roll ms,...]"
+                    + " [--preprocess off,denoise,agc,all] [--pcm-rate hz]");
+            System.exit(1);
+        }
+
+        int[] modes = {VoiceActivityDetector.MODE_FIXED_LEVEL};
+        int[] frames = {VoiceActivityDetector.FRAME_LENGTH_10_MILLISECONDS};
+        int[] ends = {2000};
+        int[] silenceLevels = {5};
+        int[] preRolls = {1000};
+        int[] preprocesses = {0};
+        int pcmRate = SAMPLE_RATE;
+
+        for (int i = 1; i < args.length - 1; i += 2) {
+            String option = args[i];
+            String value = args[i + 1];
+            if (option.equals("--mode")) {
+                modes = parseNames(value, MODE_NAMES, "VAD mode");
+            } else if (option.equals("--frame")) {
+                frames = parseList(value);
+            } else if (option.equals("--end")) {
+                ends = parseList(value);
+            } else if (option.equals("--silence-level")) {
+                silenceLevels = parseList(value);
+            } else if (option.equals("--pre-roll")) {
+                preRolls = parseList(value);
+            } else if (option.equals("--preprocess")) {
+                preprocesses = parseNames(value, PREPROCESS_NAMES, "preprocessing");
+            } else if (option.equals("--pcm-rate")) {
+                pcmRate = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        List<LabeledUtterance> corpus = LabeledUtterance.loadDirectory(new File(args[0]), pcmRate);
+        if (corpus.isEmpty()) {
+            System.err.println("No labeled utterance found in " + args[0]);
+            System.exit(1);
+        }
+        System.out.println(corpus.size() + " labeled utterances");
+
+        List<Summary> summaries = new ArrayList<Summary>();
+        for (int mode : modes) {
+            for (int frame : frames) {
+                for (int end : ends) {
+                    for (int silenceLevel : silenceLevels) {
+                        for (int preRoll : preRolls) {
+                            for (int preprocess : preprocesses) {
+                                Settings settings = new Settings();
+                                settings.mode = mode;
+                                settings.frameMilliseconds = frame;
+                                settings.endMilliseconds = end;
+                                settings.silenceLevel = silenceLevel;
+                                settings.preRollMilliseconds = preRoll;
+                                settings.preprocess = preprocess;
+                                summaries.add(evaluate(corpus, settings));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        printReport(summaries);
+    }
+
+    private static Summary evaluate(List<LabeledUtterance> corpus, Settings settings) {
+        Summary summary = new Summary();
+        summary.settings = settings;
+        try {
+            for (LabeledUtterance utterance : corpus) {
+                accumulate(summary, utterance, simulate(utterance, settings));
+            }
+        } catch (Throwable e) {
+            // Such as the spectral mode or the preprocessing without the native library.
+            summary.error = e.toString();
+        }
+        return summary;
+    }
+
+    /**
+     * Feed the utterance block by block as the recorder thread does,
+     * including the pre-roll and the auto stop at the speech end.
+     */
+    private static Result simulate(LabeledUtterance utterance, Settings settings) throws Exception {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE, settings.frameMilliseconds);
+        IAudioSource source = utterance.createAudioSource();
+        Preprocessor preprocessor = null;
+        Result result = new Result();
+        try {
+            if (settings.preprocess != 0) {
+                // 10 ms frames as the recognizers.
+                preprocessor = new Preprocessor(SAMPLE_RATE, SAMPLE_RATE / 100);
+                preprocessor.setDenoise((settings.preprocess & PREPROCESS_DENOISE) != 0);
+                preprocessor.setAGC((settings.preprocess & PREPROCESS_AGC) != 0);
+            }
+            vad.setMode(settings.mode);
+            vad.setSilenceLevel(settings.silenceLevel);
+            vad.setEndMilliseconds(settings.endMilliseconds);
+            vad.setInstantNoiseMilliseconds(INSTANT_NOISE_LENGTH_MILLISECONDS);
+            vad.reset();
+
+            ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+            int preRollBlocks = settings.preRollMilliseconds / BLOCK_MILLISECONDS;
+            int blocks = 0;
+
+            source.open();
+            while (source.read(block, BLOCK_SIZE) == BLOCK_SIZE) {
+                if (preprocessor != null) {
+                    preprocessor.process(block, 0, BLOCK_SIZE);
+                }
+                int event = vad.process(block, BLOCK_SIZE);
+                int blockEnd = (blocks + 1) * BLOCK_MILLISECONDS;
+                if (!result.begun) {
+                    if ((event & VoiceActivityDetector.EVENT_SPEECH_BEGIN) != 0) {
+                        int heldBlocks = Math.min(blocks, preRollBlocks);
+                        result.begun = true;
+                        result.beginMilliseconds = blockEnd;
+                        result.headMilliseconds = (blocks - heldBlocks) * BLOCK_MILLISECONDS;
+                        result.uploadedMilliseconds = (heldBlocks + 1) * BLOCK_MILLISECONDS;
+                    }
+                } else {
+                    result.uploadedMilliseconds += BLOCK_MILLISECONDS;
+                    if ((event & VoiceActivityDetector.EVENT_SPEECH_END) != 0) {
+                        result.endMilliseconds = blockEnd;
+                        break;
+                    }
+                }
+                blocks++;
+            }
+        } finally {
+            source.close();
+            vad.release();
+            if (preprocessor != null) {
+                preprocessor.close();
+            }
+        }
+        return result;
+    }
+
+    private static void accumulate(Summary summary, LabeledUtterance utterance, Result result) {
+        int speechStart = utterance.getSpeechStartMilliseconds();
+        int speechEnd = utterance.getSpeechEndMilliseconds();
+
+        summary.utterances++;
+        if (!result.begun) {
+            summary.missed++;
+            return;
+        }
+        summary.uploadedSum += result.uploadedMilliseconds;
+        if (result.beginMilliseconds < speechStart) {
+            // Triggered by the noise before the speech.
+            summary.earlyBegins++;
+        } else {
+            summary.onsetDelaySum += result.beginMilliseconds - speechStart;
+            summary.onsetCount++;
+        }
+        if (result.headMilliseconds > speechStart) {
+            summary.headClipped++;
+        }
+        if (result.endMilliseconds < 0) {
+            summary.notEnded++;
+        } else if (result.endMilliseconds < speechEnd) {
+            summary.prematureCuts++;
+        } else {
+            summary.endDelays.add(result.endMilliseconds - speechEnd);
+        }
+    }
+
+    private static void printReport(List<Summary> summaries) {
+        System.out.println("mode     frm    end lvl preRol preproc |  miss early head  cut noEnd |"
+                + " onset  end(avg)  end(p90) | upload(avg)");
+        Summary best = null;
+        for (Summary summary : summaries) {
+            if (summary.error != null) {
+                System.out.println(summary.settings + " | " + summary.error);
+                continue;
+            }
+            System.out.println(String.format("%s | %5d %5d %4d %4d %5d | %5.0f %9.0f %9d | %11.0f",
+                    summary.settings, summary.missed, summary.earlyBegins, summary.headClipped,
+                    summary.prematureCuts, summary.notEnded, summary.meanOnsetDelay(),
+                    summary.meanEndDelay(), summary.percentileEndDelay(90),
+                    (double) summary.uploadedSum / Math.max(summary.utterances - summary.missed, 1)));
+            if (summary.isClean()
+                    && ((best == null) || (summary.meanEndDelay() < best.meanEndDelay()))) {
+                best = summary;
+            }
+        }
+        System.out.println();
+        if (best != null) {
+            System.out.println("Fastest final result without truncation: " + best.settings);
+        } else {
+            System.out.println("No setting passes the corpus without a miss, clipped head or cut.");
+        }
+    }
+
+    private static int[] parseNames(String value, String[] names, String kind) {
+        String[] items = value.split(",");
+        int[] indexes = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            indexes[i] = Arrays.asList(names).indexOf(items[i].trim());
+            if (indexes[i] < 0) {
+                throw new IllegalArgumentException("Unknown " + kind + ": " + items[i]);
+            }
+        }
+        return indexes;
+    }
+
+    private static int[] parseList(String value) {
+        String[] items = value.split(",");
+        int[] values = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            values[i] = Integer.parseInt(items[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import ai.olami.android.VoiceVolume;
+
+/**
+ * Compare the one-pass meter of VoiceVolume with the volume of the recognizers before it,
+ * the peak found by getVoiceVolume(byte[]) then scaled by getNormalizeVolume(), on 60 ms blocks.
+ * The checks fail the process with exit code 1, so it can run on a CI machine.
+ *
+ * Usage: VolumeBenchmark [--blocks 200000]
+ */
+public class VolumeBenchmark {
+
+    private static final int BLOCK_SIZE = 1920;
+
+    private static int mFailures = 0;
+
+    public static void main(String[] args) {
+        int blocks = 200000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--blocks") && (i + 1 < args.length)) {
+                blocks = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        byte[] data = createBlock();
+        ByteBuffer direct = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        direct.asShortBuffer().put(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+
+        checkMeter(data, direct);
+        System.out.println();
+        runBenchmark(data, direct, blocks);
+
+        if (mFailures > 0) {
+            System.out.println(mFailures + " check(s) failed.");
+            System.exit(1);
+        }
+    }
+
+    private static void check(boolean passed, String name) {
+        System.out.println((passed ? "PASS  " : "FAIL  ") + name);
+        if (!passed) {
+            mFailures++;
+        }
+    }
+
+    private static void checkMeter(byte[] data, ByteBuffer direct) {
+        VoiceVolume volume = new VoiceVolume();
+        boolean sameLevels = true;
+        for (int peak = 0; peak <= 32768; peak++) {
+            sameLevels &= (volume.getNormalizeVolume(peak) == legacyNormalizeVolume(peak));
+        }
+        check(sameLevels, "the 0-12 level of every peak is the legacy level");
+
+        volume.measure(data, 0, data.length);
+        int peak = volume.getPeak();
+        double rms = volume.getRmsDbfs();
+        int clipped = volume.getClippedSamples();
+        System.out.println(String.format("      legacy peak %d, peak %d, RMS %.1f dBFS, %d clipped",
+                legacyVoiceVolume(data), peak, rms, clipped));
+        check(peak == 32768, "the negative full-scale peak is found");
+        check(clipped == 2, "both full-scale samples are counted as clipped");
+
+        volume.measure(direct, BLOCK_SIZE);
+        check((volume.getPeak() == peak) && (volume.getRmsDbfs() == rms)
+                && (volume.getClippedSamples() == clipped), "direct buffer and byte[] agree");
+    }
+
+    private static void runBenchmark(final byte[] data, final ByteBuffer direct, int blocks) {
+        final VoiceVolume volume = new VoiceVolume();
+        final long[] sink = new long[1];
+
+        System.out.println("meter                           |  ns/block | bytes/block");
+        printCost("legacy peak and level, byte[]", blocks, new Runnable() {
+            @Override
+            public void run() {
+                sink[0] += legacyNormalizeVolume(legacyVoiceVolume(data));
+            }
+        });
+        printCost("measure(), byte[]", blocks, new Runnable() {
+            @Override
+            public void run() {
+                volume.measure(data, 0, BLOCK_SIZE);
+                sink[0] += volume.getLevel();
+            }
+        });
+        printCost("measure(), direct buffer", blocks, new Runnable() {
+            @Override
+            public void run() {
+                volume.measure(direct, BLOCK_SIZE);
+                sink[0] += volume.getLevel();
+            }
+        });
+        // Keep the results alive.
+        System.out.println("(" + sink[0] + ")");
+    }
+
+    private static void printCost(String name, int blocks, Runnable block) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // Warm up the JIT.
+        for (int i = 0; i < Math.min(blocks, 50000); i++) {
+            block.run();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < blocks; i++) {
+            block.run();
+        }
+        long nanoseconds = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.println(String.format("%-31s | %9.0f | %11.1f",
+                name, (double) nanoseconds / blocks, (double) allocated / blocks));
+    }
+
+    /**
+     * Speech-like noise with a negative full-scale peak and a positive one.
+     */
+    private static byte[] createBlock() {
+        Random random = new Random(1);
+        byte[] data = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE / 2; i++) {
+            short sample = (short) Math.max(-32000, Math.min(32000, random.nextGaussian() * 3000));
+            if (i == 50) {
+                sample = Short.MIN_VALUE;
+            } else if (i == 700) {
+                sample = Short.MAX_VALUE;
+            }
+            data[2 * i] = (byte) sample;
+            data[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return data;
+    }
+
+    /**
+     * A copy of VoiceVolume.getVoiceVolume(byte[]) before the one-pass meter.
+     */
+    private static int legacyVoiceVolume(byte[] data) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int v = 0;
+        for (int i = 0; i < data.length; i += 2) {
+            if (byteBuffer.getShort(i) > v) {
+                v = Math.abs(byteBuffer.getShort(i));
+            }
+        }
+        return v;
+    }
+
+    /**
+     * A copy of VoiceVolume.getNormalizeVolume() before the one-pass meter.
+     */
+    private static int legacyNormalizeVolume(int volume) {
+        int nowVolumeMax = 10000;
+
+        final int MIN_VOLUME = 1;
+        final int MAX_VOLUME = 32767;
+        if (volume > nowVolumeMax) {
+            nowVolumeMax = (int) (volume * 1.5);
+        }
+        if (nowVolumeMax > MAX_VOLUME) {
+            nowVolumeMax = MAX_VOLUME;
+        }
+
+        int v = volume - MIN_VOLUME;
+        if (v < 0) {
+            v = 0;
+        } else if (v > (nowVolumeMax - MIN_VOLUME)) {
+            v = (nowVolumeMax - MIN_VOLUME);
+        }
+
+        return (int) ((v / (float) (nowVolumeMax - MIN_VOLUME + 1)) * (VoiceVolume.VOLUME_LEVEL + 1));
+    }
+}
@@ -0,0 +1,83 @@
+/* Copyright (C) 2018 VIA Technologies, Inc. & OLAMI Team */
+/**
+   @file ltp_neon.h
+   @brief Long-Term Prediction functions (NEON version, fixed-point)
+*/
+/*
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions
+   are met:
+   
+   - Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+   
+   - Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+   
+   - Neither the name of the Xiph.org Foundation nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+   
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+#include <arm_neon.h>
+
+#ifndef FIXED_POINT
+#error The NEON functions are only for fixed-point
+#endif
+
+/* Sums of 4 consecutive products of each vector, in order: the groups of the C version. */
+static inline int32x4_t group_sums_neon(int32x4_t p0, int32x4_t p1, int32x4_t p2, int32x4_t p3)
+{
+   int32x2_t s0 = vpadd_s32(vget_low_s32(p0), vget_high_s32(p0));
+   int32x2_t s1 = vpadd_s32(vget_low_s32(p1), vget_high_s32(p1));
+   int32x2_t s2 = vpadd_s32(vget_low_s32(p2), vget_high_s32(p2));
+   int32x2_t s3 = vpadd_s32(vget_low_s32(p3), vget_high_s32(p3));
+   return vcombine_s32(vpadd_s32(s0, s1), vpadd_s32(s2, s3));
+}
+
+/* Same result as the C version, bit for bit: every group of 4 products is shifted
+   before it is accumulated, 4 groups are processed at a time. */
+#define OVERRIDE_INNER_PROD
+spx_word32_t inner_prod(const spx_word16_t *x, const spx_word16_t *y, int len)
+{
+   int32x4_t acc = vdupq_n_s32(0);
+   spx_word32_t sum;
+   int groups = len >> 2;
+
+   for (; groups >= 4; groups -= 4)
+   {
+      int32x4_t p0 = vmull_s16(vld1_s16(x), vld1_s16(y));
+      int32x4_t p1 = vmull_s16(vld1_s16(x + 4), vld1_s16(y + 4));
+      int32x4_t p2 = vmull_s16(vld1_s16(x + 8), vld1_s16(y + 8));
+      int32x4_t p3 = vmull_s16(vld1_s16(x + 12), vld1_s16(y + 12));
+      acc = vaddq_s32(acc, vshrq_n_s32(group_sums_neon(p0, p1, p2, p3), 6));
+      x += 16;
+      y += 16;
+   }
+   sum = vgetq_lane_s32(acc, 0) + vgetq_lane_s32(acc, 1)
+       + vgetq_lane_s32(acc, 2) + vgetq_lane_s32(acc, 3);
+
+   for (; groups > 0; groups--)
+   {
+      int32x4_t p = vmull_s16(vld1_s16(x), vld1_s16(y));
+      int32x2_t s = vpadd_s32(vget_low_s32(p), vget_high_s32(p));
+      s = vpadd_s32(s, s);
+      sum = ADD32(sum, SHR32(vget_lane_s32(s, 0), 6));
+      x += 4;
+      y += 4;
+   }
+   return sum;
+}
@@ -0,0 +1,126 @@
+/* Copyright (C) 2018 VIA Technologies, Inc. & OLAMI Team */
+/**
+   @file vq_neon.h
+   @brief Vector quantization (NEON version, fixed-point)
+*/
+/*
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions
+   are met:
+   
+   - Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+   
+   - Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+   
+   - Neither the name of the Xiph.org Foundation nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+   
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+#include <arm_neon.h>
+
+#ifndef FIXED_POINT
+#error The NEON functions are only for fixed-point
+#endif
+
+/* Correlation of the target with one codebook entry. Integer products are exact,
+   so the order of the additions does not change the result of the C version. */
+static inline spx_word32_t vq_dot_neon(const spx_word16_t *in, const spx_word16_t *codebook, int len)
+{
+   int32x4_t acc = vdupq_n_s32(0);
+   int32x2_t s;
+   spx_word32_t dist;
+   int j;
+
+   for (j = 0; j + 8 <= len; j += 8)
+   {
+      int16x8_t a = vld1q_s16(in + j);
+      int16x8_t b = vld1q_s16(codebook + j);
+      acc = vmlal_s16(acc, vget_low_s16(a), vget_low_s16(b));
+      acc = vmlal_s16(acc, vget_high_s16(a), vget_high_s16(b));
+   }
+   if (j + 4 <= len)
+   {
+      acc = vmlal_s16(acc, vld1_s16(in + j), vld1_s16(codebook + j));
+      j += 4;
+   }
+   s = vpadd_s32(vget_low_s32(acc), vget_high_s32(acc));
+   s = vpadd_s32(s, s);
+   dist = vget_lane_s32(s, 0);
+   for (; j < len; j++)
+      dist = MAC16_16(dist, in[j], codebook[j]);
+   return dist;
+}
+
+#define OVERRIDE_VQ_NBEST
+void vq_nbest(spx_word16_t *in, const spx_word16_t *codebook, int len, int entries, spx_word32_t *E, int N, int *nbest, spx_word32_t *best_dist, char *stack)
+{
+   int i,k,used;
+   used = 0;
+   for (i=0;i<entries;i++)
+   {
+      spx_word32_t dist = vq_dot_neon(in, codebook, len);
+      codebook += len;
+      dist=SUB32(SHR32(E[i],1),dist);
+      if (i<N || dist<best_dist[N-1])
+      {
+         for (k=N-1; (k >= 1) && (k > used || dist < best_dist[k-1]); k--)
+         {
+            best_dist[k]=best_dist[k-1];
+            nbest[k] = nbest[k-1];
+         }
+         best_dist[k]=dist;
+         nbest[k]=i;
+         used++;
+      }
+   }
+}
+
+#define OVERRIDE_VQ_NBEST_SIGN
+void vq_nbest_sign(spx_word16_t *in, const spx_word16_t *codebook, int len, int entries, spx_word32_t *E, int N, int *nbest, spx_word32_t *best_dist, char *stack)
+{
+   int i,k, sign, used;
+   used=0;
+   for (i=0;i<entries;i++)
+   {
+      spx_word32_t dist = vq_dot_neon(in, codebook, len);
+      codebook += len;
+      if (dist>0)
+      {
+         sign=0;
+         dist=-dist;
+      } else
+      {
+         sign=1;
+      }
+      dist = ADD32(dist,SHR32(E[i],1));
+      if (i<N || dist<best_dist[N-1])
+      {
+         for (k=N-1; (k >= 1) && (k > used || dist < best_dist[k-1]); k--)
+         {
+            best_dist[k]=best_dist[k-1];
+            nbest[k] = nbest[k-1];
+         }
+         best_dist[k]=dist;
+         nbest[k]=i;
+         used++;
+         if (sign)
+            nbest[k]+=entries;
+      }
+   }
+}
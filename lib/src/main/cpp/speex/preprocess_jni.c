@@ -0,0 +1,430 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/*
+ * Speech preprocessor: spectral noise suppression, automatic gain control and voice detection,
+ * in the manner of the Speex DSP preprocessor, built on the KISS FFT of libspeex.
+ * Frames are processed in place with 50% overlap-add, so the output is delayed by one frame.
+ */
+
+#include <jni.h>
+#include <math.h>
+#include <stdint.h>
+#include <speex/speex_types.h>
+#include "libspeex/kiss_fftr.h"
+#include "libspeex/os_support.h"
+
+/* Must match Preprocessor.java */
+#define PREPROCESS_SET_DENOISE 0
+#define PREPROCESS_SET_NOISE_SUPPRESS 1
+#define PREPROCESS_SET_AGC 2
+#define PREPROCESS_SET_AGC_LEVEL 3
+#define PREPROCESS_SET_AGC_MAX_GAIN 4
+
+#define DEFAULT_NOISE_SUPPRESS_DB -15
+#define DEFAULT_AGC_LEVEL_DBFS -20
+#define DEFAULT_AGC_MAX_GAIN_DB 30
+
+/* Frames averaged as the first noise estimate. */
+#define NOISE_INIT_FRAMES 5
+/* Time constant in seconds of the noise in a bin without voice. */
+#define NOISE_TRACK_SECONDS 0.2
+/* Length in seconds of the window of the minimum power, the noise may rise only this late. */
+#define MINIMUM_WINDOW_SECONDS 1.5
+/* Smoothed power over the minimum of a bin with voice, and the smoothing of its presence. */
+#define PRESENCE_RATIO 5.0f
+#define PRESENCE_SMOOTHING 0.2f
+#define POWER_SMOOTHING 0.3f
+/* Smoothing of the decision-directed a priori SNR. */
+#define PRIORI_SMOOTHING 0.9f
+/* Mean a priori SNR of the voice band of a speech frame, about -5 dB. */
+#define SPEECH_PRIORI_SNR 0.3f
+#define VOICE_FROM_HZ 300
+#define VOICE_TO_HZ 4000
+/* Time constants in seconds of the AGC gain. */
+#define AGC_ATTACK_SECONDS 0.02
+#define AGC_RELEASE_SECONDS 1.0
+
+#define FULL_SCALE 32768.0f
+
+typedef struct {
+    int frame_size;
+    int window_size;
+    int bins;
+    kiss_fftr_cfg fft;
+    kiss_fftr_cfg ifft;
+    float *window;
+    float *input;
+    float *frame;
+    float *overlap;
+    kiss_fft_cpx *spectrum;
+    float *power;
+    float *noise;
+    float *clean;
+    float *smooth;
+    float *minimum;
+    float *window_min;
+    float *presence;
+    int min_frames;
+    int min_window;
+    int voice_start;
+    int voice_end;
+    int frames;
+    float noise_track;
+
+    int denoise;
+    float suppress;
+    int agc;
+    float agc_level;
+    float agc_max_gain;
+    float agc_gain;
+    float speech_level;
+    float agc_attack;
+    float agc_release;
+} PreprocessState;
+
+static float db_to_amplitude(int db) {
+    return (float)pow(10.0, db / 20.0);
+}
+
+static void preprocess_free(PreprocessState *st) {
+    if (st->fft != NULL) {
+        kiss_fftr_free(st->fft);
+    }
+    if (st->ifft != NULL) {
+        kiss_fftr_free(st->ifft);
+    }
+    speex_free(st->window);
+    speex_free(st->input);
+    speex_free(st->frame);
+    speex_free(st->overlap);
+    speex_free(st->spectrum);
+    speex_free(st->power);
+    speex_free(st->noise);
+    speex_free(st->clean);
+    speex_free(st->smooth);
+    speex_free(st->minimum);
+    speex_free(st->window_min);
+    speex_free(st->presence);
+    speex_free(st);
+}
+
+static void preprocess_reset(PreprocessState *st) {
+    int i;
+    for (i = 0; i < st->window_size; i++) {
+        st->input[i] = 0;
+    }
+    for (i = 0; i < st->frame_size; i++) {
+        st->overlap[i] = 0;
+    }
+    for (i = 0; i < st->bins; i++) {
+        st->noise[i] = 0;
+        st->clean[i] = 0;
+        st->presence[i] = 0;
+    }
+    st->min_frames = 0;
+    st->frames = 0;
+    st->agc_gain = 1.0f;
+    st->speech_level = st->agc_level;
+}
+
+JNIEXPORT jlong JNICALL
+Java_ai_olami_android_jni_Preprocessor_nativeOpen(JNIEnv *env, jclass clazz,
+                                                  jint sampleRate, jint frameSize) {
+    PreprocessState *st;
+    double frame_seconds;
+    int i;
+
+    if ((sampleRate <= 0) || (frameSize <= 0)) {
+        return (jlong)0;
+    }
+
+    st = (PreprocessState *)speex_alloc(sizeof(PreprocessState));
+    if (st == NULL) {
+        return (jlong)0;
+    }
+    st->frame_size = frameSize;
+    st->window_size = frameSize * 2;
+    st->bins = frameSize + 1;
+    st->fft = kiss_fftr_alloc(st->window_size, 0, NULL, NULL);
+    st->ifft = kiss_fftr_alloc(st->window_size, 1, NULL, NULL);
+    st->window = (float *)speex_alloc(st->window_size * sizeof(float));
+    st->input = (float *)speex_alloc(st->window_size * sizeof(float));
+    st->frame = (float *)speex_alloc(st->window_size * sizeof(float));
+    st->overlap = (float *)speex_alloc(frameSize * sizeof(float));
+    st->spectrum = (kiss_fft_cpx *)speex_alloc(st->bins * sizeof(kiss_fft_cpx));
+    st->power = (float *)speex_alloc(st->bins * sizeof(float));
+    st->noise = (float *)speex_alloc(st->bins * sizeof(float));
+    st->clean = (float *)speex_alloc(st->bins * sizeof(float));
+    st->smooth = (float *)speex_alloc(st->bins * sizeof(float));
+    st->minimum = (float *)speex_alloc(st->bins * sizeof(float));
+    st->window_min = (float *)speex_alloc(st->bins * sizeof(float));
+    st->presence = (float *)speex_alloc(st->bins * sizeof(float));
+    if ((st->fft == NULL) || (st->ifft == NULL) || (st->window == NULL) || (st->input == NULL)
+            || (st->frame == NULL) || (st->overlap == NULL) || (st->spectrum == NULL)
+            || (st->power == NULL) || (st->noise == NULL)
+            || (st->clean == NULL) || (st->smooth == NULL) || (st->minimum == NULL)
+            || (st->window_min == NULL) || (st->presence == NULL)) {
+        preprocess_free(st);
+        return (jlong)0;
+    }
+
+    /* Square root of the periodic Hann window, for both analysis and synthesis. */
+    for (i = 0; i < st->window_size; i++) {
+        st->window[i] = (float)sin(M_PI * (i + 0.5) / st->window_size);
+    }
+    st->voice_start = (int)((long long)VOICE_FROM_HZ * st->window_size / sampleRate);
+    st->voice_end = (int)((long long)VOICE_TO_HZ * st->window_size / sampleRate);
+    if (st->voice_start < 1) {
+        st->voice_start = 1;
+    }
+    if ((st->voice_end > st->bins) || (st->voice_end <= st->voice_start)) {
+        st->voice_end = st->bins;
+    }
+
+    frame_seconds = (double)frameSize / sampleRate;
+    st->noise_track = (float)(1.0 - exp(-frame_seconds / NOISE_TRACK_SECONDS));
+    st->min_window = (int)(MINIMUM_WINDOW_SECONDS / frame_seconds);
+    st->agc_attack = (float)(1.0 - exp(-frame_seconds / AGC_ATTACK_SECONDS));
+    st->agc_release = (float)(1.0 - exp(-frame_seconds / AGC_RELEASE_SECONDS));
+
+    st->denoise = 1;
+    st->suppress = db_to_amplitude(DEFAULT_NOISE_SUPPRESS_DB);
+    st->agc = 0;
+    st->agc_level = db_to_amplitude(DEFAULT_AGC_LEVEL_DBFS) * FULL_SCALE;
+    st->agc_max_gain = db_to_amplitude(DEFAULT_AGC_MAX_GAIN_DB);
+    preprocess_reset(st);
+
+    return (jlong)(intptr_t)st;
+}
+
+/*
+ * Minima controlled recursive averaging of the noise: a bin is taken as voice while its smoothed power
+ * is well above its recent minimum, otherwise it is averaged into the noise.
+ */
+static void update_noise(PreprocessState *st) {
+    const float *power = st->power;
+    float *smooth = st->smooth;
+    float *minimum = st->minimum;
+    float *window_min = st->window_min;
+    float *presence = st->presence;
+    float *noise = st->noise;
+    const int restart = (++st->min_frames >= st->min_window);
+    int i;
+
+    if (st->frames < NOISE_INIT_FRAMES) {
+        for (i = 0; i < st->bins; i++) {
+            noise[i] += (power[i] - noise[i]) / (st->frames + 1);
+            smooth[i] = noise[i];
+            minimum[i] = noise[i];
+            window_min[i] = noise[i];
+        }
+        return;
+    }
+
+    for (i = 0; i < st->bins; i++) {
+        float alpha;
+        smooth[i] += (power[i] - smooth[i]) * POWER_SMOOTHING;
+        if (restart) {
+            minimum[i] = (window_min[i] < smooth[i]) ? window_min[i] : smooth[i];
+            window_min[i] = smooth[i];
+        } else {
+            if (smooth[i] < minimum[i]) {
+                minimum[i] = smooth[i];
+            }
+            if (smooth[i] < window_min[i]) {
+                window_min[i] = smooth[i];
+            }
+        }
+        presence[i] += (((smooth[i] > minimum[i] * PRESENCE_RATIO) ? 1.0f : 0) - presence[i])
+                * PRESENCE_SMOOTHING;
+        alpha = st->noise_track * (1.0f - presence[i]);
+        noise[i] += (power[i] - noise[i]) * alpha;
+    }
+    if (restart) {
+        st->min_frames = 0;
+    }
+}
+
+/* Process one frame in place, return 1 if it is voice. */
+static int process_frame(PreprocessState *st, spx_int16_t *samples) {
+    const int n = st->frame_size;
+    const int size = st->window_size;
+    const float *window = st->window;
+    float *input = st->input;
+    float *frame = st->frame;
+    float *overlap = st->overlap;
+    float *power = st->power;
+    kiss_fft_cpx *spectrum = st->spectrum;
+    const int ready = (st->frames >= NOISE_INIT_FRAMES);
+    float priori_sum = 0;
+    float energy = 0;
+    int speech;
+    int i;
+
+    if (st->frames == 0) {
+        /* Start as if the first frame had been preceded by itself, so the output does not fade in from silence. */
+        for (i = 0; i < n; i++) {
+            input[i + n] = samples[i];
+            overlap[i] = samples[i] * window[i + n] * window[i + n];
+        }
+    }
+    for (i = 0; i < n; i++) {
+        input[i] = input[i + n];
+        input[i + n] = samples[i];
+    }
+    for (i = 0; i < size; i++) {
+        frame[i] = input[i] * window[i];
+    }
+    kiss_fftr(st->fft, frame, spectrum);
+
+    for (i = 0; i < st->bins; i++) {
+        float gain = 1.0f;
+        power[i] = spectrum[i].r * spectrum[i].r + spectrum[i].i * spectrum[i].i;
+        if (ready) {
+            float noise = st->noise[i] + 1.0f;
+            float posteriori = power[i] / noise - 1.0f;
+            /* Decision-directed estimate of the a priori SNR. */
+            float priori = PRIORI_SMOOTHING * st->clean[i] / noise
+                    + (1.0f - PRIORI_SMOOTHING) * ((posteriori > 0) ? posteriori : 0);
+            if ((i >= st->voice_start) && (i < st->voice_end)) {
+                priori_sum += priori;
+            }
+            if (st->denoise) {
+                /* Wiener gain, limited by the suppression level. */
+                gain = priori / (1.0f + priori);
+                if (gain < st->suppress) {
+                    gain = st->suppress;
+                }
+            }
+        }
+        st->clean[i] = gain * gain * power[i];
+        spectrum[i].r *= gain;
+        spectrum[i].i *= gain;
+    }
+    speech = ready && (priori_sum > SPEECH_PRIORI_SNR * (st->voice_end - st->voice_start));
+    update_noise(st);
+    st->frames++;
+
+    /* Synthesis with 50% overlap-add, the inverse transform is not scaled. */
+    kiss_fftri(st->ifft, spectrum, frame);
+    for (i = 0; i < size; i++) {
+        frame[i] *= window[i] / size;
+    }
+    for (i = 0; i < n; i++) {
+        frame[i] += overlap[i];
+        overlap[i] = frame[i + n];
+        energy += frame[i] * frame[i];
+    }
+
+    if (st->agc) {
+        /* Adapt only on voice, so the gain does not pump the noise up in pauses. */
+        if (speech) {
+            float level = sqrtf(energy / n);
+            float target;
+            /* Follow a louder voice quickly and a softer one slowly. */
+            st->speech_level += (level - st->speech_level)
+                    * ((level > st->speech_level) ? st->agc_attack : st->agc_release);
+            target = st->agc_level / (st->speech_level + 1.0f);
+            if (target > st->agc_max_gain) {
+                target = st->agc_max_gain;
+            }
+            st->agc_gain += (target - st->agc_gain)
+                    * ((target < st->agc_gain) ? st->agc_attack : st->agc_release);
+        }
+        for (i = 0; i < n; i++) {
+            frame[i] *= st->agc_gain;
+        }
+    }
+
+    for (i = 0; i < n; i++) {
+        float s = frame[i];
+        samples[i] = (spx_int16_t)((s > 32767.0f) ? 32767 : ((s < -32768.0f) ? -32768 : lrintf(s)));
+    }
+    return speech;
+}
+
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_jni_Preprocessor_nativeCtl(JNIEnv *env, jclass clazz, jlong handle,
+                                                 jint request, jint value) {
+    PreprocessState *st = (PreprocessState *)(intptr_t)handle;
+    if (st == NULL) {
+        return (jint)-1;
+    }
+    switch (request) {
+        case PREPROCESS_SET_DENOISE:
+            st->denoise = (value != 0);
+            break;
+        case PREPROCESS_SET_NOISE_SUPPRESS:
+            st->suppress = db_to_amplitude((value > 0) ? -value : value);
+            break;
+        case PREPROCESS_SET_AGC:
+            st->agc = (value != 0);
+            break;
+        case PREPROCESS_SET_AGC_LEVEL:
+            st->agc_level = db_to_amplitude(value) * FULL_SCALE;
+            break;
+        case PREPROCESS_SET_AGC_MAX_GAIN:
+            st->agc_max_gain = db_to_amplitude(value);
+            break;
+        default:
+            return (jint)-1;
+    }
+    return (jint)0;
+}
+
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_jni_Preprocessor_nativeProcess(JNIEnv *env, jclass clazz, jlong handle,
+                                                     jobject pcm, jint offset, jint size) {
+    PreprocessState *st = (PreprocessState *)(intptr_t)handle;
+    char *data = (char *)(*env)->GetDirectBufferAddress(env, pcm);
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, pcm);
+    int frame_bytes;
+    int frames;
+    int speech = 0;
+    int f;
+
+    if ((st == NULL) || (data == NULL)
+            || (offset < 0) || (size < 0) || ((jlong)offset + size > capacity)) {
+        return (jint)-1;
+    }
+
+    frame_bytes = st->frame_size * (int)sizeof(spx_int16_t);
+    frames = size / frame_bytes;
+    for (f = 0; f < frames; f++) {
+        speech += process_frame(st, (spx_int16_t *)(data + offset + f * frame_bytes));
+    }
+
+    return (jint)speech;
+}
+
+JNIEXPORT void JNICALL
+Java_ai_olami_android_jni_Preprocessor_nativeReset(JNIEnv *env, jclass clazz, jlong handle) {
+    PreprocessState *st = (PreprocessState *)(intptr_t)handle;
+    if (st != NULL) {
+        preprocess_reset(st);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_ai_olami_android_jni_Preprocessor_nativeClose(JNIEnv *env, jclass clazz, jlong handle) {
+    PreprocessState *st = (PreprocessState *)(intptr_t)handle;
+    if (st != NULL) {
+        preprocess_free(st);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+#include <jni.h>
+#include <math.h>
+#include <stdint.h>
+#include <speex/speex_types.h>
+#include "libspeex/kiss_fftr.h"
+#include "libspeex/os_support.h"
+
+/* Must match SpectralAnalyzer.java */
+#define BAND_COUNT 5
+#define FEATURE_FLATNESS BAND_COUNT
+#define FEATURE_SNR (BAND_COUNT + 1)
+#define FEATURE_COUNT (BAND_COUNT + 2)
+
+/* Band edges in Hz, the last band ends at the Nyquist frequency. */
+static const int band_edges[BAND_COUNT] = {0, 300, 1000, 2000, 4000};
+
+/* Range in Hz of the voice band, used by the flatness and the SNR. */
+#define VOICE_FROM_HZ 300
+#define VOICE_TO_HZ 4000
+
+/*
+ * Time constants in seconds of the noise spectrum. It follows a frame near the noise level quickly,
+ * and a louder frame, which may be voice, only slowly.
+ */
+#define NOISE_TRACK_SECONDS 0.5
+#define NOISE_RISE_SECONDS 10.0
+/* Power ratio of the voice band below which a frame is taken as noise. */
+#define NOISE_GATE 4.0f
+
+typedef struct {
+    int frame_size;
+    kiss_fftr_cfg fft;
+    float *window;
+    float *input;
+    kiss_fft_cpx *spectrum;
+    float *noise;
+    int noise_ready;
+    float noise_track;
+    float noise_rise;
+    int band_start[BAND_COUNT + 1];
+    int voice_start;
+    int voice_end;
+} SpectralState;
+
+static int hz_to_bin(int hz, int frame_size, int sample_rate, int bins) {
+    int bin = (int)(((long long)hz * frame_size) / sample_rate);
+    return (bin > bins) ? bins : bin;
+}
+
+static void spectral_free(SpectralState *st) {
+    if (st->fft != NULL) {
+        kiss_fftr_free(st->fft);
+    }
+    speex_free(st->window);
+    speex_free(st->input);
+    speex_free(st->spectrum);
+    speex_free(st->noise);
+    speex_free(st);
+}
+
+JNIEXPORT jlong JNICALL
+Java_ai_olami_android_jni_SpectralAnalyzer_nativeOpen(JNIEnv *env, jclass clazz,
+                                                      jint sampleRate, jint frameSize) {
+    SpectralState *st;
+    int bins = frameSize / 2 + 1;
+    double frame_seconds;
+    int i;
+
+    if ((sampleRate <= 0) || (frameSize <= 0) || (frameSize & 1)) {
+        return (jlong)0;
+    }
+
+    st = (SpectralState *)speex_alloc(sizeof(SpectralState));
+    if (st == NULL) {
+        return (jlong)0;
+    }
+    st->frame_size = frameSize;
+    st->fft = kiss_fftr_alloc(frameSize, 0, NULL, NULL);
+    st->window = (float *)speex_alloc(frameSize * sizeof(float));
+    st->input = (float *)speex_alloc(frameSize * sizeof(float));
+    st->spectrum = (kiss_fft_cpx *)speex_alloc(bins * sizeof(kiss_fft_cpx));
+    st->noise = (float *)speex_alloc(bins * sizeof(float));
+    if ((st->fft == NULL) || (st->window == NULL) || (st->input == NULL)
+            || (st->spectrum == NULL) || (st->noise == NULL)) {
+        spectral_free(st);
+        return (jlong)0;
+    }
+
+    /* Hann window */
+    for (i = 0; i < frameSize; i++) {
+        st->window[i] = (float)(0.5 - 0.5 * cos(2.0 * M_PI * (i + 0.5) / frameSize));
+    }
+    for (i = 0; i < BAND_COUNT; i++) {
+        st->band_start[i] = hz_to_bin(band_edges[i], frameSize, sampleRate, bins);
+    }
+    st->band_start[BAND_COUNT] = bins;
+    /* The DC bin is never in the voice band. */
+    st->voice_start = hz_to_bin(VOICE_FROM_HZ, frameSize, sampleRate, bins);
+    if (st->voice_start < 1) {
+        st->voice_start = 1;
+    }
+    st->voice_end = hz_to_bin(VOICE_TO_HZ, frameSize, sampleRate, bins);
+    if (st->voice_end <= st->voice_start) {
+        st->voice_end = bins;
+    }
+
+    frame_seconds = (double)frameSize / sampleRate;
+    st->noise_track = (float)(1.0 - exp(-frame_seconds / NOISE_TRACK_SECONDS));
+    st->noise_rise = (float)(1.0 - exp(-frame_seconds / NOISE_RISE_SECONDS));
+    st->noise_ready = 0;
+
+    return (jlong)(intptr_t)st;
+}
+
+static void analyze_frame(SpectralState *st, const spx_int16_t *samples, float *features) {
+    const int frame_size = st->frame_size;
+    const float *window = st->window;
+    float *input = st->input;
+    kiss_fft_cpx *spectrum = st->spectrum;
+    float *noise = st->noise;
+    float log_sum = 0;
+    float sum = 0;
+    float noise_sum = 0;
+    float alpha;
+    int band, i;
+
+    for (i = 0; i < frame_size; i++) {
+        input[i] = samples[i] * window[i];
+    }
+    kiss_fftr(st->fft, input, spectrum);
+
+    /* Power per bin is kept in the real part, so it is computed only once. */
+    for (i = 0; i < st->band_start[BAND_COUNT]; i++) {
+        spectrum[i].r = spectrum[i].r * spectrum[i].r + spectrum[i].i * spectrum[i].i;
+    }
+    for (band = 0; band < BAND_COUNT; band++) {
+        float energy = 0;
+        for (i = st->band_start[band]; i < st->band_start[band + 1]; i++) {
+            energy += spectrum[i].r;
+        }
+        features[band] = energy;
+    }
+
+    if (!st->noise_ready) {
+        for (i = st->voice_start; i < st->voice_end; i++) {
+            noise[i] = spectrum[i].r;
+        }
+        st->noise_ready = 1;
+    }
+
+    for (i = st->voice_start; i < st->voice_end; i++) {
+        /* +1 keeps digital silence away from log(0). */
+        float power = spectrum[i].r + 1.0f;
+        log_sum += logf(power);
+        sum += power;
+        noise_sum += noise[i] + 1.0f;
+    }
+    alpha = (sum < noise_sum * NOISE_GATE) ? st->noise_track : st->noise_rise;
+    for (i = st->voice_start; i < st->voice_end; i++) {
+        noise[i] += (spectrum[i].r - noise[i]) * alpha;
+    }
+    i = st->voice_end - st->voice_start;
+    /* Geometric mean over arithmetic mean: 1 for white noise and silence, near 0 for pure tones. */
+    features[FEATURE_FLATNESS] = expf(log_sum / i) / (sum / i);
+    /* SNR in dB of the voice band against the tracked noise spectrum, a stationary noise such as a fan stays low. */
+    features[FEATURE_SNR] = 10.0f * log10f(sum / noise_sum);
+}
+
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_jni_SpectralAnalyzer_nativeAnalyze(JNIEnv *env, jclass clazz, jlong handle,
+                                                         jobject pcm, jint offset, jint size,
+                                                         jobject features) {
+    SpectralState *st = (SpectralState *)(intptr_t)handle;
+    char *in = (char *)(*env)->GetDirectBufferAddress(env, pcm);
+    float *out = (float *)(*env)->GetDirectBufferAddress(env, features);
+    jlong in_capacity = (*env)->GetDirectBufferCapacity(env, pcm);
+    jlong out_capacity = (*env)->GetDirectBufferCapacity(env, features);
+    int frame_bytes;
+    int frames;
+    int f;
+
+    if ((st == NULL) || (in == NULL) || (out == NULL)
+            || (offset < 0) || (size < 0) || ((jlong)offset + size > in_capacity)) {
+        return (jint)-1;
+    }
+
+    frame_bytes = st->frame_size * (int)sizeof(spx_int16_t);
+    frames = size / frame_bytes;
+    if ((jlong)frames * FEATURE_COUNT * (jlong)sizeof(float) > out_capacity) {
+        frames = (int)(out_capacity / (FEATURE_COUNT * sizeof(float)));
+    }
+
+    for (f = 0; f < frames; f++) {
+        analyze_frame(st, (const spx_int16_t *)(in + offset + f * frame_bytes), out + f * FEATURE_COUNT);
+    }
+
+    return (jint)frames;
+}
+
+JNIEXPORT void JNICALL
+Java_ai_olami_android_jni_SpectralAnalyzer_nativeReset(JNIEnv *env, jclass clazz, jlong handle) {
+    SpectralState *st = (SpectralState *)(intptr_t)handle;
+    if (st != NULL) {
+        st->noise_ready = 0;
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_ai_olami_android_jni_SpectralAnalyzer_nativeClose(JNIEnv *env, jclass clazz, jlong handle) {
+    SpectralState *st = (SpectralState *)(intptr_t)handle;
+    if (st != NULL) {
+        spectral_free(st);
+    }
+}
@@ -1,5 +1,5 @@
 /*
-	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
 
 	http://olami.ai
 
@@ -16,7 +16,10 @@
 	limitations under the License.
 */
 
+
 #include <jni.h>
+#include <stdint.h>
+#include <string.h>
 #include <string>
 #include <speex/speex.h>
 
@@ -24,90 +27,350 @@
 extern "C" {
 #endif
 
-static SpeexBits ebits, dbits;
-void *enc_state;
-void *dec_state;
-static int dec_frame_size;
-static int enc_frame_size;
+// State of one Codec instance, the Java object keeps the pointer as its handle.
+typedef struct {
+    SpeexBits ebits;
+    SpeexBits dbits;
+    void *enc_state;
+    void *dec_state;
+    int enc_frame_size;
+    int dec_frame_size;
+} CodecState;
+
+static CodecState *get_state(jlong handle) {
+    return (CodecState *)(intptr_t)handle;
+}
 
+// Requests of nativeCtl(), must match Codec.java
+#define CODEC_SET_QUALITY 0
+#define CODEC_SET_COMPLEXITY 1
+#define CODEC_SET_VBR 2
+#define CODEC_SET_ABR 3
+#define CODEC_SET_DTX 4
+#define CODEC_GET_BITRATE 5
 
-JNIEXPORT jint JNICALL
-Java_ai_olami_android_jni_Codec_open(JNIEnv *env, jobject instance, jint mode, jint quality) {
+// Largest frame of all modes, 20 ms of ultra-wideband.
+#define MAX_FRAME_SIZE 640
+
+// Encode whole frames of little-endian 16-bit PCM bytes, whatever the byte order of the CPU.
+// The size of each encoded frame is written to frame_sizes, up to max_frames entries.
+static int encode_le_bytes(CodecState *st, const unsigned char *in, int size, char *out,
+                           int out_capacity, jint *frame_sizes, int max_frames) {
+    spx_int16_t samples[MAX_FRAME_SIZE];
+    int frame_size = st->enc_frame_size;
+    int nFrames = (size / 2) / frame_size;
+    int i, j, tot_bytes = 0;
+
+    for (i = 0; i < nFrames; i++) {
+        const unsigned char *frame = in + i * frame_size * 2;
+        for (j = 0; j < frame_size; j++) {
+            samples[j] = (spx_int16_t)(frame[2 * j] | (frame[2 * j + 1] << 8));
+        }
+        speex_bits_reset(&st->ebits);
+        speex_encode_int(st->enc_state, samples, &st->ebits);
+        int encoded = speex_bits_write(&st->ebits, out + tot_bytes, out_capacity - tot_bytes);
+        if (i < max_frames) {
+            frame_sizes[i] = encoded;
+        }
+        tot_bytes += encoded;
+    }
+    return tot_bytes;
+}
+
+// Encode whole frames of 16-bit PCM samples in native byte order.
+// Each frame is copied first: the fixed-point encoder works in place on its input,
+// which belongs to the caller.
+static int encode_samples(CodecState *st, const spx_int16_t *in, int nFrames, char *out,
+                          int out_capacity) {
+    spx_int16_t samples[MAX_FRAME_SIZE];
+    int frame_size = st->enc_frame_size;
+    int i, tot_bytes = 0;
+
+    for (i = 0; i < nFrames; i++) {
+        memcpy(samples, in + i * frame_size, frame_size * sizeof(spx_int16_t));
+        speex_bits_reset(&st->ebits);
+        speex_encode_int(st->enc_state, samples, &st->ebits);
+        tot_bytes += speex_bits_write(&st->ebits, out + tot_bytes, out_capacity - tot_bytes);
+    }
+    return tot_bytes;
+}
+
+JNIEXPORT jlong JNICALL
+Java_ai_olami_android_jni_Codec_nativeOpen(JNIEnv *env, jclass clazz, jint mode, jint quality) {
+    const SpeexMode *speex_mode;
+    CodecState *st;
     int tmp;
-    speex_bits_init(&ebits);
-    speex_bits_init(&dbits);
+    float vbr_quality;
 
     if (mode == 0) {
-        enc_state = speex_encoder_init(&speex_nb_mode);
-        dec_state = speex_decoder_init(&speex_nb_mode);
+        speex_mode = &speex_nb_mode;
     }
     else if (mode == 1) {
-        enc_state = speex_encoder_init(&speex_wb_mode);
-        dec_state = speex_decoder_init(&speex_wb_mode);
+        speex_mode = &speex_wb_mode;
     }
     else if (mode == 2) {
-        enc_state = speex_encoder_init(&speex_uwb_mode);
-        dec_state = speex_decoder_init(&speex_uwb_mode);
+        speex_mode = &speex_uwb_mode;
+    }
+    else {
+        return (jlong)0;
     }
 
+    st = new CodecState();
+    speex_bits_init(&st->ebits);
+    speex_bits_init(&st->dbits);
+    st->enc_state = speex_encoder_init(speex_mode);
+    st->dec_state = speex_decoder_init(speex_mode);
+
     tmp = quality;
-    speex_encoder_ctl(enc_state, SPEEX_SET_QUALITY, &tmp);
-    speex_encoder_ctl(enc_state, SPEEX_GET_FRAME_SIZE, &enc_frame_size);
-    speex_decoder_ctl(dec_state, SPEEX_GET_FRAME_SIZE, &dec_frame_size);
+    vbr_quality = (float)quality;
+    speex_encoder_ctl(st->enc_state, SPEEX_SET_QUALITY, &tmp);
+    speex_encoder_ctl(st->enc_state, SPEEX_SET_VBR_QUALITY, &vbr_quality);
+    speex_encoder_ctl(st->enc_state, SPEEX_GET_FRAME_SIZE, &st->enc_frame_size);
+    speex_decoder_ctl(st->dec_state, SPEEX_GET_FRAME_SIZE, &st->dec_frame_size);
+
+    return (jlong)(intptr_t)st;
+}
+
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_jni_Codec_nativeCtl(JNIEnv *env, jclass clazz, jlong handle,
+                                          jint request, jint value) {
+    CodecState *st = get_state(handle);
+    spx_int32_t tmp = value;
+    float vbr_quality;
 
+    switch (request) {
+        case CODEC_SET_QUALITY:
+            // Set both, so the quality applies whether VBR is enabled or not.
+            vbr_quality = (float)value;
+            speex_encoder_ctl(st->enc_state, SPEEX_SET_QUALITY, &tmp);
+            speex_encoder_ctl(st->enc_state, SPEEX_SET_VBR_QUALITY, &vbr_quality);
+            break;
+        case CODEC_SET_COMPLEXITY:
+            speex_encoder_ctl(st->enc_state, SPEEX_SET_COMPLEXITY, &tmp);
+            break;
+        case CODEC_SET_VBR:
+            speex_encoder_ctl(st->enc_state, SPEEX_SET_VBR, &tmp);
+            break;
+        case CODEC_SET_ABR:
+            speex_encoder_ctl(st->enc_state, SPEEX_SET_ABR, &tmp);
+            break;
+        case CODEC_SET_DTX:
+            speex_encoder_ctl(st->enc_state, SPEEX_SET_DTX, &tmp);
+            break;
+        case CODEC_GET_BITRATE:
+            speex_encoder_ctl(st->enc_state, SPEEX_GET_BITRATE, &tmp);
+            return (jint)tmp;
+        default:
+            return (jint)-1;
+    }
     return (jint)0;
+}
+
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_jni_Codec_nativeGetFrameSize(JNIEnv *env, jclass clazz, jlong handle) {
+    return (jint)get_state(handle)->enc_frame_size;
+}
+
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_jni_Codec_nativeDecode(JNIEnv *env, jclass clazz, jlong handle,
+                                             jbyteArray encoded, jshortArray lin, jint size) {
+    CodecState *st = get_state(handle);
+    if ((size < 0) || (size > env->GetArrayLength(encoded))
+            || (env->GetArrayLength(lin) < st->dec_frame_size)) {
+        return (jint)-1;
+    }
+
+    // Both arrays are pinned once, no JNI call is allowed until they are released.
+    jbyte *in = (jbyte *)env->GetPrimitiveArrayCritical(encoded, NULL);
+    jshort *out = (jshort *)env->GetPrimitiveArrayCritical(lin, NULL);
+    if (in == NULL || out == NULL) {
+        if (out != NULL) {
+            env->ReleasePrimitiveArrayCritical(lin, out, JNI_ABORT);
+        }
+        if (in != NULL) {
+            env->ReleasePrimitiveArrayCritical(encoded, in, JNI_ABORT);
+        }
+        return (jint)-1;
+    }
+    speex_bits_read_from(&st->dbits, (char *)in, size);
+    speex_decode_int(st->dec_state, &st->dbits, out);
+    env->ReleasePrimitiveArrayCritical(lin, out, 0);
+    env->ReleasePrimitiveArrayCritical(encoded, in, JNI_ABORT);
 
+    return (jint)st->dec_frame_size;
 }
 
 JNIEXPORT jint JNICALL
-Java_ai_olami_android_jni_Codec_getFrameSize(JNIEnv *env, jobject instance) {
-    return (jint)enc_frame_size;
+Java_ai_olami_android_jni_Codec_nativeEncode(JNIEnv *env, jclass clazz, jlong handle,
+                                             jshortArray lin, jint offset, jint size,
+                                             jbyteArray encoded) {
+    CodecState *st = get_state(handle);
+    if ((offset < 0) || (size < 0) || (offset + size > env->GetArrayLength(lin))
+            || (st->enc_frame_size > MAX_FRAME_SIZE)) {
+        return (jint)-1;
+    }
+    int out_capacity = env->GetArrayLength(encoded);
+    int nFrames = size / st->enc_frame_size;
+
+    // All frames of the block are encoded while both arrays are pinned once,
+    // no JNI call is allowed until they are released.
+    jshort *in = (jshort *)env->GetPrimitiveArrayCritical(lin, NULL);
+    jbyte *out = (jbyte *)env->GetPrimitiveArrayCritical(encoded, NULL);
+    if (in == NULL || out == NULL) {
+        if (out != NULL) {
+            env->ReleasePrimitiveArrayCritical(encoded, out, JNI_ABORT);
+        }
+        if (in != NULL) {
+            env->ReleasePrimitiveArrayCritical(lin, in, JNI_ABORT);
+        }
+        return (jint)-1;
+    }
+    int tot_bytes = encode_samples(st, (spx_int16_t *)(in + offset), nFrames, (char *)out,
+                                   out_capacity);
+    env->ReleasePrimitiveArrayCritical(encoded, out, 0);
+    env->ReleasePrimitiveArrayCritical(lin, in, JNI_ABORT);
+    return (jint)tot_bytes;
 }
 
 JNIEXPORT jint JNICALL
-Java_ai_olami_android_jni_Codec_decode(JNIEnv *env, jobject instance, jbyteArray encoded,
-                                            jshortArray lin, jint size) {
-    jbyte buffer[dec_frame_size];
-    jshort output_buffer[dec_frame_size];
-    jsize encoded_length = size;
-
-    env->GetByteArrayRegion(encoded, 0, encoded_length, buffer);
-    speex_bits_read_from(&dbits, (char *)buffer, encoded_length);
-    speex_decode_int(dec_state, &dbits, output_buffer);
-    env->SetShortArrayRegion(lin, 0, dec_frame_size,
-                             output_buffer);
-
-    return (jint)dec_frame_size;
+Java_ai_olami_android_jni_Codec_nativeEncodeBuffer(JNIEnv *env, jclass clazz, jlong handle,
+                                                   jobject lin, jint offset, jint size,
+                                                   jobject encoded) {
+    CodecState *st = get_state(handle);
+    // Both buffers must be direct, PCM samples are read in place in native byte order.
+    char *in = (char *)env->GetDirectBufferAddress(lin);
+    char *out = (char *)env->GetDirectBufferAddress(encoded);
+    if (in == NULL || out == NULL || (offset < 0) || (size < 0)
+            || (offset + size > env->GetDirectBufferCapacity(lin))
+            || (st->enc_frame_size > MAX_FRAME_SIZE)) {
+        return (jint)-1;
+    }
+    int out_capacity = (int)env->GetDirectBufferCapacity(encoded);
+    int nFrames = (size / 2) / st->enc_frame_size;
+
+    return (jint)encode_samples(st, (spx_int16_t *)(in + offset), nFrames, out, out_capacity);
 }
 
 JNIEXPORT jint JNICALL
-Java_ai_olami_android_jni_Codec_encode(JNIEnv *env, jobject instance, jshortArray lin,
-                                            jint offset, jint size, jbyteArray encoded) {
-    jshort buffer[enc_frame_size];
-    jbyte output_buffer[enc_frame_size];
-    int nFrames = size / enc_frame_size;
-    int i, tot_bytes = 0;
-    int encodedLen = 0;
+Java_ai_olami_android_jni_Codec_nativeEncodeBytes(JNIEnv *env, jclass clazz, jlong handle,
+                                                  jbyteArray lin, jint offset, jint size,
+                                                  jbyteArray encoded, jintArray frameSizes) {
+    CodecState *st = get_state(handle);
+    if ((offset < 0) || (size < 0) || (offset + size > env->GetArrayLength(lin))
+            || (st->enc_frame_size > MAX_FRAME_SIZE)) {
+        return (jint)-1;
+    }
+    int out_capacity = env->GetArrayLength(encoded);
+    int max_frames = (frameSizes == NULL) ? 0 : env->GetArrayLength(frameSizes);
 
-    for (i = 0; i < nFrames; i++) {
-        env->GetShortArrayRegion(lin, offset + i*enc_frame_size, enc_frame_size, buffer);
-        speex_bits_reset(&ebits);
-        speex_encode_int(enc_state, buffer, &ebits);
-        encodedLen = speex_bits_write(&ebits, (char *)output_buffer, enc_frame_size);
-        env->SetByteArrayRegion(encoded, tot_bytes, encodedLen, output_buffer);
-        tot_bytes += encodedLen;
+    // No JNI call is allowed until the pinned arrays are released.
+    jbyte *in = (jbyte *)env->GetPrimitiveArrayCritical(lin, NULL);
+    jbyte *out = (jbyte *)env->GetPrimitiveArrayCritical(encoded, NULL);
+    jint *sizes = (max_frames == 0) ? NULL : (jint *)env->GetPrimitiveArrayCritical(frameSizes, NULL);
+    if (in == NULL || out == NULL || (max_frames > 0 && sizes == NULL)) {
+        if (sizes != NULL) {
+            env->ReleasePrimitiveArrayCritical(frameSizes, sizes, JNI_ABORT);
+        }
+        if (out != NULL) {
+            env->ReleasePrimitiveArrayCritical(encoded, out, JNI_ABORT);
+        }
+        if (in != NULL) {
+            env->ReleasePrimitiveArrayCritical(lin, in, JNI_ABORT);
+        }
+        return (jint)-1;
+    }
+    int tot_bytes = encode_le_bytes(st, (const unsigned char *)in + offset, size, (char *)out,
+                                    out_capacity, sizes, max_frames);
+    if (sizes != NULL) {
+        env->ReleasePrimitiveArrayCritical(frameSizes, sizes, 0);
+    }
+    env->ReleasePrimitiveArrayCritical(encoded, out, 0);
+    env->ReleasePrimitiveArrayCritical(lin, in, JNI_ABORT);
+    return (jint)tot_bytes;
+}
+
+JNIEXPORT jint JNICALL
+Java_ai_olami_android_jni_Codec_nativeEncodeBytesBuffer(JNIEnv *env, jclass clazz, jlong handle,
+                                                        jobject lin, jint offset, jint size,
+                                                        jobject encoded, jintArray frameSizes) {
+    CodecState *st = get_state(handle);
+    char *in = (char *)env->GetDirectBufferAddress(lin);
+    char *out = (char *)env->GetDirectBufferAddress(encoded);
+    if (in == NULL || out == NULL || (offset < 0) || (size < 0)
+            || (offset + size > env->GetDirectBufferCapacity(lin))
+            || (st->enc_frame_size > MAX_FRAME_SIZE)) {
+        return (jint)-1;
+    }
+    int out_capacity = (int)env->GetDirectBufferCapacity(encoded);
+    int max_frames = (frameSizes == NULL) ? 0 : env->GetArrayLength(frameSizes);
+
+    jint *sizes = (max_frames == 0) ? NULL : (jint *)env->GetPrimitiveArrayCritical(frameSizes, NULL);
+    if (max_frames > 0 && sizes == NULL) {
+        return (jint)-1;
+    }
+    int tot_bytes = encode_le_bytes(st, (const unsigned char *)in + offset, size, out,
+                                    out_capacity, sizes, max_frames);
+    if (sizes != NULL) {
+        env->ReleasePrimitiveArrayCritical(frameSizes, sizes, 0);
     }
     return (jint)tot_bytes;
 }
 
 JNIEXPORT void JNICALL
-Java_ai_olami_android_jni_Codec_close(JNIEnv *env, jobject instance) {
-    speex_bits_destroy(&ebits);
-    speex_bits_destroy(&dbits);
-    speex_decoder_destroy(dec_state);
-    speex_encoder_destroy(enc_state);
+Java_ai_olami_android_jni_Codec_nativeClose(JNIEnv *env, jclass clazz, jlong handle) {
+    CodecState *st = get_state(handle);
+    if (st == NULL) {
+        return;
+    }
+    speex_bits_destroy(&st->ebits);
+    speex_bits_destroy(&st->dbits);
+    speex_decoder_destroy(st->dec_state);
+    speex_encoder_destroy(st->enc_state);
+    delete st;
 }
 
+#ifdef SPEEX_VARIANT_LIBRARY
+// A variant library binds the Codec natives to itself when it is loaded, so the symbols
+// of speexjni, which is loaded as well for the other natives, are never looked up.
+static const JNINativeMethod codec_methods[] = {
+    { (char *)"nativeOpen", (char *)"(II)J",
+      (void *)Java_ai_olami_android_jni_Codec_nativeOpen },
+    { (char *)"nativeCtl", (char *)"(JII)I",
+      (void *)Java_ai_olami_android_jni_Codec_nativeCtl },
+    { (char *)"nativeGetFrameSize", (char *)"(J)I",
+      (void *)Java_ai_olami_android_jni_Codec_nativeGetFrameSize },
+    { (char *)"nativeDecode", (char *)"(J[B[SI)I",
+      (void *)Java_ai_olami_android_jni_Codec_nativeDecode },
+    { (char *)"nativeEncode", (char *)"(J[SII[B)I",
+      (void *)Java_ai_olami_android_jni_Codec_nativeEncode },
+    { (char *)"nativeEncodeBuffer", (char *)"(JLjava/nio/ByteBuffer;IILjava/nio/ByteBuffer;)I",
+      (void *)Java_ai_olami_android_jni_Codec_nativeEncodeBuffer },
+    { (char *)"nativeEncodeBytes", (char *)"(J[BII[B[I)I",
+      (void *)Java_ai_olami_android_jni_Codec_nativeEncodeBytes },
+    { (char *)"nativeEncodeBytesBuffer",
+      (char *)"(JLjava/nio/ByteBuffer;IILjava/nio/ByteBuffer;[I)I",
+      (void *)Java_ai_olami_android_jni_Codec_nativeEncodeBytesBuffer },
+    { (char *)"nativeClose", (char *)"(J)V",
+      (void *)Java_ai_olami_android_jni_Codec_nativeClose },
+};
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+    if (vm->GetEnv((void **)&env, JNI_VERSION_1_4) != JNI_OK) {
+        return JNI_ERR;
+    }
+    jclass clazz = env->FindClass("ai/olami/android/jni/Codec");
+    if (clazz == NULL) {
+        return JNI_ERR;
+    }
+    if (env->RegisterNatives(clazz, codec_methods,
+                             sizeof(codec_methods) / sizeof(codec_methods[0])) != 0) {
+        return JNI_ERR;
+    }
+    return JNI_VERSION_1_4;
+}
+#endif
+
 #ifdef __cplusplus
 }
 #endif
\ No newline at end of file
@@ -0,0 +1,106 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class AudioBufferPool {
+
+    public static final int SHARED_POOL_CAPACITY = 64;
+
+    private static final HashMap<Integer, AudioBufferPool> mSharedPools =
+            new HashMap<Integer, AudioBufferPool>();
+
+    private final int mBufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> mFreeBuffers;
+
+    /**
+     * Create a pool of direct audio buffers.
+     *
+     * @param bufferSize - Size in bytes of each buffer.
+     * @param capacity - Maximum number of idle buffers kept by the pool.
+     */
+    public AudioBufferPool(int bufferSize, int capacity) {
+        mBufferSize = bufferSize;
+        mFreeBuffers = new ArrayBlockingQueue<ByteBuffer>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mFreeBuffers.offer(allocate());
+        }
+    }
+
+    /**
+     * Get the pool shared by all recognizers and encoders for the specified buffer size.
+     *
+     * @param bufferSize - Size in bytes of each buffer.
+     * @return Shared pool.
+     */
+    public static AudioBufferPool getSharedPool(int bufferSize) {
+        synchronized (mSharedPools) {
+            AudioBufferPool pool = mSharedPools.get(bufferSize);
+            if (pool == null) {
+                pool = new AudioBufferPool(bufferSize, SHARED_POOL_CAPACITY);
+                mSharedPools.put(bufferSize, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Get size in bytes of each buffer.
+     *
+     * @return Buffer size.
+     */
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Take a cleared buffer from the pool.
+     * A new buffer will be allocated only if all pooled buffers are in use.
+     *
+     * @return Direct buffer in native byte order.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            buffer = allocate();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool.
+     * The buffer must not be used by the caller after that.
+     *
+     * @param buffer - Buffer taken by acquire().
+     */
+    public void release(ByteBuffer buffer) {
+        if ((buffer != null) && (buffer.capacity() == mBufferSize)) {
+            mFreeBuffers.offer(buffer);
+        }
+    }
+
+    private ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(mBufferSize).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,255 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package ai.olami.android;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import ai.olami.cloudService.SpeechRecognizer;
+
+public class AudioCaptureHub {
+    private final static String TAG = "AudioCaptureHub";
+
+    public static final int DEFAULT_BLOCK_SIZE = (SpeechRecognizer.AUDIO_SAMPLE_RATE / 1000)
+            * (SpeechRecognizer.AUDIO_BITS_PER_SAMPLE / 8)
+            * SpeechRecognizerBase.RECORD_FRAMES
+            * SpeechRecognizer.AUDIO_LENGTH_MILLISECONDS_PER_FRAME;
+    public static final int DEFAULT_BLOCKS = 32;
+
+    private final IAudioSource mSource;
+    private final int mBlockSize;
+    private final int mBlocks;
+
+    // Shared ring of captured blocks, block N is stored at (N % mBlocks) * mBlockSize.
+    private final byte[] mRing;
+    private final Object mLock = new Object();
+    private volatile long mWriteSequence = 0;
+    private volatile boolean mEndOfStream = false;
+
+    private int mConsumers = 0;
+    private volatile boolean mCapturing = false;
+    private Thread mCaptureThread = null;
+
+    /**
+     * Create a hub which shares the microphone.
+     */
+    public AudioCaptureHub() {
+        this(new MicrophoneAudioSource(), DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS);
+    }
+
+    /**
+     * Create a hub which shares the specified audio source.
+     *
+     * @param source - Audio source to read once for all consumers.
+     * @param blockSize - Size in bytes of each block, consumers must read in the same size.
+     * @param blocks - Number of blocks kept for slow consumers.
+     */
+    public AudioCaptureHub(IAudioSource source, int blockSize, int blocks) {
+        if (blocks < 3) {
+            throw new IllegalArgumentException("The number of blocks cannot be less than 3");
+        }
+        mSource = source;
+        mBlockSize = blockSize;
+        mBlocks = blocks;
+        mRing = new byte[blockSize * blocks];
+    }
+
+    /**
+     * Create a new consumer of the captured audio.
+     * Each consumer has its own read position, the capturing starts when the first one is opened
+     * and stops when the last one is closed.
+     *
+     * @return Audio source of the consumer.
+     */
+    public HubAudioSource createAudioSource() {
+        return new HubAudioSource();
+    }
+
+    /**
+     * Get size in bytes of each block.
+     *
+     * @return Block size.
+     */
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * Get number of blocks captured since the capturing started.
+     *
+     * @return Number of blocks.
+     */
+    public long getCapturedBlocks() {
+        return mWriteSequence;
+    }
+
+    private void attach() throws Exception {
+        synchronized (mLock) {
+            if (mCaptureThread == null) {
+                mSource.open();
+                mWriteSequence = 0;
+                mEndOfStream = false;
+                mCapturing = true;
+                mCaptureThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        doCapturing();
+                    }
+                });
+                mCaptureThread.start();
+            }
+            mConsumers++;
+        }
+    }
+
+    private void detach() {
+        Thread captureThread = null;
+        synchronized (mLock) {
+            mConsumers--;
+            if ((mConsumers == 0) && (mCaptureThread != null)) {
+                mCapturing = false;
+                captureThread = mCaptureThread;
+                mCaptureThread = null;
+            }
+        }
+        if (captureThread != null) {
+            try {
+                captureThread.join();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "detach() Exception: " + e.getMessage());
+            }
+        }
+    }
+
+    private void doCapturing() {
+        ByteBuffer audioData = ByteBuffer.allocateDirect(mBlockSize).order(ByteOrder.nativeOrder());
+        try {
+            while (mCapturing) {
+                int readSize = mSource.read(audioData, mBlockSize);
+                if (readSize < 0) {
+                    break;
+                }
+                if (readSize != mBlockSize) {
+                    continue;
+                }
+                // The producer never waits for consumers, the oldest block is overwritten.
+                audioData.clear();
+                audioData.get(mRing, (int) (mWriteSequence % mBlocks) * mBlockSize, mBlockSize);
+                synchronized (mLock) {
+                    mWriteSequence++;
+                    mLock.notifyAll();
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "doCapturing() Exception: " + e.getMessage());
+        } finally {
+            mSource.close();
+            synchronized (mLock) {
+                mEndOfStream = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Audio source of a consumer, which reads the shared captured audio by its own position.
+     */
+    public class HubAudioSource implements IAudioSource {
+
+        private long mReadSequence = 0;
+        private long mDroppedBlocks = 0;
+        private volatile boolean mOpened = false;
+
+        private HubAudioSource() {
+        }
+
+        /**
+         * Get number of blocks skipped because this consumer was too slow.
+         *
+         * @return Number of blocks.
+         */
+        public long getDroppedBlocks() {
+            return mDroppedBlocks;
+        }
+
+        @Override
+        public void open() throws Exception {
+            if (mOpened) {
+                return;
+            }
+            attach();
+            mReadSequence = mWriteSequence;
+            mOpened = true;
+        }
+
+        @Override
+        public int read(ByteBuffer audioData, int size) throws Exception {
+            if (size != mBlockSize) {
+                throw new IllegalArgumentException("The size must be " + mBlockSize);
+            }
+
+            while (true) {
+                synchronized (mLock) {
+                    while ((mReadSequence >= mWriteSequence) && !mEndOfStream && mOpened) {
+                        mLock.wait();
+                    }
+                }
+                if (mReadSequence >= mWriteSequence) {
+                    return -1;
+                }
+
+                // Keep one block away from the one being written by the producer.
+                long oldest = mWriteSequence - (mBlocks - 2);
+                if (mReadSequence < oldest) {
+                    mDroppedBlocks += (oldest - mReadSequence);
+                    mReadSequence = oldest;
+                }
+
+                long sequence = mReadSequence;
+                audioData.clear();
+                audioData.put(mRing, (int) (sequence % mBlocks) * mBlockSize, mBlockSize);
+                audioData.clear();
+
+                if (mWriteSequence - sequence < mBlocks - 1) {
+                    mReadSequence = sequence + 1;
+                    return size;
+                }
+                // Overwritten while copying, skip to the newer blocks.
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!mOpened) {
+                return;
+            }
+            mOpened = false;
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+            detach();
+        }
+
+        @Override
+        public boolean isOpened() {
+            return mOpened;
+        }
+    }
+}
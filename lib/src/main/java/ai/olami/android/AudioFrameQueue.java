@@ -0,0 +1,247 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package ai.olami.android;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class AudioFrameQueue<E> {
+
+    /**
+     * How a thread waits for the other side of the queue.
+     */
+    public enum WaitStrategy {
+        /** Busy-spin for a short while, then park. Lowest hand-off latency. */
+        SPIN_THEN_PARK,
+        /** Park immediately. Lowest CPU usage. */
+        BLOCK
+    }
+
+    private static final int SPIN_TRIES = 1000;
+
+    private final Object[] mFrames;
+    private final long[] mSequences;
+    private final long[] mTimestamps;
+    private final int mMask;
+    private final WaitStrategy mWaitStrategy;
+
+    // Written by the producer only.
+    private volatile long mTail = 0;
+    // Written by the consumer only.
+    private volatile long mHead = 0;
+
+    private volatile Thread mWaitingProducer = null;
+    private volatile Thread mWaitingConsumer = null;
+
+    private long mLastSequence = -1;
+    private long mLastTimestamp = 0;
+
+    /**
+     * Create a single-producer/single-consumer queue of audio frames.
+     * Only one thread may offer and only one thread may poll at a time.
+     *
+     * @param capacity - Maximum number of frames, rounded up to a power of 2.
+     * @param waitStrategy - How the threads wait for each other.
+     */
+    public AudioFrameQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity cannot be less than 1");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mFrames = new Object[size];
+        mSequences = new long[size];
+        mTimestamps = new long[size];
+        mMask = size - 1;
+        mWaitStrategy = waitStrategy;
+    }
+
+    /**
+     * Get the maximum number of frames.
+     *
+     * @return Capacity.
+     */
+    public int getCapacity() {
+        return mFrames.length;
+    }
+
+    /**
+     * Get number of frames waiting in the queue.
+     *
+     * @return Number of frames.
+     */
+    public int size() {
+        return (int) (mTail - mHead);
+    }
+
+    /**
+     * Check if there is no frame in the queue.
+     *
+     * @return TRUE if empty.
+     */
+    public boolean isEmpty() {
+        return mTail == mHead;
+    }
+
+    /**
+     * Add a frame without waiting. Producer only.
+     *
+     * @param frame - Audio frame.
+     * @return FALSE if the queue is full.
+     */
+    public boolean offer(E frame) {
+        return offer(frame, 0);
+    }
+
+    /**
+     * Add a frame with its capture timestamp without waiting. Producer only.
+     *
+     * @param frame - Audio frame.
+     * @param timestamp - Capture timestamp of the frame.
+     * @return FALSE if the queue is full.
+     */
+    public boolean offer(E frame, long timestamp) {
+        long tail = mTail;
+        if (tail - mHead > mMask) {
+            return false;
+        }
+        int index = (int) (tail & mMask);
+        mFrames[index] = frame;
+        mSequences[index] = tail;
+        mTimestamps[index] = timestamp;
+        mTail = tail + 1;
+        wakeUp(mWaitingConsumer);
+        return true;
+    }
+
+    /**
+     * Add a frame, wait if the queue is full. Producer only.
+     *
+     * @param frame - Audio frame.
+     * @throws InterruptedException The waiting thread is interrupted.
+     */
+    public void put(E frame) throws InterruptedException {
+        put(frame, 0);
+    }
+
+    /**
+     * Add a frame with its capture timestamp, wait if the queue is full. Producer only.
+     *
+     * @param frame - Audio frame.
+     * @param timestamp - Capture timestamp of the frame.
+     * @throws InterruptedException The waiting thread is interrupted.
+     */
+    public void put(E frame, long timestamp) throws InterruptedException {
+        int spins = (mWaitStrategy == WaitStrategy.SPIN_THEN_PARK) ? SPIN_TRIES : 0;
+        while (!offer(frame, timestamp)) {
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+            mWaitingProducer = Thread.currentThread();
+            if (mTail - mHead > mMask) {
+                LockSupport.park(this);
+            }
+            mWaitingProducer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest frame without waiting. Consumer only.
+     *
+     * @return Audio frame, or null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = mHead;
+        if (head == mTail) {
+            return null;
+        }
+        int index = (int) (head & mMask);
+        E frame = (E) mFrames[index];
+        mFrames[index] = null;
+        mLastSequence = mSequences[index];
+        mLastTimestamp = mTimestamps[index];
+        mHead = head + 1;
+        wakeUp(mWaitingProducer);
+        return frame;
+    }
+
+    /**
+     * Remove the oldest frame, wait if the queue is empty. Consumer only.
+     *
+     * @param timeout - How long to wait.
+     * @param unit - Unit of the timeout.
+     * @return Audio frame, or null if the timeout elapsed.
+     * @throws InterruptedException The waiting thread is interrupted.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int spins = (mWaitStrategy == WaitStrategy.SPIN_THEN_PARK) ? SPIN_TRIES : 0;
+        E frame;
+        while ((frame = poll()) == null) {
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            mWaitingConsumer = Thread.currentThread();
+            if (mHead == mTail) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            mWaitingConsumer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Get sequence number of the frame last removed, counted from 0 since the queue was created.
+     * Consumer only.
+     *
+     * @return Sequence number, or -1 if no frame has been removed.
+     */
+    public long getLastSequence() {
+        return mLastSequence;
+    }
+
+    /**
+     * Get capture timestamp of the frame last removed. Consumer only.
+     *
+     * @return Timestamp given when the frame was added.
+     */
+    public long getLastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    private void wakeUp(Thread waiter) {
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+
+public class AudioPreRollBuffer {
+
+    private final AudioBufferPool mBufferPool;
+
+    // Circular store of the latest blocks, mBlocks[mFirst] is the oldest one.
+    private ByteBuffer[] mBlocks;
+    private long[] mTimestamps;
+    private int mFirst = 0;
+    private int mSize = 0;
+
+    /**
+     * Create a fixed-size store of the latest recorded blocks before the speech starts.
+     *
+     * @param capacity - Maximum number of blocks to keep.
+     * @param bufferPool - Pool of the blocks, the dropped blocks are given back to it.
+     */
+    public AudioPreRollBuffer(int capacity, AudioBufferPool bufferPool) {
+        mBufferPool = bufferPool;
+        mBlocks = new ByteBuffer[Math.max(capacity, 0)];
+        mTimestamps = new long[mBlocks.length];
+    }
+
+    /**
+     * Get the pool the dropped blocks are given back to.
+     *
+     * @return Buffer pool.
+     */
+    public AudioBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Get the maximum number of blocks to keep.
+     *
+     * @return Capacity.
+     */
+    public int getCapacity() {
+        return mBlocks.length;
+    }
+
+    /**
+     * Change the maximum number of blocks to keep. All kept blocks are dropped.
+     *
+     * @param capacity - Maximum number of blocks to keep.
+     */
+    public void setCapacity(int capacity) {
+        clear();
+        if (capacity != mBlocks.length) {
+            mBlocks = new ByteBuffer[Math.max(capacity, 0)];
+            mTimestamps = new long[mBlocks.length];
+        }
+    }
+
+    /**
+     * Get number of blocks kept.
+     *
+     * @return Number of blocks.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Keep a block, the oldest one is dropped if the store is full.
+     *
+     * @param block - Recorded block.
+     * @param timestamp - Capture timestamp of the block.
+     */
+    public void add(ByteBuffer block, long timestamp) {
+        if (mBlocks.length == 0) {
+            mBufferPool.release(block);
+            return;
+        }
+        if (mSize == mBlocks.length) {
+            mBufferPool.release(mBlocks[mFirst]);
+            mBlocks[mFirst] = block;
+            mTimestamps[mFirst] = timestamp;
+            mFirst = (mFirst + 1) % mBlocks.length;
+        } else {
+            int index = (mFirst + mSize) % mBlocks.length;
+            mBlocks[index] = block;
+            mTimestamps[index] = timestamp;
+            mSize++;
+        }
+    }
+
+    /**
+     * Move all kept blocks into the queue, from the oldest to the latest.
+     *
+     * @param queue - Target queue.
+     * @throws InterruptedException The waiting thread is interrupted.
+     */
+    public void drainTo(AudioFrameQueue<ByteBuffer> queue) throws InterruptedException {
+        while (mSize > 0) {
+            queue.put(mBlocks[mFirst], mTimestamps[mFirst]);
+            removeFirst();
+        }
+    }
+
+    /**
+     * Drop all kept blocks.
+     */
+    public void clear() {
+        while (mSize > 0) {
+            mBufferPool.release(mBlocks[mFirst]);
+            removeFirst();
+        }
+        mFirst = 0;
+    }
+
+    private void removeFirst() {
+        mBlocks[mFirst] = null;
+        mFirst = (mFirst + 1) % mBlocks.length;
+        mSize--;
+    }
+}
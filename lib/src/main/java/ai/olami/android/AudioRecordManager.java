@@ -31,9 +31,22 @@ public class AudioRecordManager {
     private static AudioRecord mAudioRecord = null;
     private static AudioRecordManager mAudioRecordFactory = null;
 
+    public static final int SAMPLE_RATE_48000 = 48000;
     public static final int SAMPLE_RATE_44100 = 44100;
+    public static final int SAMPLE_RATE_32000 = 32000;
     public static final int SAMPLE_RATE_16000 = 16000;
 
+    // Preferred capture sample rates, the first one supported by the device will be used.
+    // 16000 needs no conversion, 48000 and 32000 are integer multiples of it.
+    private static final int[] CAPTURE_SAMPLE_RATES = {
+            SAMPLE_RATE_16000,
+            SAMPLE_RATE_48000,
+            SAMPLE_RATE_32000,
+            SAMPLE_RATE_44100
+    };
+
+    private static int mSampleRate = SAMPLE_RATE_44100;
+
     private void AudioRecordManager() {
 
     }
@@ -56,7 +69,9 @@ public class AudioRecordManager {
      *
      * @param from - Source buffer.
      * @param to - Target buffer.
+     * @deprecated Use {@link AudioResampler} instead, which keeps the filter state between blocks.
      */
+    @Deprecated
     public static void convert441To16(short[] from, byte[] to) {
         double ratio = (double) SAMPLE_RATE_44100 / (double) SAMPLE_RATE_16000;
         for (int i = 0; i < to.length / 2; i++) {
@@ -103,12 +118,14 @@ public class AudioRecordManager {
     }
 
     /**
-     * Get the normal supported sample rate
+     * Get the sample rate selected for capturing.
+     * The supported rates are probed when the AudioRecord is initialized,
+     * so this returns SAMPLE_RATE_44100 until then.
      *
      * @return Sample rate
      */
     public static int getSampleRateConfig() {
-        return SAMPLE_RATE_44100;
+        return mSampleRate;
     }
 
     /**
@@ -140,18 +157,22 @@ public class AudioRecordManager {
     }
 
     private void initializeAudioRecord() throws Exception {
-        int minBufferSize = AudioRecord.getMinBufferSize(
-                getSampleRateConfig(),
-                getAudioChannelConfig(),
-                getAudioFormatConfig());
+        if (mAudioRecord == null) {
+            mAudioRecord = probeAudioRecord();
+        }
 
         if (mAudioRecord == null) {
+            // None of the preferred sample rates works immediately, wait for the default one.
+            mSampleRate = SAMPLE_RATE_44100;
             mAudioRecord = new AudioRecord(
                     MediaRecorder.AudioSource.MIC,
-                    getSampleRateConfig(),
+                    mSampleRate,
                     getAudioChannelConfig(),
                     getAudioFormatConfig(),
-                    minBufferSize * 4);
+                    AudioRecord.getMinBufferSize(
+                            mSampleRate,
+                            getAudioChannelConfig(),
+                            getAudioFormatConfig()) * 4);
         }
 
         Log.i(TAG, "AudioRecord select sample rate is : "+ mAudioRecord.getSampleRate());
@@ -173,6 +194,39 @@ public class AudioRecordManager {
         }
     }
 
+    private AudioRecord probeAudioRecord() {
+        for (int sampleRate : CAPTURE_SAMPLE_RATES) {
+            int minBufferSize = AudioRecord.getMinBufferSize(
+                    sampleRate,
+                    getAudioChannelConfig(),
+                    getAudioFormatConfig());
+            if (minBufferSize <= 0) {
+                continue;
+            }
+
+            AudioRecord audioRecord = null;
+            try {
+                audioRecord = new AudioRecord(
+                        MediaRecorder.AudioSource.MIC,
+                        sampleRate,
+                        getAudioChannelConfig(),
+                        getAudioFormatConfig(),
+                        minBufferSize * 4);
+            } catch (IllegalArgumentException e) {
+                Log.i(TAG, "AudioRecord does not support sample rate : " + sampleRate);
+                continue;
+            }
+
+            if (audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
+                mSampleRate = sampleRate;
+                return audioRecord;
+            }
+            audioRecord.release();
+        }
+
+        return null;
+    }
+
     /**
      * Stop and release resource.
      *
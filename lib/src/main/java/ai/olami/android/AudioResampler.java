@@ -0,0 +1,277 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+
+public class AudioResampler {
+
+    public static final int QUALITY_LOW = 0;
+    public static final int QUALITY_MEDIUM = 1;
+    public static final int QUALITY_HIGH = 2;
+
+    public static final int OUTPUT_SAMPLE_RATE_16000 = 16000;
+    public static final int OUTPUT_SAMPLE_RATE_8000 = 8000;
+
+    private static final int COEFFICIENT_SHIFT = 14;
+    private static final int COEFFICIENT_ONE = 1 << COEFFICIENT_SHIFT;
+
+    private final int mInputSampleRate;
+    private final int mOutputSampleRate;
+    private final int mQuality;
+
+    // Resampling ratio reduced to mUpFactor / mDownFactor.
+    private final int mUpFactor;
+    private final int mDownFactor;
+
+    // Polyphase FIR taps, mTaps entries per phase, mUpFactor phases.
+    private final int mTaps;
+    private final short[] mCoefficients;
+
+    // Delay line is written twice so the latest mTaps samples are always contiguous.
+    private final short[] mDelayLine;
+    private int mDelayIndex = 0;
+    private int mPhase = 0;
+
+    // Reused output of the filter loop when the target is a ByteBuffer.
+    private short[] mOutputSamples = null;
+
+    /**
+     * Create a resampler which converts 16-bit mono PCM to the specified output rate.
+     *
+     * @param inputSampleRate - Sample rate of the source audio.
+     * @param outputSampleRate - OUTPUT_SAMPLE_RATE_16000 or OUTPUT_SAMPLE_RATE_8000.
+     * @param quality - QUALITY_LOW, QUALITY_MEDIUM or QUALITY_HIGH.
+     */
+    public AudioResampler(int inputSampleRate, int outputSampleRate, int quality) {
+        if (inputSampleRate <= 0) {
+            throw new IllegalArgumentException("Illegal input sample rate: " + inputSampleRate);
+        }
+        if ((outputSampleRate != OUTPUT_SAMPLE_RATE_16000)
+                && (outputSampleRate != OUTPUT_SAMPLE_RATE_8000)) {
+            throw new IllegalArgumentException("Illegal output sample rate: " + outputSampleRate);
+        }
+
+        mInputSampleRate = inputSampleRate;
+        mOutputSampleRate = outputSampleRate;
+        mQuality = quality;
+
+        int gcd = gcd(inputSampleRate, outputSampleRate);
+        mUpFactor = outputSampleRate / gcd;
+        mDownFactor = inputSampleRate / gcd;
+
+        mTaps = getTapsOfQuality(quality);
+        mCoefficients = createCoefficients(mUpFactor, mDownFactor, mTaps);
+        mDelayLine = new short[mTaps * 2];
+    }
+
+    /**
+     * Get sample rate of the source audio.
+     *
+     * @return Sample rate.
+     */
+    public int getInputSampleRate() {
+        return mInputSampleRate;
+    }
+
+    /**
+     * Get sample rate of the resampled audio.
+     *
+     * @return Sample rate.
+     */
+    public int getOutputSampleRate() {
+        return mOutputSampleRate;
+    }
+
+    /**
+     * Get quality level of the resampler.
+     *
+     * @return Quality level.
+     */
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * Get the maximum number of output samples for the specified number of input samples.
+     *
+     * @param inputLength - Number of input samples.
+     * @return Maximum number of output samples.
+     */
+    public int getMaxOutputLength(int inputLength) {
+        return (int) (((long) inputLength * mUpFactor) / mDownFactor) + 1;
+    }
+
+    /**
+     * Clear the filter history, then the next block will be processed as a new stream.
+     */
+    public void reset() {
+        for (int i = 0; i < mDelayLine.length; i++) {
+            mDelayLine[i] = 0;
+        }
+        mDelayIndex = 0;
+        mPhase = 0;
+    }
+
+    /**
+     * Resample a block of audio.
+     * The filter state is kept between blocks, so continuous blocks must be passed in order.
+     *
+     * @param from - Source buffer.
+     * @param offset - Offset of the source buffer.
+     * @param length - Number of source samples.
+     * @param to - Target buffer.
+     * @param toOffset - Offset of the target buffer.
+     * @return Number of samples written into the target buffer.
+     */
+    public int process(short[] from, int offset, int length, short[] to, int toOffset) {
+        final short[] coefficients = mCoefficients;
+        final short[] delayLine = mDelayLine;
+        final int taps = mTaps;
+        final int up = mUpFactor;
+        final int down = mDownFactor;
+        int delayIndex = mDelayIndex;
+        int phase = mPhase;
+        int out = toOffset;
+
+        for (int i = offset; i < offset + length; i++) {
+            delayIndex = (delayIndex == 0) ? taps - 1 : delayIndex - 1;
+            delayLine[delayIndex] = from[i];
+            delayLine[delayIndex + taps] = from[i];
+
+            while (phase < up) {
+                to[out++] = filter(delayLine, delayIndex, coefficients, phase * taps, taps);
+                phase += down;
+            }
+            phase -= up;
+        }
+
+        mDelayIndex = delayIndex;
+        mPhase = phase;
+
+        return out - toOffset;
+    }
+
+    /**
+     * Resample a block of audio into a buffer of 16-bit PCM samples.
+     * The filter state is kept between blocks, so continuous blocks must be passed in order.
+     *
+     * @param from - Source buffer.
+     * @param offset - Offset of the source buffer.
+     * @param length - Number of source samples.
+     * @param to - Target buffer, samples are written in the byte order of the buffer.
+     * @param toOffset - Offset in bytes of the target buffer.
+     * @return Number of bytes written into the target buffer.
+     */
+    public int process(short[] from, int offset, int length, ByteBuffer to, int toOffset) {
+        int maxLength = getMaxOutputLength(length);
+        if ((mOutputSamples == null) || (mOutputSamples.length < maxLength)) {
+            mOutputSamples = new short[maxLength];
+        }
+        int count = process(from, offset, length, mOutputSamples, 0);
+        for (int i = 0; i < count; i++) {
+            to.putShort(toOffset + (i * 2), mOutputSamples[i]);
+        }
+        return count * 2;
+    }
+
+    private static short filter(
+            short[] delayLine,
+            int delayIndex,
+            short[] coefficients,
+            int coefficientIndex,
+            int taps
+    ) {
+        int acc = 1 << (COEFFICIENT_SHIFT - 1);
+        for (int k = 0; k < taps; k++) {
+            acc += delayLine[delayIndex + k] * coefficients[coefficientIndex + k];
+        }
+        acc >>= COEFFICIENT_SHIFT;
+        if (acc > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        } else if (acc < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) acc;
+    }
+
+    private static int getTapsOfQuality(int quality) {
+        switch (quality) {
+            case QUALITY_LOW:
+                return 8;
+            case QUALITY_MEDIUM:
+                return 16;
+            case QUALITY_HIGH:
+                return 32;
+            default:
+                throw new IllegalArgumentException("Illegal quality level: " + quality);
+        }
+    }
+
+    /**
+     * Design a Blackman windowed-sinc low-pass prototype and split it into polyphase branches.
+     * Each branch is normalized to unity DC gain in fixed-point.
+     */
+    private static short[] createCoefficients(int up, int down, int taps) {
+        short[] coefficients = new short[up * taps];
+        int length = up * taps;
+        double center = (length - 1) / 2.0;
+        // Cut-off relative to the input rate, a bit below the lower Nyquist frequency.
+        double cutoff = 0.45 * Math.min(1.0, (double) up / (double) down);
+        double[] branch = new double[taps];
+
+        for (int phase = 0; phase < up; phase++) {
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                int i = phase + k * up;
+                double t = (i - center) / up;
+                double x = 2.0 * cutoff * t;
+                double sinc = (x == 0) ? 1.0 : Math.sin(Math.PI * x) / (Math.PI * x);
+                double w = 0.42
+                        - 0.5 * Math.cos(2.0 * Math.PI * (i + 0.5) / length)
+                        + 0.08 * Math.cos(4.0 * Math.PI * (i + 0.5) / length);
+                branch[k] = sinc * w;
+                sum += branch[k];
+            }
+            int total = 0;
+            int largest = 0;
+            for (int k = 0; k < taps; k++) {
+                int c = (int) Math.round(branch[k] / sum * COEFFICIENT_ONE);
+                coefficients[phase * taps + k] = (short) c;
+                total += c;
+                if (Math.abs(c) > Math.abs(coefficients[phase * taps + largest])) {
+                    largest = k;
+                }
+            }
+            // Put the rounding error on the main tap, so that every branch passes DC exactly.
+            coefficients[phase * taps + largest] += (short) (COEFFICIENT_ONE - total);
+        }
+
+        return coefficients;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android;
+
+public class CaptureStatistics {
+
+    private volatile long mBlockNanoseconds = 0;
+    private volatile long mStartNanoseconds = 0;
+    private volatile long mLastCaptureNanoseconds = 0;
+
+    private volatile long mBlocksRead = 0;
+    private volatile long mShortReads = 0;
+    private volatile long mFailedReads = 0;
+
+    private volatile long mLastProcessingNanoseconds = 0;
+    private volatile long mMaxProcessingNanoseconds = 0;
+    private volatile long mTotalProcessingNanoseconds = 0;
+    private volatile long mOverBudgetBlocks = 0;
+
+    private volatile long mLastQueueLatencyNanoseconds = 0;
+    private volatile long mMaxQueueLatencyNanoseconds = 0;
+
+    /**
+     * Get the current monotonic time used for the capture timestamps.
+     *
+     * @return Time in nanoseconds.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Clear all counters and start a new capture.
+     *
+     * @param blockMilliseconds - Length of each recorded block.
+     */
+    public void reset(int blockMilliseconds) {
+        mBlockNanoseconds = blockMilliseconds * 1000000L;
+        mStartNanoseconds = now();
+        mLastCaptureNanoseconds = mStartNanoseconds;
+        mBlocksRead = 0;
+        mShortReads = 0;
+        mFailedReads = 0;
+        mLastProcessingNanoseconds = 0;
+        mMaxProcessingNanoseconds = 0;
+        mTotalProcessingNanoseconds = 0;
+        mOverBudgetBlocks = 0;
+        mLastQueueLatencyNanoseconds = 0;
+        mMaxQueueLatencyNanoseconds = 0;
+    }
+
+    /**
+     * Record the result of a read. Recorder thread only.
+     *
+     * @param readSize - Size returned by the read.
+     * @param blockSize - Size requested.
+     * @param captureNanoseconds - Time when the read returned.
+     */
+    public void onRead(int readSize, int blockSize, long captureNanoseconds) {
+        mLastCaptureNanoseconds = captureNanoseconds;
+        if (readSize == blockSize) {
+            mBlocksRead++;
+        } else if (readSize > 0) {
+            mShortReads++;
+        } else {
+            mFailedReads++;
+        }
+    }
+
+    /**
+     * Record the time spent on a block, from the read until the block is handed over.
+     * Recorder thread only.
+     *
+     * @param captureNanoseconds - Time when the read returned.
+     * @param doneNanoseconds - Time when the block is handed over.
+     */
+    public void onProcessed(long captureNanoseconds, long doneNanoseconds) {
+        long elapsed = doneNanoseconds - captureNanoseconds;
+        mLastProcessingNanoseconds = elapsed;
+        mTotalProcessingNanoseconds += elapsed;
+        if (elapsed > mMaxProcessingNanoseconds) {
+            mMaxProcessingNanoseconds = elapsed;
+        }
+        if (elapsed > mBlockNanoseconds) {
+            mOverBudgetBlocks++;
+        }
+    }
+
+    /**
+     * Record how long a block waited between the capture and the sender.
+     * Sender thread only.
+     *
+     * @param captureNanoseconds - Capture timestamp of the block.
+     * @param dequeuedNanoseconds - Time when the sender took the block.
+     */
+    public void onDequeued(long captureNanoseconds, long dequeuedNanoseconds) {
+        long latency = dequeuedNanoseconds - captureNanoseconds;
+        mLastQueueLatencyNanoseconds = latency;
+        if (latency > mMaxQueueLatencyNanoseconds) {
+            mMaxQueueLatencyNanoseconds = latency;
+        }
+    }
+
+    /**
+     * Get number of complete blocks read.
+     *
+     * @return Number of blocks.
+     */
+    public long getBlocksRead() {
+        return mBlocksRead;
+    }
+
+    /**
+     * Get number of reads which returned less than a block.
+     *
+     * @return Number of reads.
+     */
+    public long getShortReads() {
+        return mShortReads;
+    }
+
+    /**
+     * Get number of reads which returned nothing or an error.
+     *
+     * @return Number of reads.
+     */
+    public long getFailedReads() {
+        return mFailedReads;
+    }
+
+    /**
+     * Get the estimated length of the lost audio, that is the time elapsed
+     * since the capture started minus the length of the complete blocks read.
+     *
+     * @return Length in milliseconds.
+     */
+    public long getDroppedMilliseconds() {
+        long elapsed = mLastCaptureNanoseconds - mStartNanoseconds;
+        long dropped = (elapsed - mBlocksRead * mBlockNanoseconds) / 1000000L;
+        return (dropped > 0) ? dropped : 0;
+    }
+
+    /**
+     * Get time spent on the last block by the recorder thread.
+     *
+     * @return Time in nanoseconds.
+     */
+    public long getLastProcessingNanoseconds() {
+        return mLastProcessingNanoseconds;
+    }
+
+    /**
+     * Get the longest time spent on a block by the recorder thread.
+     *
+     * @return Time in nanoseconds.
+     */
+    public long getMaxProcessingNanoseconds() {
+        return mMaxProcessingNanoseconds;
+    }
+
+    /**
+     * Get the average time spent on a block by the recorder thread.
+     *
+     * @return Time in nanoseconds.
+     */
+    public long getAverageProcessingNanoseconds() {
+        long blocks = mBlocksRead;
+        return (blocks > 0) ? (mTotalProcessingNanoseconds / blocks) : 0;
+    }
+
+    /**
+     * Get number of blocks which took longer than their own length to process.
+     *
+     * @return Number of blocks.
+     */
+    public long getOverBudgetBlocks() {
+        return mOverBudgetBlocks;
+    }
+
+    /**
+     * Get the time the last block waited between the capture and the sender.
+     *
+     * @return Time in nanoseconds.
+     */
+    public long getLastQueueLatencyNanoseconds() {
+        return mLastQueueLatencyNanoseconds;
+    }
+
+    /**
+     * Get the longest time a block waited between the capture and the sender.
+     *
+     * @return Time in nanoseconds.
+     */
+    public long getMaxQueueLatencyNanoseconds() {
+        return mMaxQueueLatencyNanoseconds;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class EncodedAudioBuffer {
+
+    /**
+     * Audio taken by the upload stage in one piece.
+     * The data is valid until the next take() of the same buffer.
+     */
+    public static class Batch {
+        private byte[] mData = null;
+        private int mSize = 0;
+        private int mAudioType = 0;
+        private int mMilliseconds = 0;
+        private long mCaptureTimestamp = 0;
+        private boolean mFinal = false;
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public int getAudioType() {
+            return mAudioType;
+        }
+
+        public int getMilliseconds() {
+            return mMilliseconds;
+        }
+
+        /**
+         * Get the capture timestamp of the last block of the batch.
+         *
+         * @return Timestamp in nanoseconds, 0 if the batch is empty.
+         */
+        public long getCaptureTimestamp() {
+            return mCaptureTimestamp;
+        }
+
+        /**
+         * Check if this is the end of the stream.
+         *
+         * @return TRUE if no audio comes after this batch.
+         */
+        public boolean isFinal() {
+            return mFinal;
+        }
+    }
+
+    // The encode stage writes into one array while the upload stage sends the other.
+    private byte[] mWriting;
+    private byte[] mSending;
+    private final Batch mBatch = new Batch();
+
+    private int mSize = 0;
+    private int mAudioType = 0;
+    private int mMilliseconds = 0;
+    private long mCaptureTimestamp = 0;
+
+    // The last write is kept back until finish() or the next write,
+    // so the final batch always carries audio.
+    private int mLastSize = 0;
+    private int mLastMilliseconds = 0;
+    private long mPreviousCaptureTimestamp = 0;
+    private boolean mFinished = false;
+    private boolean mFinalTaken = false;
+
+    /**
+     * Create a buffer between the encode stage and the upload stage of a stream.
+     * One thread writes and one thread takes, the arrays grow when needed.
+     *
+     * @param capacity - Initial size in bytes of each array.
+     */
+    public EncodedAudioBuffer(int capacity) {
+        mWriting = new byte[capacity];
+        mSending = new byte[capacity];
+    }
+
+    /**
+     * Append encoded audio. Encode stage only.
+     *
+     * @param data - Buffer of the encoded audio.
+     * @param offset - Offset in bytes of the encoded audio.
+     * @param size - Size in bytes of the encoded audio.
+     * @param audioType - Audio type of SpeechRecognizer, the same for the whole stream.
+     * @param milliseconds - Length of the audio.
+     * @param captureTimestamp - Capture timestamp of the audio.
+     */
+    public synchronized void write(
+            ByteBuffer data,
+            int offset,
+            int size,
+            int audioType,
+            int milliseconds,
+            long captureTimestamp
+    ) {
+        ensureCapacity(size);
+        data.clear();
+        data.position(offset);
+        data.get(mWriting, mSize, size);
+        appended(size, audioType, milliseconds, captureTimestamp);
+    }
+
+    /**
+     * Append encoded audio. Encode stage only.
+     *
+     * @param data - Array of the encoded audio.
+     * @param offset - Offset in bytes of the encoded audio.
+     * @param size - Size in bytes of the encoded audio.
+     * @param audioType - Audio type of SpeechRecognizer, the same for the whole stream.
+     * @param milliseconds - Length of the audio.
+     * @param captureTimestamp - Capture timestamp of the audio.
+     */
+    public synchronized void write(
+            byte[] data,
+            int offset,
+            int size,
+            int audioType,
+            int milliseconds,
+            long captureTimestamp
+    ) {
+        ensureCapacity(size);
+        System.arraycopy(data, offset, mWriting, mSize, size);
+        appended(size, audioType, milliseconds, captureTimestamp);
+    }
+
+    /**
+     * Mark the end of the stream, the next batch will be the final one. Encode stage only.
+     */
+    public synchronized void finish() {
+        mFinished = true;
+        notifyAll();
+    }
+
+    /**
+     * Get the length of the audio waiting for the upload stage.
+     *
+     * @return Length in milliseconds.
+     */
+    public synchronized int getMilliseconds() {
+        return mMilliseconds;
+    }
+
+    /**
+     * Take the audio written so far, wait until there is enough of it or the stream ends.
+     * The last write is kept for the next batch until the stream ends, so the final batch
+     * is never empty once any audio has been written. Upload stage only.
+     *
+     * @param minMilliseconds - Length of audio worth an upload.
+     * @param timeoutMilliseconds - How long to wait.
+     * @return Batch of the waiting audio, or null if the timeout elapsed
+     *         or the final batch has been taken.
+     * @throws InterruptedException The waiting thread is interrupted.
+     */
+    public synchronized Batch take(int minMilliseconds, long timeoutMilliseconds)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMilliseconds;
+        while (!mFinished
+                && ((mMilliseconds - mLastMilliseconds < minMilliseconds) || (mSize - mLastSize == 0))) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        if (mFinalTaken) {
+            return null;
+        }
+
+        byte[] sending = mWriting;
+        mWriting = mSending;
+        mSending = sending;
+
+        int keptSize = mFinished ? 0 : mLastSize;
+        int keptMilliseconds = mFinished ? 0 : mLastMilliseconds;
+        mBatch.mData = sending;
+        mBatch.mSize = mSize - keptSize;
+        mBatch.mAudioType = mAudioType;
+        mBatch.mMilliseconds = mMilliseconds - keptMilliseconds;
+        mBatch.mCaptureTimestamp = mFinished ? mCaptureTimestamp : mPreviousCaptureTimestamp;
+        mBatch.mFinal = mFinished;
+        mFinalTaken = mFinished;
+
+        // The kept write starts the next batch.
+        mSize = 0;
+        ensureCapacity(keptSize);
+        System.arraycopy(sending, mBatch.mSize, mWriting, 0, keptSize);
+        mSize = keptSize;
+        mMilliseconds = keptMilliseconds;
+        if (keptSize == 0) {
+            mCaptureTimestamp = 0;
+        }
+        mPreviousCaptureTimestamp = 0;
+        return mBatch;
+    }
+
+    private void ensureCapacity(int size) {
+        if (mSize + size > mWriting.length) {
+            mWriting = Arrays.copyOf(mWriting, Math.max(mWriting.length * 2, mSize + size));
+        }
+    }
+
+    private void appended(int size, int audioType, int milliseconds, long captureTimestamp) {
+        mSize += size;
+        mAudioType = audioType;
+        mMilliseconds += milliseconds;
+        mPreviousCaptureTimestamp = mCaptureTimestamp;
+        mCaptureTimestamp = captureTimestamp;
+        mLastSize = size;
+        mLastMilliseconds = milliseconds;
+        notifyAll();
+    }
+}
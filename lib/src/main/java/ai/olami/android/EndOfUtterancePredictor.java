@@ -0,0 +1,134 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android;
+
+import ai.olami.cloudService.SpeechResult;
+
+public class EndOfUtterancePredictor {
+
+    // Pause to end the speech early when the partial result has been stable.
+    public static final int DEFAULT_SHORT_TAIL_MILLISECONDS = 600;
+    // Number of polls in a row which return the same partial result.
+    public static final int DEFAULT_STABLE_POLLS = 2;
+
+    private volatile boolean mEnabled = false;
+    private volatile int mShortTailMilliseconds = DEFAULT_SHORT_TAIL_MILLISECONDS;
+    private volatile int mStablePolls = DEFAULT_STABLE_POLLS;
+
+    // Written by the getter thread, read by the recorder thread.
+    private volatile String mLastText = null;
+    private volatile int mUnchangedPolls = 0;
+
+    private volatile int mTailMilliseconds = 0;
+    private volatile int mSavedTailMilliseconds = 0;
+
+    /**
+     * Enable/Disable to end the speech before the full VAD end time.
+     *
+     * @param enabled - Set TRUE to enable.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Set the shorter pause to end the speech, and how stable the partial result must be.
+     *
+     * @param milliseconds - Length of the pause in milliseconds.
+     * @param stablePolls - Number of polls in a row which return the same partial result.
+     */
+    public void setShortTail(int milliseconds, int stablePolls) {
+        if (milliseconds < 0) {
+            throw new IllegalArgumentException("The length cannot be less than 0");
+        }
+        if (stablePolls < 1) {
+            throw new IllegalArgumentException("The number of polls cannot be less than 1");
+        }
+        mShortTailMilliseconds = milliseconds;
+        mStablePolls = stablePolls;
+    }
+
+    /**
+     * Start a new session.
+     *
+     * @param tailMilliseconds - The full VAD end time of the session.
+     */
+    public void reset(int tailMilliseconds) {
+        mTailMilliseconds = tailMilliseconds;
+        mSavedTailMilliseconds = 0;
+        mLastText = null;
+        mUnchangedPolls = 0;
+    }
+
+    /**
+     * Take a partial recognition result. Getter thread only.
+     *
+     * @param result - Speech recognition result of a poll.
+     */
+    public void onPartialResult(SpeechResult result) {
+        if (result == null) {
+            return;
+        }
+        String text = result.getResult();
+        String lastText = mLastText;
+        boolean unchanged = (result.getStatus() == SpeechResult.STATUS_RESULT_NOT_CHANGE)
+                || ((text != null) && text.equals(lastText));
+        if (unchanged && (lastText != null) && !lastText.isEmpty()) {
+            mUnchangedPolls++;
+        } else {
+            if ((text != null) && !text.isEmpty()) {
+                mLastText = text;
+            }
+            mUnchangedPolls = 0;
+        }
+    }
+
+    /**
+     * Check if the utterance can be taken as ended at the current pause. Recorder thread only.
+     * The saved tail is recorded once it returns TRUE.
+     *
+     * @param pauseMilliseconds - Length of the silence since the speech paused.
+     * @return TRUE to end the speech now.
+     */
+    public boolean isUtteranceEnded(int pauseMilliseconds) {
+        if (!mEnabled
+                || (pauseMilliseconds < mShortTailMilliseconds)
+                || (pauseMilliseconds >= mTailMilliseconds)
+                || (mUnchangedPolls < mStablePolls)) {
+            return false;
+        }
+        if (mSavedTailMilliseconds == 0) {
+            mSavedTailMilliseconds = mTailMilliseconds - pauseMilliseconds;
+        }
+        return true;
+    }
+
+    /**
+     * Get the waiting time cut from the VAD end time in the current or the last session.
+     *
+     * @return Saved tail in milliseconds, 0 if the session was ended by the full VAD end time.
+     */
+    public int getSavedTailMilliseconds() {
+        return mSavedTailMilliseconds;
+    }
+}
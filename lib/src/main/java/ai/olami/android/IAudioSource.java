@@ -0,0 +1,51 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+
+public interface IAudioSource {
+    /**
+     * Open the audio source. A live source starts capturing here.
+     *
+     * @throws Exception There is something wrong.
+     */
+    void open() throws Exception;
+
+    /**
+     * Read a block of 16-bit mono PCM audio in the upload sample rate.
+     *
+     * @param audioData - Target buffer, samples are written in the byte order of the buffer.
+     * @param size - Size in bytes of the block.
+     * @return Size in bytes of the audio read, or -1 if there is no more audio.
+     * @throws Exception There is something wrong.
+     */
+    int read(ByteBuffer audioData, int size) throws Exception;
+
+    /**
+     * Close the audio source and release its resources.
+     */
+    void close();
+
+    /**
+     * Check if the audio source is opened.
+     *
+     * @return TRUE if opened.
+     */
+    boolean isOpened();
+}
@@ -0,0 +1,225 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.xiph.speex.Bits;
+import org.xiph.speex.Encoder;
+import org.xiph.speex.NbEncoder;
+import org.xiph.speex.SbEncoder;
+
+/**
+ * Speex encoder in pure Java, built on the encoder bundled with the OLAMI Java client.
+ * It produces the same framing as the Speex library of C++: one frame per packet, padded to whole bytes.
+ * The bundled encoder still allocates its work arrays in each frame, about 90 KB in wideband,
+ * so the native Codec remains the encoder to use when the capture loop must not allocate.
+ */
+public class JavaSpeexEncoder {
+
+    public static final int POOL_CAPACITY = 4;
+
+    private static final ArrayBlockingQueue<JavaSpeexEncoder> mPool =
+            new ArrayBlockingQueue<JavaSpeexEncoder>(POOL_CAPACITY);
+
+    private final NbEncoder mNbEncoder = new NbEncoder();
+    private final SbEncoder mSbEncoder = new SbEncoder();
+    private final ReusableBits mBits = new ReusableBits();
+
+    private Encoder mEncoder = null;
+    private float[] mFrame = new float[0];
+
+    private JavaSpeexEncoder() {
+    }
+
+    /**
+     * Take an encoder from the pool and start a new stream with it.
+     * The encoder state is created again, so nothing is carried over from the previous stream.
+     *
+     * @param mode - 0 for narrowband, 1 for wideband or 2 for ultra-wideband.
+     * @param quality - Encoding quality from 0 to 10.
+     * @return Encoder, it must be given back by close().
+     */
+    public static JavaSpeexEncoder open(int mode, int quality) {
+        JavaSpeexEncoder encoder = mPool.poll();
+        if (encoder == null) {
+            encoder = new JavaSpeexEncoder();
+        }
+        encoder.init(mode);
+        encoder.setQuality(quality);
+        return encoder;
+    }
+
+    /**
+     * Set the encoding quality, it can be changed between blocks of the same stream.
+     * It applies to both the constant and the variable bit-rate.
+     *
+     * @param quality - Quality from 0 to 10.
+     */
+    public void setQuality(int quality) {
+        mEncoder.setQuality(quality);
+        mEncoder.setVbrQuality(quality);
+    }
+
+    /**
+     * Set the CPU effort of the encoder.
+     *
+     * @param complexity - Complexity from 1 to 10.
+     */
+    public void setComplexity(int complexity) {
+        mEncoder.setComplexity(complexity);
+    }
+
+    /**
+     * Enable or disable variable bit-rate, so that easy frames such as silence take fewer bytes.
+     *
+     * @param enable - TRUE to enable.
+     */
+    public void setVBR(boolean enable) {
+        mEncoder.setVbr(enable);
+    }
+
+    /**
+     * Enable or disable discontinuous transmission, which encodes silence in tiny frames.
+     *
+     * @param enable - TRUE to enable.
+     */
+    public void setDTX(boolean enable) {
+        mEncoder.setDtx(enable);
+    }
+
+    /**
+     * Get number of samples of each frame.
+     *
+     * @return Frame size in samples.
+     */
+    public int getFrameSize() {
+        return mEncoder.getFrameSize();
+    }
+
+    /**
+     * Encode all whole frames of little-endian 16-bit PCM bytes of a buffer,
+     * whatever the byte order of the buffer is set to.
+     *
+     * @param lin - Buffer of little-endian PCM bytes.
+     * @param offset - Offset in bytes of the PCM data.
+     * @param size - Size in bytes of the PCM data.
+     * @param encoded - Array for the encoded data, written from index 0.
+     * @return Size in bytes of the encoded data.
+     */
+    public int encodeBuffer(ByteBuffer lin, int offset, int size, byte[] encoded) {
+        final float[] frame = mFrame;
+        final int frameBytes = frame.length * 2;
+        int encodedSize = 0;
+
+        for (int position = offset; position + frameBytes <= offset + size; position += frameBytes) {
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = (short) ((lin.get(position + i * 2) & 0xff)
+                        | (lin.get(position + i * 2 + 1) << 8));
+            }
+            mEncoder.encode(mBits, frame);
+            int frameSize = mBits.getBufferSize();
+            if (encodedSize + frameSize > encoded.length) {
+                throw new IllegalArgumentException("Insufficient space for the encoded data");
+            }
+            System.arraycopy(mBits.getBuffer(), 0, encoded, encodedSize, frameSize);
+            encodedSize += frameSize;
+            mBits.init();
+        }
+
+        return encodedSize;
+    }
+
+    /**
+     * Give the encoder back to the pool.
+     * The encoder must not be used by the caller after that.
+     */
+    public void close() {
+        mPool.offer(this);
+    }
+
+    private void init(int mode) {
+        switch (mode) {
+            case 0:
+                mNbEncoder.nbinit();
+                mEncoder = mNbEncoder;
+                break;
+            case 1:
+                mSbEncoder.wbinit();
+                mEncoder = mSbEncoder;
+                break;
+            case 2:
+                mSbEncoder.uwbinit();
+                mEncoder = mSbEncoder;
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal Speex mode: " + mode);
+        }
+        if (mFrame.length != mEncoder.getFrameSize()) {
+            mFrame = new float[mEncoder.getFrameSize()];
+        }
+        mBits.init();
+    }
+
+    /**
+     * Bits which are cleared in place between frames.
+     * Bits.init() of the Java client allocates a new buffer, that is once every 20 ms.
+     * The encoders only pack bits, so the packing is the only part overridden.
+     */
+    private static class ReusableBits extends Bits {
+
+        private byte[] mBytes = new byte[DEFAULT_BUFFER_SIZE];
+        private int mBytePtr = 0;
+        private int mBitPtr = 0;
+
+        @Override
+        public void init() {
+            Arrays.fill(mBytes, 0, getBufferSize(), (byte) 0);
+            mBytePtr = 0;
+            mBitPtr = 0;
+        }
+
+        @Override
+        public void pack(int data, int nbBits) {
+            while (mBytePtr + ((mBitPtr + nbBits) >> 3) >= mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+            }
+            for (int bit = nbBits - 1; bit >= 0; bit--) {
+                mBytes[mBytePtr] |= ((data >> bit) & 1) << (7 - mBitPtr);
+                mBitPtr++;
+                if (mBitPtr == 8) {
+                    mBitPtr = 0;
+                    mBytePtr++;
+                }
+            }
+        }
+
+        @Override
+        public byte[] getBuffer() {
+            return mBytes;
+        }
+
+        @Override
+        public int getBufferSize() {
+            return mBytePtr + ((mBitPtr > 0) ? 1 : 0);
+        }
+    }
+}
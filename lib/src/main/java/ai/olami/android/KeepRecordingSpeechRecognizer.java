@@ -27,14 +27,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import ai.olami.android.jni.Codec;
+import ai.olami.android.jni.Preprocessor;
 import ai.olami.cloudService.APIConfiguration;
 import ai.olami.cloudService.APIResponse;
 import ai.olami.cloudService.CookieSet;
@@ -56,7 +56,7 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
     private CookieSet mCookie = null;
     private NLIConfig mNLIConfig = null;
 
-    private BlockingQueue mRecordDataQueue = null;
+    private AudioFrameQueue<ByteBuffer> mRecordDataQueue = null;
 
     private boolean mSendCallback = false;
     private boolean mRecording = false;
@@ -71,6 +71,7 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
 
     private Thread mRecorderThread = null;
     private Thread mSenderThread = null;
+    private Thread mUploaderThread = null;
     private Thread mGetterThread = null;
 
     private File mRecordFile = null;
@@ -79,10 +80,11 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
     private DataOutputStream mDataOutputStream = null;
     private String mRecordFilePath = Environment.getExternalStorageDirectory().getPath() +"/musicbox/";
     private String mRecordFileName = "OLAMI-mic-record.pcm";
-
-    private VoiceVolume mVoiceVolume = new VoiceVolume();
+    private byte[] mRecordFileData = null;
 
     private Codec mSpeexEncoder = null;
+    private JavaSpeexEncoder mJavaSpeexEncoder = null;
+    private byte[] mJavaEncodedData = null;
 
     private RecognizeState mRecognizeState = null;
 
@@ -225,10 +227,9 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
         mSendCallback = false;
         // Force to cancel all processes.
         cancelRecognizing();
+        closeAudioUploader();
 
-        if (mAudioRecordManager != null) {
-            mAudioRecordManager.stopAndRelease();
-        }
+        getAudioSource().close();
 
         mAudioRecord = null;
         mAudioRecordManager = null;
@@ -245,8 +246,11 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
      * @throws Exception There is something wrong.
      */
     public void startRecording() throws Exception {
-        mAudioRecordManager.startRecording();
-        setAudioRecord(mAudioRecordManager.getAudioRecord());
+        IAudioSource source = getAudioSource();
+        source.open();
+        if (source instanceof MicrophoneAudioSource) {
+            setAudioRecord(((MicrophoneAudioSource) source).getAudioRecord());
+        }
     }
 
     /**
@@ -289,7 +293,7 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
         mCookie = new CookieSet();
         mNLIConfig = nliConfig;
 
-        mRecordDataQueue = new LinkedBlockingQueue();
+        mRecordDataQueue = createRecordDataQueue();
 
         changeRecognizeState(RecognizeState.PROCESSING);
 
@@ -307,12 +311,13 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
         });
         mRecorderThread.start();
 
-        // Init Sender Thread
+        // Init Sender Thread, the encode stage, and the Uploader Thread, the upload stage.
+        final EncodedAudioBuffer encodedAudio = createEncodedAudioBuffer();
         mSenderThread = new Thread(new Runnable() {
             @Override
             public void run() {
                 try {
-                    doSending();
+                    doSending(encodedAudio);
                 } catch (Exception e) {
                     changeRecognizeState(RecognizeState.ERROR);
                     mCallback.onException(e);
@@ -321,6 +326,22 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
         });
         mSenderThread.start();
 
+        mUploaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    doUploading(encodedAudio);
+                } catch (Exception e) {
+                    // A cancelled stream fails its uploads on purpose.
+                    if (!mCancel) {
+                        changeRecognizeState(RecognizeState.ERROR);
+                        mCallback.onException(e);
+                    }
+                }
+            }
+        });
+        mUploaderThread.start();
+
         // Init Getter Thread
         mGetterThread = new Thread(new Runnable() {
             @Override
@@ -368,6 +389,8 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
 
         stopRecognizing();
         mCancel = true;
+        // Wake the upload stage if it waits for a response or a free slot.
+        closeAudioUploader();
 
         changeRecognizeState(RecognizeState.STOPPED);
     }
@@ -383,7 +406,9 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
     /**
      * Set AudioRecord for the KeepRecordingSpeechRecognizer instance.
      *
+     * @deprecated The audio is read from the audio source, use setAudioSource() instead.
      */
+    @Deprecated
     public void setAudioRecord(AudioRecord audioRecord) {
         mAudioRecord = audioRecord;
     }
@@ -409,130 +434,128 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
     }
 
     private void doRecording() throws Exception {
-        short[] audioData441 = new short[441 * RECORD_FRAMES];
-        byte[] audioData = null;
-        LinkedList<byte[]> tempInputs = new LinkedList<byte[]>();
-        int reservedBlocks = (RESERVED_INPUT_LENGTH_MILLISECONDS / (RECORD_FRAMES * FRAME_LENGTH_MILLISECONDS));
-        int instantNoiseBlocks = (INSTANT_NOISE_LENGTH_MILLISECONDS / (RECORD_FRAMES * FRAME_LENGTH_MILLISECONDS));
-        int vadTailBlocks = (getVADEndMilliseconds() / (RECORD_FRAMES * FRAME_LENGTH_MILLISECONDS));
+        IAudioSource source = getAudioSource();
+        AudioBufferPool bufferPool = getAudioBufferPool();
+        AudioFrameQueue<ByteBuffer> recordDataQueue = mRecordDataQueue;
+        ByteBuffer audioData = null;
+        AudioPreRollBuffer preRollBuffer = getPreRollBuffer();
+        CaptureStatistics statistics = getCaptureStatistics();
+        long captureTime = 0;
+        VoiceActivityDetector vad = getVoiceActivityDetector();
+        Preprocessor preprocessor = getPreprocessor();
+        EndOfUtterancePredictor endPredictor = getEndOfUtterancePredictor();
+        int vadEvent = VoiceActivityDetector.EVENT_NONE;
         int inputVolume = 0;
-        int priInputVolume = 0;
-        int silence = 0;
-        int instantNoise = 0;
+        int readSize = 0;
 
+        statistics.reset(getRecordDataMilliseconds());
+        endPredictor.reset(getVADEndMilliseconds());
         while (mRecording) {
-            synchronized (mRecordDataQueue) {
-                if (mAudioRecord.read(audioData441, 0, audioData441.length) == audioData441.length) {
-                    audioData = new byte[getRecordDataSize()];
-                    AudioRecordManager.convert441To16(audioData441, audioData);
-                    saveRecordToFile(audioData, false);
-
-                    inputVolume = getMicInputVolume(audioData);
-                    mCallback.onRecordVolumeChange(inputVolume);
-
-                    if (!mCapturedVoiceBegin) {
-                        if (inputVolume == 0) {
-                            // Speech may not have started. Buffering silence audio as the head.
-                            tempInputs.add(audioData);
-                            if (tempInputs.size() > reservedBlocks) {
-                                tempInputs.removeFirst();
-                            }
-                        } else {
-                            mCapturedVoiceBegin = true;
-                            // Insert buffered silence audio into the beginning of the real speech input.
-                            while (!tempInputs.isEmpty()) {
-                                mRecordDataQueue.put(tempInputs.poll());
-                            }
-                            // Then append the real speech data
-                            mRecordDataQueue.put(audioData);
-                        }
+            audioData = bufferPool.acquire();
+            readSize = source.read(audioData, getRecordDataSize());
+            captureTime = CaptureStatistics.now();
+            if (readSize < 0) {
+                // No more audio from the source.
+                bufferPool.release(audioData);
+                break;
+            }
+            statistics.onRead(readSize, getRecordDataSize(), captureTime);
+            if (readSize == getRecordDataSize()) {
+                if (preprocessor != null) {
+                    preprocessor.process(audioData, 0, getRecordDataSize());
+                }
+                saveRecordToFile(audioData, false);
+
+                vadEvent = vad.process(audioData, getRecordDataSize());
+                inputVolume = vad.getVolume();
+                mCallback.onRecordVolumeChange(inputVolume);
+
+                if (!mCapturedVoiceBegin) {
+                    if ((vadEvent & VoiceActivityDetector.EVENT_SPEECH_BEGIN) == 0) {
+                        // Speech may not have started. Buffering silence audio as the head.
+                        preRollBuffer.add(audioData, captureTime);
                     } else {
-                        mRecordDataQueue.put(audioData);
-                        if (inputVolume > getSilenceLevel()) {
-                            if (silence == 0) {
-                                instantNoise = 0;
-                            }
-                            if (silence > 0) {
-                                if (instantNoise == 0) {
-                                    instantNoise++;
-                                } else {
-                                    if ((instantNoise < instantNoiseBlocks)
-                                            && (priInputVolume > inputVolume)) {
-                                        instantNoise++;
-                                    } else {
-                                        silence = 0;
-                                    }
-                                }
-                            }
-                        } else {
-                            silence++;
-                        }
-                        if (silence > vadTailBlocks) {
-                            break;
-                        }
+                        mCapturedVoiceBegin = true;
+                        // Insert buffered silence audio into the beginning of the real speech input.
+                        preRollBuffer.drainTo(recordDataQueue);
+                        // Then append the real speech data
+                        recordDataQueue.put(audioData, captureTime);
+                    }
+                } else {
+                    recordDataQueue.put(audioData, captureTime);
+                    if (((vadEvent & VoiceActivityDetector.EVENT_SPEECH_END) != 0)
+                            || endPredictor.isUtteranceEnded(vad.getPauseMilliseconds())) {
+                        break;
                     }
-
-                    priInputVolume = inputVolume;
                 }
+
+                statistics.onProcessed(captureTime, CaptureStatistics.now());
+            } else {
+                bufferPool.release(audioData);
             }
         }
 
+        // Give back the buffered head if the speech has never started.
+        preRollBuffer.clear();
+
         mRecordStopped = true;
 
         saveRecordToFile(new byte[]{0}, true);
         stopRecognizing();
     }
 
-    private void doSending() throws Exception {
-        int length = 0;
-        mRecognizer.releaseAppendedAudio();
+    /**
+     * Encode stage: encode each captured block as soon as it arrives.
+     * The upload stage sends the encoded audio, so a slow request never delays the encoding.
+     */
+    private void doSending(EncodedAudioBuffer encodedAudio) throws Exception {
+        ByteBuffer encodedData = null;
+        int blockMilliseconds = (getRecordDataSize() / getFrameSize()) * FRAME_LENGTH_MILLISECONDS;
+        // Chosen once, a stream is never encoded by both libraries.
+        boolean javaEncoderUsed = isJavaSpeexEncoderUsed();
+        boolean audioEncoded = false;
 
         while (!mCancel) {
             if (mRecordDataQueue != null) {
-                if (!mRecordDataQueue.isEmpty()) {
-                    byte[] audioData = (byte[]) mRecordDataQueue.take();
+                ByteBuffer audioData = mRecordDataQueue.poll(RECORD_QUEUE_POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+                long captureTime = 0;
+                if (audioData != null) {
+                    captureTime = mRecordDataQueue.getLastTimestamp();
+                    getCaptureStatistics().onDequeued(captureTime, CaptureStatistics.now());
                     mIsFinal = (isRecognizerStopped() && (mRecordDataQueue.isEmpty()));
-                    length += ((audioData.length / getFrameSize()) * FRAME_LENGTH_MILLISECONDS);
-                    if (getAudioCompressLibraryType() == AUDIO_COMPRESS_LIBRARY_TYPE_CPP) {
-                        if (mSpeexEncoder == null) {
-                            mSpeexEncoder = new Codec();
-                            mSpeexEncoder.open(1, 10);
-                        }
-                        byte[] encBuffer = new byte[audioData.length];
-                        int encSize = mSpeexEncoder.encodeByte(audioData, 0, audioData.length, encBuffer);
-                        mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX);
-                        mRecognizer.appendSpeexAudioFramesData(encBuffer, encSize);
-                    } else {
-                        mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_RAW);
-                        mRecognizer.appendAudioFramesData(audioData);
+                } else if (isRecognizerStopped()) {
+                    // Recorder stopped and the last audio sent at the same time, but mIsFinal = false.
+                    mIsFinal = true;
+                    if (!audioEncoded) {
+                        // Nothing was recorded, so the final upload carries a block of silence.
+                        audioData = acquireSilentBlock();
+                        captureTime = CaptureStatistics.now();
                     }
-
-                    if ((length >= getUploadAudioLengthMilliseconds()) || mIsFinal) {
-                        APIResponse response = mRecognizer.flushToUploadAudio(mCookie, mIsFinal);
-                        if (response.ok()) {
-                            mGetting = true;
-                            length = 0;
-                        } else {
-                            mRecognizer.releaseAppendedAudio();
-                            recognizeResponseError(response);
+                }
+                if (audioData != null) {
+                    if (javaEncoderUsed) {
+                        if (mJavaSpeexEncoder == null) {
+                            mJavaSpeexEncoder = openJavaSpeexEncoder();
+                            if (mJavaEncodedData == null) {
+                                mJavaEncodedData = new byte[getRecordDataSize()];
+                            }
                         }
-                    }
-                } else {
-                    // Recorder stopped and the last audio sent at the same time, but mIsFinal = false.
-                    if (isRecognizerStopped()) {
-                        mIsFinal = true;
-                        mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_RAW);
-                        byte[] audioData = new byte[getRecordDataSize()];
-                        Arrays.fill(audioData, (byte) 0);
-                        APIResponse response = mRecognizer.uploadAudio(mCookie, audioData, mIsFinal);
-
-                        if (response.ok()) {
-                            mGetting = true;
-                        } else {
-                            mRecognizer.releaseAppendedAudio();
-                            recognizeResponseError(response);
+                        updateSpeexQuality(mJavaSpeexEncoder);
+                        int encSize = mJavaSpeexEncoder.encodeBuffer(audioData, 0, getRecordDataSize(), mJavaEncodedData);
+                        encodedAudio.write(mJavaEncodedData, 0, encSize, SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX,
+                                blockMilliseconds, captureTime);
+                    } else {
+                        if (mSpeexEncoder == null) {
+                            mSpeexEncoder = openSpeexEncoder();
+                            encodedData = getAudioBufferPool().acquire();
                         }
+                        updateSpeexQuality(mSpeexEncoder);
+                        int encSize = mSpeexEncoder.encodeBuffer(audioData, 0, getRecordDataSize(), encodedData);
+                        encodedAudio.write(encodedData, 0, encSize, SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX,
+                                blockMilliseconds, captureTime);
                     }
+                    getAudioBufferPool().release(audioData);
+                    audioEncoded = true;
                 }
 
                 if (mIsFinal) {
@@ -540,11 +563,97 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
                 }
             }
         }
+        encodedAudio.finish();
 
         if (mSpeexEncoder != null) {
             mSpeexEncoder.close();
             mSpeexEncoder = null;
         }
+        if (mJavaSpeexEncoder != null) {
+            mJavaSpeexEncoder.close();
+            mJavaSpeexEncoder = null;
+        }
+        getAudioBufferPool().release(encodedData);
+    }
+
+    /**
+     * Upload stage: send everything the encode stage has produced since the last upload,
+     * once there is enough of it or the stream has ended.
+     * After the first upload, the uploads are pipelined on a keep-alive connection,
+     * so the final upload only waits for the audio still in flight.
+     */
+    private void doUploading(EncodedAudioBuffer encodedAudio) throws Exception {
+        mRecognizer.releaseAppendedAudio();
+        PipelinedAudioUploader uploader = getAudioUploader(mRecognizer);
+        boolean cookieReceived = false;
+        boolean finalSent = false;
+
+        while (!mCancel) {
+            // Responses first, so that the quality adapts as soon as possible.
+            PipelinedAudioUploader.Acknowledgement acknowledgement = finalSent
+                    ? uploader.takeAcknowledgement(RECORD_QUEUE_POLL_MILLISECONDS)
+                    : uploader.pollAcknowledgement();
+            if (acknowledgement != null) {
+                onUploadResponse(acknowledgement.getResponse(), acknowledgement.getCaptureTimestamp(),
+                        acknowledgement.getMilliseconds());
+                if (acknowledgement.isFinal()) {
+                    break;
+                }
+                continue;
+            }
+            if (finalSent) {
+                continue;
+            }
+
+            EncodedAudioBuffer.Batch batch = encodedAudio.take(getUploadAudioLengthMilliseconds(),
+                    RECORD_QUEUE_POLL_MILLISECONDS);
+            if (batch == null) {
+                continue;
+            }
+
+            byte[] data = batch.getData();
+            int size = batch.getSize();
+            int audioType = batch.getAudioType();
+
+            if (cookieReceived) {
+                uploader.upload(data, size, audioType, batch.getMilliseconds(), batch.getCaptureTimestamp(),
+                        batch.isFinal());
+                finalSent = batch.isFinal();
+                continue;
+            }
+
+            // The first upload gets the session cookie for the next uploads and for the results.
+            APIResponse response;
+            if (audioType == SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX) {
+                mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX);
+                response = mRecognizer.uploadSpeexAudio(mCookie, data, size, batch.isFinal());
+            } else {
+                mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_RAW);
+                mRecognizer.appendAudioFramesData(Arrays.copyOf(data, size));
+                response = mRecognizer.flushToUploadAudio(mCookie, batch.isFinal());
+            }
+            onUploadResponse(response, batch.getCaptureTimestamp(), batch.getMilliseconds());
+            if (batch.isFinal()) {
+                break;
+            }
+            uploader.begin(mCookie);
+            cookieReceived = true;
+        }
+
+        if (uploader.getInFlight() > 0) {
+            // Cancelled, the responses must not reach the next recognition.
+            uploader.abort();
+        }
+    }
+
+    private void onUploadResponse(APIResponse response, long captureTime, int milliseconds) {
+        if (response.ok()) {
+            mGetting = true;
+            onAudioAcknowledged(captureTime, milliseconds);
+        } else {
+            mRecognizer.releaseAppendedAudio();
+            recognizeResponseError(response);
+        }
     }
 
     private void doGetting() throws Exception {
@@ -565,6 +674,7 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
                 }
                 if (response.ok() && response.hasData()) {
                     SpeechResult sttResult = response.getData().getSpeechResult();
+                    getEndOfUtterancePredictor().onPartialResult(sttResult);
                     if (mSendCallback) {
                         mCallback.onRecognizeResultChange(response);
                     }
@@ -600,6 +710,18 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
         }
     }
 
+    private void saveRecordToFile(ByteBuffer buff, boolean isFinal) throws IOException {
+        if (!mSaveRecordToFile) return;
+
+        if ((mRecordFileData == null) || (mRecordFileData.length != getRecordDataSize())) {
+            mRecordFileData = new byte[getRecordDataSize()];
+        }
+        for (int i = 0; i < mRecordFileData.length; i++) {
+            mRecordFileData[i] = buff.get(i);
+        }
+        saveRecordToFile(mRecordFileData, isFinal);
+    }
+
     private boolean isRecognizerStopped() {
         if (mRecording) {
             return false;
@@ -629,10 +751,6 @@ public class KeepRecordingSpeechRecognizer extends SpeechRecognizerBase {
         changeRecognizeState(RecognizeState.STOPPED);
     }
 
-    private int getMicInputVolume(byte[] data) {
-        return (int) (mVoiceVolume.getNormalizeVolume(mVoiceVolume.getVoiceVolume(data)) * 2.5);
-    }
-
     private void checkRecognizeTimeout() {
         new Thread(new Runnable() {
             @Override
@@ -0,0 +1,124 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package ai.olami.android;
+
+import android.media.AudioRecord;
+
+import java.nio.ByteBuffer;
+
+import ai.olami.cloudService.SpeechRecognizer;
+
+public class MicrophoneAudioSource implements IAudioSource {
+
+    private AudioRecordManager mAudioRecordManager = null;
+    private AudioRecord mAudioRecord = null;
+    private AudioResampler mResampler = null;
+    private short[] mCaptureData = null;
+    private int mResamplingQuality = AudioResampler.QUALITY_MEDIUM;
+
+    private boolean mOpened = false;
+
+    /**
+     * Create an audio source of the microphone.
+     */
+    public MicrophoneAudioSource() {
+    }
+
+    /**
+     * Create an audio source of the microphone.
+     *
+     * @param resamplingQuality - Quality level of the resampler, see AudioResampler.
+     */
+    public MicrophoneAudioSource(int resamplingQuality) {
+        setResamplingQuality(resamplingQuality);
+    }
+
+    /**
+     * Set quality level of the resampler, which is used if the microphone
+     * does not capture in the upload sample rate. It takes effect when the source is opened.
+     *
+     * @param quality - AudioResampler.QUALITY_LOW, AudioResampler.QUALITY_MEDIUM
+     *                  or AudioResampler.QUALITY_HIGH.
+     */
+    public void setResamplingQuality(int quality) {
+        mResamplingQuality = quality;
+    }
+
+    /**
+     * Get AudioRecord used by this source.
+     *
+     * @return AudioRecord object instance, or null if the source is not opened.
+     */
+    public AudioRecord getAudioRecord() {
+        return mAudioRecord;
+    }
+
+    @Override
+    public void open() throws Exception {
+        mAudioRecordManager = AudioRecordManager.create();
+        mAudioRecordManager.startRecording();
+        mAudioRecord = mAudioRecordManager.getAudioRecord();
+
+        int sampleRate = AudioRecordManager.getSampleRateConfig();
+        if (sampleRate != SpeechRecognizer.AUDIO_SAMPLE_RATE) {
+            mResampler = new AudioResampler(
+                    sampleRate,
+                    SpeechRecognizer.AUDIO_SAMPLE_RATE,
+                    mResamplingQuality);
+        } else {
+            mResampler = null;
+        }
+        mOpened = true;
+    }
+
+    @Override
+    public int read(ByteBuffer audioData, int size) throws Exception {
+        // Errors of AudioRecord are negative, report them as nothing read since the microphone never ends.
+        if (mResampler == null) {
+            int read = mAudioRecord.read(audioData, size);
+            return (read < 0) ? 0 : read;
+        }
+
+        int captureSamples = (int) ((long) (size / 2) * mResampler.getInputSampleRate()
+                / mResampler.getOutputSampleRate());
+        if ((mCaptureData == null) || (mCaptureData.length != captureSamples)) {
+            mCaptureData = new short[captureSamples];
+        }
+        int read = mAudioRecord.read(mCaptureData, 0, mCaptureData.length);
+        if (read != mCaptureData.length) {
+            // Report a short read in the size it would have been after resampling.
+            return (read <= 0) ? 0 : (int) ((long) read * size / mCaptureData.length) & ~1;
+        }
+        return mResampler.process(mCaptureData, 0, mCaptureData.length, audioData, 0);
+    }
+
+    @Override
+    public void close() {
+        mOpened = false;
+        if (mAudioRecordManager != null) {
+            mAudioRecordManager.stopAndRelease();
+        }
+        mAudioRecord = null;
+        mResampler = null;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mOpened;
+    }
+}
@@ -0,0 +1,816 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import ai.olami.cloudService.APIConfiguration;
+import ai.olami.cloudService.APIResponse;
+import ai.olami.cloudService.APIResponseBuilder;
+import ai.olami.cloudService.CookieSet;
+import ai.olami.cloudService.SpeechRecognizer;
+
+/**
+ * Upload the audio of a stream over a single keep-alive HTTP/1.1 connection,
+ * with up to a number of requests sent before their responses arrive.
+ * The requests of a connection are handled by the server one after another,
+ * so the chunks reach the server in order and the responses come back in the same order.
+ *
+ * The session cookies are taken from the first upload of the stream,
+ * which must be done by SpeechRecognizer so that it also gets the cookie for the results.
+ * The CookieSet keeps the Set-Cookie values like SpeechRecognizer stores them, the cookies
+ * set by later responses are merged into it by name.
+ * Only the upload stage of a recognizer calls the methods, the responses are read by a thread
+ * of each connection.
+ *
+ * The connection goes through the proxy of the system, a tunnel for HTTPS, and fails the stream
+ * when a response takes longer than the timeout of the recognizer.
+ * A request is never sent twice, the server may have handled it already. Only a connection
+ * found closed before a request is written is replaced, any later failure ends the stream.
+ */
+public class PipelinedAudioUploader {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 3;
+    public static final int MAX_IN_FLIGHT_LIMIT = 16;
+
+    // An idle connection is checked before it is used again, the server may have closed it.
+    private static final int STALE_CHECK_IDLE_MILLISECONDS = 1000;
+
+    // Parameters of the upload request, the same as SpeechRecognizer uses.
+    private static final String SEQ_TYPE_SEG = "seg";
+    private static final int WAVE_HEADER_SIZE = 44;
+
+    private final SpeechRecognizer mRecognizer;
+    private final Object mLock = new Object();
+    // Held while a request is written, without mLock, so the reader of the connection is never blocked.
+    private final Object mWriteLock = new Object();
+
+    // Requests written to the current connection and not answered yet, oldest first.
+    private final ArrayDeque<Request> mSent = new ArrayDeque<Request>();
+    private final ArrayDeque<Acknowledgement> mAcknowledged = new ArrayDeque<Acknowledgement>();
+
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private Connection mConnection = null;
+    private Proxy mProxy = Proxy.NO_PROXY;
+    private CookieSet mCookieSet = null;
+    // Name and value of each cookie of the stream, by name, sent with every request.
+    private final Map<String, String> mCookies = new LinkedHashMap<String, String>();
+    private IOException mFailure = null;
+
+    /**
+     * Acknowledged upload of a chunk, in the order of the uploads.
+     */
+    public static class Acknowledgement {
+
+        private final APIResponse mResponse;
+        private final int mMilliseconds;
+        private final long mCaptureTimestamp;
+        private final boolean mIsFinal;
+
+        private Acknowledgement(APIResponse response, Request request) {
+            mResponse = response;
+            mMilliseconds = request.mMilliseconds;
+            mCaptureTimestamp = request.mCaptureTimestamp;
+            mIsFinal = request.mIsFinal;
+        }
+
+        public APIResponse getResponse() {
+            return mResponse;
+        }
+
+        /**
+         * Get length of the audio of the chunk.
+         *
+         * @return Length in milliseconds.
+         */
+        public int getMilliseconds() {
+            return mMilliseconds;
+        }
+
+        /**
+         * Get capture timestamp of the last block of the chunk.
+         *
+         * @return Timestamp of CaptureStatistics.now().
+         */
+        public long getCaptureTimestamp() {
+            return mCaptureTimestamp;
+        }
+
+        public boolean isFinal() {
+            return mIsFinal;
+        }
+    }
+
+    private static class Request {
+
+        private final byte[] mBytes;
+        private final int mMilliseconds;
+        private final long mCaptureTimestamp;
+        private final boolean mIsFinal;
+
+        private Request(byte[] bytes, int milliseconds, long captureTimestamp, boolean isFinal) {
+            mBytes = bytes;
+            mMilliseconds = milliseconds;
+            mCaptureTimestamp = captureTimestamp;
+            mIsFinal = isFinal;
+        }
+    }
+
+    /**
+     * Create an uploader which sends the requests of the specified recognizer.
+     * The connection is kept between streams, as long as the server keeps it open.
+     *
+     * @param recognizer - Configured speech recognizer.
+     */
+    public PipelinedAudioUploader(SpeechRecognizer recognizer) {
+        mRecognizer = recognizer;
+    }
+
+    /**
+     * Set the number of requests which can wait for their responses at the same time.
+     * It takes effect from the next stream.
+     *
+     * @param maxInFlight - 1 to wait for each response before the next request,
+     *                      up to MAX_IN_FLIGHT_LIMIT. Default is DEFAULT_MAX_IN_FLIGHT.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if ((maxInFlight < 1) || (maxInFlight > MAX_IN_FLIGHT_LIMIT)) {
+            throw new IllegalArgumentException("The number of requests in flight must be 1 to "
+                    + MAX_IN_FLIGHT_LIMIT);
+        }
+        synchronized (mLock) {
+            mMaxInFlight = maxInFlight;
+        }
+    }
+
+    /**
+     * Start a new stream after its first upload is acknowledged.
+     *
+     * @param cookieSet - Cookies of the stream, updated by the first upload.
+     */
+    public void begin(CookieSet cookieSet) {
+        synchronized (mLock) {
+            mCookieSet = cookieSet;
+            mCookies.clear();
+            if (cookieSet.getContents() != null) {
+                for (String setCookie : cookieSet.getContents()) {
+                    mCookies.put(getCookieName(setCookie), getCookiePair(setCookie));
+                }
+            }
+            mProxy = selectProxy();
+            mAcknowledged.clear();
+            mFailure = null;
+        }
+    }
+
+    /**
+     * Send a chunk of the stream. It returns once the request is written,
+     * or waits while the maximum number of requests are waiting for their responses.
+     *
+     * @param data - Encoded audio.
+     * @param size - Size in bytes of the encoded audio.
+     * @param audioType - SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX or SpeechRecognizer.AUDIO_TYPE_PCM_RAW.
+     * @param milliseconds - Length of the audio.
+     * @param captureTimestamp - Capture timestamp of the last block of the chunk.
+     * @param isFinal - TRUE if this is the last chunk of the stream.
+     * @throws IOException if the connection failed.
+     */
+    public void upload(
+            byte[] data,
+            int size,
+            int audioType,
+            int milliseconds,
+            long captureTimestamp,
+            boolean isFinal
+    ) throws IOException, NoSuchAlgorithmException, InterruptedException {
+        Request request;
+        Connection connection;
+        Proxy proxy;
+        boolean idle;
+        synchronized (mLock) {
+            while ((mSent.size() >= mMaxInFlight) && (mFailure == null)) {
+                mLock.wait();
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            request = new Request(createRequest(data, size, audioType, isFinal),
+                    milliseconds, captureTimestamp, isFinal);
+            connection = mConnection;
+            proxy = mProxy;
+            idle = mSent.isEmpty();
+        }
+
+        synchronized (mWriteLock) {
+            if ((connection == null) || !connection.mProxy.equals(proxy)
+                    || (idle && connection.isStale())) {
+                // Nothing of the request has been written yet, so it is safe on a new connection.
+                connection = openConnection(connection, proxy);
+            }
+            synchronized (mLock) {
+                if (mFailure != null) {
+                    throw mFailure;
+                }
+                mSent.addLast(request);
+                mLock.notifyAll();
+            }
+            try {
+                connection.write(request.mBytes);
+            } catch (IOException e) {
+                // Part of the request may have reached the server, so it is not sent again.
+                synchronized (mLock) {
+                    throw fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the next acknowledged upload without waiting.
+     *
+     * @return Acknowledgement, or null if no more response has arrived.
+     * @throws IOException if the connection failed, after all acknowledgements before the failure.
+     */
+    public Acknowledgement pollAcknowledgement() throws IOException {
+        synchronized (mLock) {
+            Acknowledgement acknowledgement = mAcknowledged.pollFirst();
+            if ((acknowledgement == null) && (mFailure != null)) {
+                throw mFailure;
+            }
+            return acknowledgement;
+        }
+    }
+
+    /**
+     * Wait for the next acknowledged upload.
+     *
+     * @param timeoutMilliseconds - Maximum time to wait.
+     * @return Acknowledgement, or null if no response has arrived in time.
+     * @throws IOException if the connection failed, after all acknowledgements before the failure.
+     */
+    public Acknowledgement takeAcknowledgement(long timeoutMilliseconds)
+            throws IOException, InterruptedException {
+        synchronized (mLock) {
+            if (mAcknowledged.isEmpty() && (mFailure == null)) {
+                mLock.wait(timeoutMilliseconds);
+            }
+            return pollAcknowledgement();
+        }
+    }
+
+    /**
+     * Get number of requests waiting for their responses.
+     *
+     * @return Number of requests.
+     */
+    public int getInFlight() {
+        synchronized (mLock) {
+            return mSent.size();
+        }
+    }
+
+    /**
+     * Close the connection and drop the requests in flight,
+     * e.g. when the stream is cancelled so that its responses never reach the next stream.
+     * The stream fails until the next begin(), so an upload waiting for a free slot throws
+     * instead of sending the chunk on a new connection.
+     */
+    public void abort() {
+        synchronized (mLock) {
+            fail(new IOException("Upload aborted"));
+            mAcknowledged.clear();
+        }
+    }
+
+    private byte[] createRequest(byte[] data, int size, int audioType, boolean isFinal)
+            throws IOException, NoSuchAlgorithmException {
+        Map<String, String> query = new HashMap<String, String>();
+        query.put("compress", (audioType == SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX) ? "1" : "0");
+        query.put("seq", SEQ_TYPE_SEG);
+        query.put("stop", isFinal ? "1" : "0");
+        URL url = new URL(mRecognizer.getConfiguration().getBaseRequestURL(
+                APIConfiguration.API_NAME_ASR, query));
+
+        // Raw PCM is sent as a WAVE file, like SpeechRecognizer does.
+        int bodySize = (audioType == SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX) ? size : size + WAVE_HEADER_SIZE;
+        StringBuilder head = new StringBuilder();
+        // A proxy which is not a tunnel takes the whole URL.
+        String target = isForwardedByProxy(url) ? url.toString() : url.getFile();
+        head.append("POST ").append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1) {
+            head.append(':').append(url.getPort());
+        }
+        head.append("\r\n");
+        head.append("Connection: Keep-Alive\r\n");
+        head.append("Content-Type: application/octet-stream\r\n");
+        head.append("contentType: utf-8\r\n");
+        if (!mCookies.isEmpty()) {
+            head.append("Cookie: ");
+            String separator = "";
+            for (String cookie : mCookies.values()) {
+                head.append(separator).append(cookie);
+                separator = "; ";
+            }
+            head.append("\r\n");
+        }
+        head.append("Content-Length: ").append(bodySize).append("\r\n\r\n");
+
+        // The audio is copied once, straight into the request.
+        byte[] headBytes = head.toString().getBytes("ISO-8859-1");
+        byte[] request = new byte[headBytes.length + bodySize];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        int offset = headBytes.length;
+        if (audioType != SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX) {
+            putWaveHeader(request, offset, size);
+            offset += WAVE_HEADER_SIZE;
+        }
+        System.arraycopy(data, 0, request, offset, size);
+        return request;
+    }
+
+    private boolean isForwardedByProxy(URL url) {
+        return (mProxy.type() == Proxy.Type.HTTP) && !url.getProtocol().equals("https");
+    }
+
+    /**
+     * Get the proxy of the system for the ASR API, e.g. the proxy of the APN.
+     */
+    private Proxy selectProxy() {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return Proxy.NO_PROXY;
+        }
+        try {
+            List<Proxy> proxies = selector.select(new URL(mRecognizer.getConfiguration().getBaseRequestURL(
+                    APIConfiguration.API_NAME_ASR)).toURI());
+            return ((proxies != null) && !proxies.isEmpty()) ? proxies.get(0) : Proxy.NO_PROXY;
+        } catch (IOException e) {
+            // The URL fails the same way in the first request.
+            return Proxy.NO_PROXY;
+        } catch (NoSuchAlgorithmException e) {
+            return Proxy.NO_PROXY;
+        } catch (URISyntaxException e) {
+            return Proxy.NO_PROXY;
+        }
+    }
+
+    private static void putWaveHeader(byte[] to, int offset, int dataSize) {
+        int sampleRate = SpeechRecognizer.AUDIO_SAMPLE_RATE;
+        int channels = SpeechRecognizer.AUDIO_CHANNELS;
+        int bitsPerSample = SpeechRecognizer.AUDIO_BITS_PER_SAMPLE;
+        int blockAlign = channels * bitsPerSample / 8;
+        putAscii(to, offset, "RIFF");
+        putInt(to, offset + 4, dataSize + WAVE_HEADER_SIZE - 8);
+        putAscii(to, offset + 8, "WAVEfmt ");
+        putInt(to, offset + 16, 16);
+        putShort(to, offset + 20, 1);
+        putShort(to, offset + 22, channels);
+        putInt(to, offset + 24, sampleRate);
+        putInt(to, offset + 28, sampleRate * blockAlign);
+        putShort(to, offset + 32, blockAlign);
+        putShort(to, offset + 34, bitsPerSample);
+        putAscii(to, offset + 36, "data");
+        putInt(to, offset + 40, dataSize);
+    }
+
+    private static void putAscii(byte[] to, int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            to[offset + i] = (byte) text.charAt(i);
+        }
+    }
+
+    private static void putShort(byte[] to, int offset, int value) {
+        to[offset] = (byte) (value & 0xff);
+        to[offset + 1] = (byte) ((value >> 8) & 0xff);
+    }
+
+    private static void putInt(byte[] to, int offset, int value) {
+        putShort(to, offset, value);
+        putShort(to, offset + 2, value >> 16);
+    }
+
+    /**
+     * Replace the connection by a new one. Write lock held.
+     */
+    private Connection openConnection(Connection stale, Proxy proxy) throws IOException {
+        if (stale != null) {
+            stale.close();
+        }
+        Connection connection;
+        try {
+            connection = new Connection(new URL(mRecognizer.getConfiguration().getBaseRequestURL(
+                    APIConfiguration.API_NAME_ASR)), proxy);
+        } catch (NoSuchAlgorithmException e) {
+            synchronized (mLock) {
+                throw fail(new IOException(e.getMessage()));
+            }
+        } catch (IOException e) {
+            synchronized (mLock) {
+                throw fail(e);
+            }
+        }
+        synchronized (mLock) {
+            if (mFailure != null) {
+                // Aborted while connecting.
+                connection.close();
+                throw mFailure;
+            }
+            mConnection = connection;
+        }
+        connection.startReading();
+        return connection;
+    }
+
+    /**
+     * Stop the stream with the specified error. Lock held.
+     */
+    private IOException fail(IOException e) {
+        if (mFailure == null) {
+            mFailure = e;
+        }
+        if (mConnection != null) {
+            mConnection.close();
+            mConnection = null;
+        }
+        mSent.clear();
+        mLock.notifyAll();
+        return mFailure;
+    }
+
+    /**
+     * Called by the thread of the connection for each response.
+     */
+    private void onResponse(Connection connection, Response response) {
+        synchronized (mLock) {
+            if (connection != mConnection) {
+                // Aborted, the request is not in mSent anymore.
+                return;
+            }
+            Request request = mSent.pollFirst();
+            if (response.mStatusCode != 200) {
+                fail(new IOException(response.mStatusMessage));
+                return;
+            }
+            if (!response.mCookies.isEmpty()) {
+                mergeCookies(response.mCookies);
+            }
+            mAcknowledged.addLast(new Acknowledgement(APIResponseBuilder.create(response.mBody), request));
+
+            if (response.mClose) {
+                if (!mSent.isEmpty()) {
+                    // The requests after this one may or may not have been handled.
+                    fail(new IOException("Connection closed by the server with requests in flight"));
+                    return;
+                }
+                connection.close();
+                mConnection = null;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Update the cookies of the stream and its CookieSet with the Set-Cookie values of a response,
+     * a cookie replaces the one of the same name. Lock held.
+     */
+    private void mergeCookies(List<String> setCookies) {
+        List<String> contents = (mCookieSet.getContents() != null)
+                ? new ArrayList<String>(mCookieSet.getContents()) : new ArrayList<String>();
+        for (String setCookie : setCookies) {
+            String name = getCookieName(setCookie);
+            mCookies.put(name, getCookiePair(setCookie));
+            boolean replaced = false;
+            for (int i = 0; (i < contents.size()) && !replaced; i++) {
+                if (getCookieName(contents.get(i)).equals(name)) {
+                    contents.set(i, setCookie);
+                    replaced = true;
+                }
+            }
+            if (!replaced) {
+                contents.add(setCookie);
+            }
+        }
+        // A new list, the results request of SpeechRecognizer may be reading the old one.
+        mCookieSet.setContents(contents);
+    }
+
+    /**
+     * Get "name=value" of a Set-Cookie value, without its attributes.
+     */
+    private static String getCookiePair(String setCookie) {
+        int end = setCookie.indexOf(';');
+        return ((end >= 0) ? setCookie.substring(0, end) : setCookie).trim();
+    }
+
+    private static String getCookieName(String setCookie) {
+        String pair = getCookiePair(setCookie);
+        int end = pair.indexOf('=');
+        return ((end >= 0) ? pair.substring(0, end) : pair).trim();
+    }
+
+    /**
+     * Called by the thread of the connection when it cannot read a response.
+     */
+    private void onConnectionError(Connection connection, IOException e) {
+        synchronized (mLock) {
+            if (connection != mConnection) {
+                return;
+            }
+            // The requests in flight may have been handled, so they are not sent again.
+            fail(e);
+        }
+    }
+
+    private static class Response {
+
+        private int mStatusCode = 0;
+        private String mStatusMessage = "";
+        private final List<String> mCookies = new ArrayList<String>();
+        private boolean mClose = false;
+        private String mBody = "";
+    }
+
+    private class Connection {
+
+        private final Proxy mProxy;
+        private final Socket mSocket;
+        private final InputStream mInput;
+        private final OutputStream mOutput;
+        private final int mTimeout;
+        private volatile long mLastUsed = System.currentTimeMillis();
+        private volatile boolean mClosed = false;
+
+        private Connection(URL url, Proxy proxy) throws IOException {
+            String host = url.getHost();
+            int port = (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+            int timeout = mRecognizer.getTimeout();
+            Socket socket = (proxy.type() == Proxy.Type.SOCKS) ? new Socket(proxy) : new Socket();
+            try {
+                if (proxy.type() == Proxy.Type.HTTP) {
+                    InetSocketAddress address = (InetSocketAddress) proxy.address();
+                    socket.connect(new InetSocketAddress(address.getHostName(), address.getPort()), timeout);
+                } else if (proxy.type() == Proxy.Type.SOCKS) {
+                    // Resolved by the proxy.
+                    socket.connect(InetSocketAddress.createUnresolved(host, port), timeout);
+                } else {
+                    socket.connect(new InetSocketAddress(host, port), timeout);
+                }
+                // A response which does not come in time fails the stream instead of blocking the reader.
+                socket.setSoTimeout(timeout);
+                socket.setTcpNoDelay(true);
+                if (url.getProtocol().equals("https")) {
+                    if (proxy.type() == Proxy.Type.HTTP) {
+                        openTunnel(socket, host, port);
+                    }
+                    SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                            .createSocket(socket, host, port, true);
+                    ssl.startHandshake();
+                    if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, ssl.getSession())) {
+                        ssl.close();
+                        throw new SSLPeerUnverifiedException("Unverified host: " + host);
+                    }
+                    socket = ssl;
+                }
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            mProxy = proxy;
+            mTimeout = timeout;
+            mSocket = socket;
+            mInput = new BufferedInputStream(socket.getInputStream());
+            mOutput = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * Ask the HTTP proxy for a tunnel to the host, read without buffering
+         * since the TLS handshake follows on the same stream.
+         */
+        private void openTunnel(Socket socket, String host, int port) throws IOException {
+            String authority = host + ":" + port;
+            OutputStream output = socket.getOutputStream();
+            output.write(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n")
+                    .getBytes("ISO-8859-1"));
+            output.flush();
+
+            InputStream input = socket.getInputStream();
+            String statusLine = readLine(input);
+            String[] status = statusLine.split(" ", 3);
+            if ((status.length < 2) || !status[1].equals("200")) {
+                throw new IOException("Proxy tunnel failed: " + statusLine);
+            }
+            while (!readLine(input).isEmpty()) {
+            }
+        }
+
+        private void write(byte[] request) throws IOException {
+            mOutput.write(request);
+            mOutput.flush();
+        }
+
+        /**
+         * Check if the server has closed the connection while it was idle.
+         * Only called with no request in flight, so the reader is not reading.
+         */
+        private boolean isStale() {
+            if (System.currentTimeMillis() - mLastUsed < STALE_CHECK_IDLE_MILLISECONDS) {
+                return false;
+            }
+            try {
+                mSocket.setSoTimeout(1);
+                // The end of the stream, or bytes which answer no request.
+                mInput.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            } finally {
+                try {
+                    mSocket.setSoTimeout(mTimeout);
+                } catch (SocketException e) {
+                    // Found by the next read.
+                }
+            }
+        }
+
+        private void startReading() {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!mClosed) {
+                            synchronized (mLock) {
+                                while (mSent.isEmpty() && !mClosed) {
+                                    mLock.wait();
+                                }
+                            }
+                            if (mClosed) {
+                                break;
+                            }
+                            Response response = readResponse();
+                            mLastUsed = System.currentTimeMillis();
+                            onResponse(Connection.this, response);
+                        }
+                    } catch (IOException e) {
+                        if (!mClosed) {
+                            onConnectionError(Connection.this, e);
+                        }
+                    } catch (InterruptedException e) {
+                        close();
+                    }
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void close() {
+            mClosed = true;
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+
+        private Response readResponse() throws IOException {
+            Response response = new Response();
+            String statusLine = readLine();
+            // HTTP/1.1 200 OK
+            String[] status = statusLine.split(" ", 3);
+            if (status.length < 2) {
+                throw new IOException("Bad response: " + statusLine);
+            }
+            response.mStatusCode = Integer.parseInt(status[1]);
+            response.mStatusMessage = (status.length > 2) ? status[2] : "";
+            response.mClose = !status[0].equals("HTTP/1.1");
+
+            int contentLength = -1;
+            boolean chunked = false;
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    contentLength = Integer.parseInt(value);
+                } else if (name.equals("transfer-encoding")) {
+                    chunked = value.toLowerCase().contains("chunked");
+                } else if (name.equals("connection")) {
+                    response.mClose = value.equalsIgnoreCase("close");
+                } else if (name.equals("set-cookie")) {
+                    response.mCookies.add(value);
+                }
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (chunked) {
+                for (int size = readChunkSize(); size > 0; size = readChunkSize()) {
+                    readFully(body, size);
+                    readLine();
+                }
+                // Trailers
+                while (!readLine().isEmpty()) {
+                }
+            } else if (contentLength >= 0) {
+                readFully(body, contentLength);
+            } else {
+                // Until the server closes the connection.
+                response.mClose = true;
+                byte[] buffer = new byte[1024];
+                for (int n = mInput.read(buffer); n >= 0; n = mInput.read(buffer)) {
+                    body.write(buffer, 0, n);
+                }
+            }
+            response.mBody = body.toString("UTF-8");
+            return response;
+        }
+
+        private int readChunkSize() throws IOException {
+            String line = readLine();
+            int extension = line.indexOf(';');
+            if (extension >= 0) {
+                line = line.substring(0, extension);
+            }
+            return Integer.parseInt(line.trim(), 16);
+        }
+
+        private void readFully(ByteArrayOutputStream to, int size) throws IOException {
+            byte[] buffer = new byte[Math.min(size, 4096)];
+            while (size > 0) {
+                int n = mInput.read(buffer, 0, Math.min(size, buffer.length));
+                if (n < 0) {
+                    throw new EOFException("Incomplete response");
+                }
+                to.write(buffer, 0, n);
+                size -= n;
+            }
+        }
+
+        private String readLine() throws IOException {
+            return readLine(mInput);
+        }
+
+        private String readLine(InputStream input) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int c = input.read(); c != '\n'; c = input.read()) {
+                if (c < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
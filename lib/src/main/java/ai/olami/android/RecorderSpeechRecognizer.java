@@ -18,7 +18,6 @@
 
 package ai.olami.android;
 
-import android.media.AudioRecord;
 import android.os.Environment;
 
 import java.io.BufferedOutputStream;
@@ -27,12 +26,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import ai.olami.android.jni.Codec;
+import ai.olami.android.jni.Preprocessor;
 import ai.olami.cloudService.APIConfiguration;
 import ai.olami.cloudService.APIResponse;
 import ai.olami.cloudService.CookieSet;
@@ -50,7 +49,7 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
     private IRecorderSpeechRecognizerListener mListener = null;
     private CookieSet mCookie = null;
     private SpeechRecognizer mRecognizer = null;
-    private AudioRecord mRecord = null;
+    private IAudioSource mAudioSource = null;
     private NLIConfig mNLIConfig = null;
 
     private boolean mSendCallback = true;
@@ -61,10 +60,11 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
     private boolean mSaveRecordToFile = false;
     private boolean mAutoStopRecordingFlag = true;
 
-    private BlockingQueue mRecordDataQueue = null;
+    private AudioFrameQueue<ByteBuffer> mRecordDataQueue = null;
 
     private Thread mRecorderThread = null;
     private Thread mSenderThread = null;
+    private Thread mUploaderThread = null;
     private Thread mGetterThread = null;
 
     private File mRecordFile = null;
@@ -73,10 +73,11 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
     private DataOutputStream mDataOutputStream = null;
     private String mRecordFilePath = Environment.getExternalStorageDirectory().getPath();
     private String mRecordFileName = "OLAMI-mic-record.pcm";
-
-    private VoiceVolume mVoiceVolume = new VoiceVolume();
+    private byte[] mRecordFileData = null;
 
     private Codec mSpeexEncoder = null;
+    private JavaSpeexEncoder mJavaSpeexEncoder = null;
+    private byte[] mJavaEncodedData = null;
 
     private RecordState mRecordState = null;
     private RecognizeState mRecognizeState = null;
@@ -287,16 +288,8 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
         mCookie = new CookieSet();
         mNLIConfig = nliConfig;
 
-        mRecordDataQueue = new LinkedBlockingQueue();
-
-        if (mRecord == null) {
-            try {
-                mRecord = mAudioRecordManager.getAudioRecord();
-            } catch (Exception e) {
-                changeRecordState(RecordState.ERROR);
-                mListener.onException(e);
-            }
-        }
+        mRecordDataQueue = createRecordDataQueue();
+        mAudioSource = getAudioSource();
 
         changeRecordState(RecordState.INITIALIZED);
 
@@ -314,12 +307,13 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
         });
         mRecorderThread.start();
 
-        // Init Sender Thread
+        // Init Sender Thread, the encode stage, and the Uploader Thread, the upload stage.
+        final EncodedAudioBuffer encodedAudio = createEncodedAudioBuffer();
         mSenderThread = new Thread(new Runnable() {
             @Override
             public void run() {
                 try {
-                    doSending();
+                    doSending(encodedAudio);
                 } catch (Exception e) {
                     changeRecognizeState(RecognizeState.ERROR);
                     mListener.onException(e);
@@ -328,6 +322,22 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
         });
         mSenderThread.start();
 
+        mUploaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    doUploading(encodedAudio);
+                } catch (Exception e) {
+                    // A cancelled stream fails its uploads on purpose.
+                    if (!mCancel) {
+                        changeRecognizeState(RecognizeState.ERROR);
+                        mListener.onException(e);
+                    }
+                }
+            }
+        });
+        mUploaderThread.start();
+
         // Init Getter Thread
         mGetterThread = new Thread(new Runnable() {
             @Override
@@ -357,6 +367,8 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
     public void cancel() {
         stop();
         mCancel = true;
+        // Wake the upload stage if it waits for a response or a free slot.
+        closeAudioUploader();
     }
 
     /**
@@ -368,6 +380,7 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
         mSendCallback = false;
         // Force to cancel all processes.
         cancel();
+        closeAudioUploader();
         // Force to change state for re-init.
         initState();
     }
@@ -377,9 +390,8 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
         changeRecognizeState(RecognizeState.STOPPED);
     }
 
-    private void stopAndReleaseAudioRecord() {
-        mAudioRecordManager.stopAndRelease();
-        mRecord = null;
+    private void stopAndReleaseAudioSource() {
+        mAudioSource.close();
     }
 
     /**
@@ -394,149 +406,235 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
     }
 
     private void doRecording() throws Exception {
-        mAudioRecordManager.startRecording();
-        mRecord = mAudioRecordManager.getAudioRecord();
+        mAudioSource.open();
 
         changeRecordState(RecordState.RECORDING);
 
-        short[] audioData441 = new short[441 * RECORD_FRAMES];
-        byte[] audioData = null;
-        LinkedList<byte[]> tempInputs = new LinkedList<byte[]>();
-        int reservedBlocks = (RESERVED_INPUT_LENGTH_MILLISECONDS / (RECORD_FRAMES * FRAME_LENGTH_MILLISECONDS));
-        int instantNoiseBlocks = (INSTANT_NOISE_LENGTH_MILLISECONDS / (RECORD_FRAMES * FRAME_LENGTH_MILLISECONDS));
-        int vadTailBlocks = (getVADEndMilliseconds() / (RECORD_FRAMES * FRAME_LENGTH_MILLISECONDS));
+        AudioBufferPool bufferPool = getAudioBufferPool();
+        AudioFrameQueue<ByteBuffer> recordDataQueue = mRecordDataQueue;
+        ByteBuffer audioData = null;
+        AudioPreRollBuffer preRollBuffer = getPreRollBuffer();
+        CaptureStatistics statistics = getCaptureStatistics();
+        long captureTime = 0;
+        VoiceActivityDetector vad = getVoiceActivityDetector();
+        Preprocessor preprocessor = getPreprocessor();
+        EndOfUtterancePredictor endPredictor = getEndOfUtterancePredictor();
+        int vadEvent = VoiceActivityDetector.EVENT_NONE;
         int inputVolume = 0;
-        int priInputVolume = 0;
-        int silence = 0;
-        int instantNoise = 0;
+        int readSize = 0;
 
+        statistics.reset(getRecordDataMilliseconds());
+        endPredictor.reset(getVADEndMilliseconds());
         while (mRecordState == RecordState.RECORDING) {
-            synchronized (mRecordDataQueue) {
-                if (mRecord.read(audioData441, 0, audioData441.length) == audioData441.length) {
-                    audioData = new byte[getRecordDataSize()];
-                    AudioRecordManager.convert441To16(audioData441, audioData);
-                    saveRecordToFile(audioData, false);
-
-                    inputVolume = getMicInputVolume(audioData);
-                    mListener.onRecordVolumeChange(inputVolume);
-
-                    if (!mCapturedVoiceBegin) {
-                        if (inputVolume == 0) {
-                            // Speech may not have started. Buffering silence audio as the head.
-                            tempInputs.add(audioData);
-                            if (tempInputs.size() > reservedBlocks) {
-                                tempInputs.removeFirst();
-                            }
-                        } else {
-                            mCapturedVoiceBegin = true;
-                            changeRecognizeState(RecognizeState.PROCESSING);
-                            // Insert buffered silence audio into the beginning of the real speech input.
-                            while (!tempInputs.isEmpty()) {
-                                mRecordDataQueue.put(tempInputs.poll());
-                            }
-                            // Then append the real speech data
-                            mRecordDataQueue.put(audioData);
-                        }
+            audioData = bufferPool.acquire();
+            readSize = mAudioSource.read(audioData, getRecordDataSize());
+            captureTime = CaptureStatistics.now();
+            if (readSize < 0) {
+                // No more audio from the source.
+                bufferPool.release(audioData);
+                stop();
+                break;
+            }
+            statistics.onRead(readSize, getRecordDataSize(), captureTime);
+            if (readSize == getRecordDataSize()) {
+                if (preprocessor != null) {
+                    preprocessor.process(audioData, 0, getRecordDataSize());
+                }
+                saveRecordToFile(audioData, false);
+
+                vadEvent = vad.process(audioData, getRecordDataSize());
+                inputVolume = vad.getVolume();
+                mListener.onRecordVolumeChange(inputVolume);
+
+                if (!mCapturedVoiceBegin) {
+                    if ((vadEvent & VoiceActivityDetector.EVENT_SPEECH_BEGIN) == 0) {
+                        // Speech may not have started. Buffering silence audio as the head.
+                        preRollBuffer.add(audioData, captureTime);
                     } else {
-                        mRecordDataQueue.put(audioData);
-                        if (inputVolume > getSilenceLevel()) {
-                            if (silence == 0) {
-                                instantNoise = 0;
-                            }
-                            if (silence > 0) {
-                                if (instantNoise == 0) {
-                                    instantNoise++;
-                                } else {
-                                    if ((instantNoise < instantNoiseBlocks)
-                                            && (priInputVolume > inputVolume)) {
-                                        instantNoise++;
-                                    } else {
-                                        silence = 0;
-                                    }
-                                }
-                            }
-                        } else {
-                            silence++;
-                        }
-                        if (silence > vadTailBlocks) {
-                            if (mAutoStopRecordingFlag) {
-                                stop();
-                                break;
-                            }
+                        mCapturedVoiceBegin = true;
+                        changeRecognizeState(RecognizeState.PROCESSING);
+                        // Insert buffered silence audio into the beginning of the real speech input.
+                        preRollBuffer.drainTo(recordDataQueue);
+                        // Then append the real speech data
+                        recordDataQueue.put(audioData, captureTime);
+                    }
+                } else {
+                    recordDataQueue.put(audioData, captureTime);
+                    if (((vadEvent & VoiceActivityDetector.EVENT_SPEECH_END) != 0)
+                            || endPredictor.isUtteranceEnded(vad.getPauseMilliseconds())) {
+                        if (mAutoStopRecordingFlag) {
+                            stop();
+                            break;
                         }
                     }
-
-                    priInputVolume = inputVolume;
                 }
+
+                statistics.onProcessed(captureTime, CaptureStatistics.now());
+            } else {
+                bufferPool.release(audioData);
             }
         }
 
-        stopAndReleaseAudioRecord();
+        // Give back the buffered head if the speech has never started.
+        preRollBuffer.clear();
+
+        stopAndReleaseAudioSource();
         saveRecordToFile(new byte[]{0}, true);
     }
 
-    private void doSending() throws Exception {
-        int length = 0;
-        mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_RAW);
-        mRecognizer.releaseAppendedAudio();
+    /**
+     * Encode stage: encode each captured block as soon as it arrives.
+     * The upload stage sends the encoded audio, so a slow request never delays the encoding.
+     */
+    private void doSending(EncodedAudioBuffer encodedAudio) throws Exception {
+        ByteBuffer encodedData = null;
+        int blockMilliseconds = (getRecordDataSize() / getFrameSize()) * FRAME_LENGTH_MILLISECONDS;
+        // Chosen once, a stream is never encoded by both libraries.
+        boolean javaEncoderUsed = isJavaSpeexEncoderUsed();
+        boolean audioEncoded = false;
 
         while (!mCancel) {
-            if (!mRecordDataQueue.isEmpty()) {
-                byte[] audioData = (byte[]) mRecordDataQueue.take();
+            ByteBuffer audioData = mRecordDataQueue.poll(RECORD_QUEUE_POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+            long captureTime = 0;
+            if (audioData != null) {
+                captureTime = mRecordDataQueue.getLastTimestamp();
+                getCaptureStatistics().onDequeued(captureTime, CaptureStatistics.now());
                 mIsFinal = (isRecodingStopped() && (mRecordDataQueue.isEmpty()));
-                length += ((audioData.length / getFrameSize()) * FRAME_LENGTH_MILLISECONDS);
-                if (getAudioCompressLibraryType() == AUDIO_COMPRESS_LIBRARY_TYPE_CPP) {
-                    if (mSpeexEncoder == null) {
-                        mSpeexEncoder = new Codec();
-                        mSpeexEncoder.open(1, 10);
-                    }
-                    byte[] encBuffer = new byte[audioData.length];
-                    int encSize = mSpeexEncoder.encodeByte(audioData, 0, audioData.length, encBuffer);
-                    mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX);
-                    mRecognizer.appendSpeexAudioFramesData(encBuffer, encSize);
-                } else {
-                    mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_RAW);
-                    mRecognizer.appendAudioFramesData(audioData);
+            } else if (isRecodingStopped()) {
+                // Recorder stopped and the last audio sent at the same time, but mIsFinal = false.
+                mIsFinal = true;
+                if (!audioEncoded) {
+                    // Nothing was recorded, so the final upload carries a block of silence.
+                    audioData = acquireSilentBlock();
+                    captureTime = CaptureStatistics.now();
                 }
-                if ((length >= getUploadAudioLengthMilliseconds()) || mIsFinal) {
-                    APIResponse response = mRecognizer.flushToUploadAudio(mCookie, mIsFinal);
-                    if (response.ok()) {
-                        mGetting = true;
-                        length = 0;
-                    } else {
-                        mRecognizer.releaseAppendedAudio();
-                        recognizeResponseError(response);
+            }
+            if (audioData != null) {
+                if (javaEncoderUsed) {
+                    if (mJavaSpeexEncoder == null) {
+                        mJavaSpeexEncoder = openJavaSpeexEncoder();
+                        if (mJavaEncodedData == null) {
+                            mJavaEncodedData = new byte[getRecordDataSize()];
+                        }
                     }
-                }
-            } else {
-                // Recorder stopped and the last audio sent at the same time, but mIsFinal = false.
-                if (isRecodingStopped()) {
-                    mIsFinal = true;
-                    byte[] audioData = new byte[getRecordDataSize()];
-                    Arrays.fill(audioData, (byte) 0);
-                    APIResponse response = mRecognizer.uploadSpeexAudio(mCookie, audioData, audioData.length,mIsFinal);
-                    if (response.ok()) {
-                        mGetting = true;
-                    } else {
-                        mRecognizer.releaseAppendedAudio();
-                        recognizeResponseError(response);
+                    updateSpeexQuality(mJavaSpeexEncoder);
+                    int encSize = mJavaSpeexEncoder.encodeBuffer(audioData, 0, getRecordDataSize(), mJavaEncodedData);
+                    encodedAudio.write(mJavaEncodedData, 0, encSize, SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX,
+                            blockMilliseconds, captureTime);
+                } else {
+                    if (mSpeexEncoder == null) {
+                        mSpeexEncoder = openSpeexEncoder();
+                        encodedData = getAudioBufferPool().acquire();
                     }
+                    updateSpeexQuality(mSpeexEncoder);
+                    int encSize = mSpeexEncoder.encodeBuffer(audioData, 0, getRecordDataSize(), encodedData);
+                    encodedAudio.write(encodedData, 0, encSize, SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX,
+                            blockMilliseconds, captureTime);
                 }
+                getAudioBufferPool().release(audioData);
+                audioEncoded = true;
             }
 
             if (mIsFinal) {
                 break;
             }
         }
+        encodedAudio.finish();
 
         if (mSpeexEncoder != null) {
             mSpeexEncoder.close();
             mSpeexEncoder = null;
         }
+        if (mJavaSpeexEncoder != null) {
+            mJavaSpeexEncoder.close();
+            mJavaSpeexEncoder = null;
+        }
+        getAudioBufferPool().release(encodedData);
+
+        while (!mRecordDataQueue.isEmpty()) {
+            getAudioBufferPool().release(mRecordDataQueue.poll());
+        }
+        mRecordDataQueue = null;
+    }
+
+    /**
+     * Upload stage: send everything the encode stage has produced since the last upload,
+     * once there is enough of it or the stream has ended.
+     * After the first upload, the uploads are pipelined on a keep-alive connection,
+     * so the final upload only waits for the audio still in flight.
+     */
+    private void doUploading(EncodedAudioBuffer encodedAudio) throws Exception {
+        mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_RAW);
+        mRecognizer.releaseAppendedAudio();
+        PipelinedAudioUploader uploader = getAudioUploader(mRecognizer);
+        boolean cookieReceived = false;
+        boolean finalSent = false;
+
+        while (!mCancel) {
+            // Responses first, so that the quality adapts as soon as possible.
+            PipelinedAudioUploader.Acknowledgement acknowledgement = finalSent
+                    ? uploader.takeAcknowledgement(RECORD_QUEUE_POLL_MILLISECONDS)
+                    : uploader.pollAcknowledgement();
+            if (acknowledgement != null) {
+                onUploadResponse(acknowledgement.getResponse(), acknowledgement.getCaptureTimestamp(),
+                        acknowledgement.getMilliseconds());
+                if (acknowledgement.isFinal()) {
+                    break;
+                }
+                continue;
+            }
+            if (finalSent) {
+                continue;
+            }
+
+            EncodedAudioBuffer.Batch batch = encodedAudio.take(getUploadAudioLengthMilliseconds(),
+                    RECORD_QUEUE_POLL_MILLISECONDS);
+            if (batch == null) {
+                continue;
+            }
+
+            byte[] data = batch.getData();
+            int size = batch.getSize();
+            int audioType = batch.getAudioType();
+
+            if (cookieReceived) {
+                uploader.upload(data, size, audioType, batch.getMilliseconds(), batch.getCaptureTimestamp(),
+                        batch.isFinal());
+                finalSent = batch.isFinal();
+                continue;
+            }
+
+            // The first upload gets the session cookie for the next uploads and for the results.
+            APIResponse response;
+            if (audioType == SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX) {
+                mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_SPEEX);
+                response = mRecognizer.uploadSpeexAudio(mCookie, data, size, batch.isFinal());
+            } else {
+                mRecognizer.setAudioType(SpeechRecognizer.AUDIO_TYPE_PCM_RAW);
+                mRecognizer.appendAudioFramesData(Arrays.copyOf(data, size));
+                response = mRecognizer.flushToUploadAudio(mCookie, batch.isFinal());
+            }
+            onUploadResponse(response, batch.getCaptureTimestamp(), batch.getMilliseconds());
+            if (batch.isFinal()) {
+                break;
+            }
+            uploader.begin(mCookie);
+            cookieReceived = true;
+        }
 
-        synchronized (mRecordDataQueue) {
-            mRecordDataQueue.clear();
-            mRecordDataQueue = null;
+        if (uploader.getInFlight() > 0) {
+            // Cancelled, the responses must not reach the next recognition.
+            uploader.abort();
+        }
+    }
+
+    private void onUploadResponse(APIResponse response, long captureTime, int milliseconds) {
+        if (response.ok()) {
+            mGetting = true;
+            onAudioAcknowledged(captureTime, milliseconds);
+        } else {
+            mRecognizer.releaseAppendedAudio();
+            recognizeResponseError(response);
         }
     }
 
@@ -558,6 +656,7 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
                 }
                 if (response.ok() && response.hasData()) {
                     SpeechResult sttResult = response.getData().getSpeechResult();
+                    getEndOfUtterancePredictor().onPartialResult(sttResult);
                     if (mSendCallback) {
                         mListener.onRecognizeResultChange(response);
                     }
@@ -607,14 +706,9 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
 
     private boolean isRecodingStopped() {
         if (mRecordState == RecordState.STOPPING) {
-            // AudioRecord has been released, it means recorder thread is stopped.
-            if (mRecord == null) {
+            // Audio source has been closed, it means recorder thread is stopped.
+            if ((mAudioSource == null) || !mAudioSource.isOpened()) {
                 return true;
-            } else {
-                // Check AudioRecord state if recorder thread is still running.
-                if (mRecord.getState() != AudioRecord.RECORDSTATE_RECORDING) {
-                    return true;
-                }
             }
         } else if (mRecordState == RecordState.STOPPED) {
             return true;
@@ -642,7 +736,15 @@ public class RecorderSpeechRecognizer extends SpeechRecognizerBase{
         }
     }
 
-    private int getMicInputVolume(byte[] data) {
-        return (int) (mVoiceVolume.getNormalizeVolume(mVoiceVolume.getVoiceVolume(data)) * 2.5);
+    private void saveRecordToFile(ByteBuffer buff, boolean isFinal) throws IOException {
+        if (!mSaveRecordToFile) return;
+
+        if ((mRecordFileData == null) || (mRecordFileData.length != getRecordDataSize())) {
+            mRecordFileData = new byte[getRecordDataSize()];
+        }
+        for (int i = 0; i < mRecordFileData.length; i++) {
+            mRecordFileData[i] = buff.get(i);
+        }
+        saveRecordToFile(mRecordFileData, isFinal);
     }
 }
@@ -18,6 +18,10 @@
 
 package ai.olami.android;
 
+import java.nio.ByteBuffer;
+
+import ai.olami.android.jni.Codec;
+import ai.olami.android.jni.Preprocessor;
 import ai.olami.cloudService.SpeechRecognizer;
 
 public class SpeechRecognizerBase {
@@ -29,6 +33,13 @@ public class SpeechRecognizerBase {
     public static final int AUDIO_COMPRESS_LIBRARY_TYPE_JAVA = 1;
     public static final int AUDIO_COMPRESS_LIBRARY_TYPE_CPP = 2;
 
+    // Wideband quality 10 at constant bit-rate, about 42 kbps.
+    public static final int SPEEX_PROFILE_HIGH_QUALITY = 0;
+    // Quality 8 at variable bit-rate, pauses take fewer bytes.
+    public static final int SPEEX_PROFILE_BALANCED = 1;
+    // Quality 6 at variable bit-rate with discontinuous transmission.
+    public static final int SPEEX_PROFILE_LOW_BANDWIDTH = 2;
+
     protected static final String SDK_TYPE = "android";
 
     protected static final int RECORD_FRAMES = 6;
@@ -36,6 +47,8 @@ public class SpeechRecognizerBase {
     protected final int RESERVED_INPUT_LENGTH_MILLISECONDS = 1000;
     protected final int INSTANT_NOISE_LENGTH_MILLISECONDS = 1000;
     protected final int VAD_TAIL_SILENCE_LEVEL = 5;
+    protected static final int RECORD_QUEUE_SIZE = 256;
+    protected static final int RECORD_QUEUE_POLL_MILLISECONDS = 10;
 
     private int mRecognizeResultType = RECOGNIZE_RESULT_TYPE_STT;
     private int mAudioCompressLibraryType = AUDIO_COMPRESS_LIBRARY_TYPE_CPP;
@@ -48,6 +61,33 @@ public class SpeechRecognizerBase {
     private int mFrequencyToGettingResult = 100;
     private int mVADEndMilliseconds = 2000;
     private int mSilenceLevel = VAD_TAIL_SILENCE_LEVEL;
+    private int mPreRollMilliseconds = RESERVED_INPUT_LENGTH_MILLISECONDS;
+    private int mVADFrameMilliseconds = VoiceActivityDetector.FRAME_LENGTH_10_MILLISECONDS;
+    private int mVADMode = VoiceActivityDetector.MODE_FIXED_LEVEL;
+    private int mResamplingQuality = AudioResampler.QUALITY_MEDIUM;
+    private boolean mDenoiseEnabled = false;
+    private boolean mAGCEnabled = false;
+    private int mSpeexQuality = 10;
+    private int mSpeexComplexity = 0;
+    private boolean mSpeexVBR = false;
+    private boolean mSpeexDTX = false;
+
+    private AudioBufferPool mAudioBufferPool = AudioBufferPool.getSharedPool(mRecordDataSize);
+    private IAudioSource mAudioSource = null;
+    private AudioPreRollBuffer mPreRollBuffer = null;
+    private VoiceActivityDetector mVoiceActivityDetector = null;
+    private Preprocessor mPreprocessor = null;
+    private final EndOfUtterancePredictor mEndOfUtterancePredictor = new EndOfUtterancePredictor();
+    private CaptureStatistics mCaptureStatistics = new CaptureStatistics();
+    private final SpeexQualityController mSpeexQualityController = new SpeexQualityController();
+    // Quality set on the encoder of the current stream, encode stage only.
+    private int mEncoderQuality = 10;
+    private PipelinedAudioUploader mAudioUploader = null;
+    private SpeechRecognizer mAudioUploaderRecognizer = null;
+    private int mMaxUploadsInFlight = PipelinedAudioUploader.DEFAULT_MAX_IN_FLIGHT;
+    // Audio of the current stream acknowledged by the server, upload stage only.
+    private volatile int mAcknowledgedMilliseconds = 0;
+    private AudioFrameQueue.WaitStrategy mRecordQueueWaitStrategy = AudioFrameQueue.WaitStrategy.BLOCK;
 
     public int getAudioCompressLibraryType() {
         return mAudioCompressLibraryType;
@@ -65,6 +105,10 @@ public class SpeechRecognizerBase {
         mSilenceLevel = level;
     }
 
+    protected int getResamplingQuality() {
+        return mResamplingQuality;
+    }
+
     protected int getFrameSize() {
         return mFrameSize;
     }
@@ -79,6 +123,237 @@ public class SpeechRecognizerBase {
 
     protected void setRecordDataSize(int size) {
         mRecordDataSize = size;
+        mAudioBufferPool = AudioBufferPool.getSharedPool(size);
+    }
+
+    /**
+     * Get the length of audio of each recorded block.
+     *
+     * @return Length in milliseconds.
+     */
+    protected int getRecordDataMilliseconds() {
+        return (mRecordDataSize / mFrameSize) * FRAME_LENGTH_MILLISECONDS;
+    }
+
+    protected AudioBufferPool getAudioBufferPool() {
+        return mAudioBufferPool;
+    }
+
+    /**
+     * Take a block of silence from the pool, for a stream that ends before any audio was recorded.
+     *
+     * @return Pooled buffer filled with zeros, to be released by the caller.
+     */
+    protected ByteBuffer acquireSilentBlock() {
+        ByteBuffer block = mAudioBufferPool.acquire();
+        for (int i = 0; i < mRecordDataSize; i++) {
+            block.put(i, (byte) 0);
+        }
+        return block;
+    }
+
+    protected int getPreRollMilliseconds() {
+        return mPreRollMilliseconds;
+    }
+
+    /**
+     * Get the empty pre-roll store sized by the current length of pre-roll and of the blocks.
+     *
+     * @return Pre-roll store.
+     */
+    protected AudioPreRollBuffer getPreRollBuffer() {
+        int blocks = mPreRollMilliseconds / getRecordDataMilliseconds();
+        if ((mPreRollBuffer == null) || (mPreRollBuffer.getBufferPool() != mAudioBufferPool)) {
+            // The blocks of another size go back to the pool they were taken from.
+            if (mPreRollBuffer != null) {
+                mPreRollBuffer.clear();
+            }
+            mPreRollBuffer = new AudioPreRollBuffer(blocks, mAudioBufferPool);
+        } else {
+            mPreRollBuffer.setCapacity(blocks);
+        }
+        return mPreRollBuffer;
+    }
+
+    /**
+     * Get the VAD configured by the current settings, ready for a new speech.
+     *
+     * @return Voice activity detector.
+     */
+    protected VoiceActivityDetector getVoiceActivityDetector() {
+        if ((mVoiceActivityDetector == null)
+                || (mVoiceActivityDetector.getFrameMilliseconds() != mVADFrameMilliseconds)) {
+            if (mVoiceActivityDetector != null) {
+                mVoiceActivityDetector.release();
+            }
+            mVoiceActivityDetector = new VoiceActivityDetector(
+                    AudioRecordManager.SAMPLE_RATE_16000, mVADFrameMilliseconds);
+        }
+        mVoiceActivityDetector.setMode(mVADMode);
+        mVoiceActivityDetector.setSilenceLevel(mSilenceLevel);
+        mVoiceActivityDetector.setEndMilliseconds(mVADEndMilliseconds);
+        mVoiceActivityDetector.setInstantNoiseMilliseconds(INSTANT_NOISE_LENGTH_MILLISECONDS);
+        mVoiceActivityDetector.reset();
+        return mVoiceActivityDetector;
+    }
+
+    /**
+     * Get the preprocessor configured by the current settings, ready for a new speech.
+     *
+     * @return Preprocessor, or null if neither noise suppression nor AGC is enabled.
+     */
+    protected Preprocessor getPreprocessor() {
+        if (!mDenoiseEnabled && !mAGCEnabled) {
+            return null;
+        }
+        if (mPreprocessor == null) {
+            mPreprocessor = new Preprocessor(AudioRecordManager.SAMPLE_RATE_16000, mFrameSize / 2);
+        }
+        mPreprocessor.setDenoise(mDenoiseEnabled);
+        mPreprocessor.setAGC(mAGCEnabled);
+        mPreprocessor.reset();
+        return mPreprocessor;
+    }
+
+    /**
+     * Create the Speex encoder of the current profile for a new upload stream.
+     *
+     * @return Open wideband encoder.
+     */
+    protected Codec openSpeexEncoder() {
+        Codec encoder = new Codec();
+        encoder.open(1, mSpeexQuality);
+        if (mSpeexComplexity > 0) {
+            encoder.setComplexity(mSpeexComplexity);
+        }
+        encoder.setVBR(mSpeexVBR);
+        encoder.setDTX(mSpeexDTX);
+        mSpeexQualityController.reset(mSpeexQuality);
+        mEncoderQuality = mSpeexQuality;
+        return encoder;
+    }
+
+    /**
+     * Create the Speex encoder in Java of the current profile for a new upload stream.
+     *
+     * @return Wideband encoder taken from the pool of JavaSpeexEncoder.
+     */
+    protected JavaSpeexEncoder openJavaSpeexEncoder() {
+        JavaSpeexEncoder encoder = JavaSpeexEncoder.open(1, mSpeexQuality);
+        if (mSpeexComplexity > 0) {
+            encoder.setComplexity(mSpeexComplexity);
+        }
+        encoder.setVBR(mSpeexVBR);
+        encoder.setDTX(mSpeexDTX);
+        mSpeexQualityController.reset(mSpeexQuality);
+        mEncoderQuality = mSpeexQuality;
+        return encoder;
+    }
+
+    /**
+     * Check if the audio is encoded by the Speex encoder in Java.
+     * That is the case of AUDIO_COMPRESS_LIBRARY_TYPE_JAVA, or when the Speex library of C++
+     * could not be loaded, so the audio is still compressed.
+     *
+     * @return TRUE to use openJavaSpeexEncoder(), FALSE to use openSpeexEncoder().
+     */
+    protected boolean isJavaSpeexEncoderUsed() {
+        return (mAudioCompressLibraryType == AUDIO_COMPRESS_LIBRARY_TYPE_JAVA)
+                || (Codec.getVariant() == null);
+    }
+
+    /**
+     * Count the audio of an acknowledged upload and adapt the quality to the upload lag.
+     * Upload stage only.
+     *
+     * @param captureNanoseconds - Capture timestamp of the last block of the upload.
+     * @param milliseconds - Length of the audio of the upload.
+     */
+    protected void onAudioAcknowledged(long captureNanoseconds, int milliseconds) {
+        mAcknowledgedMilliseconds += milliseconds;
+        mSpeexQualityController.onAcknowledged(captureNanoseconds, CaptureStatistics.now());
+    }
+
+    /**
+     * Get the uploader of the recognizer, its connection is kept between recognitions.
+     *
+     * @param recognizer - Speech recognizer which configures the requests.
+     * @return Uploader with the current number of uploads in flight.
+     */
+    protected PipelinedAudioUploader getAudioUploader(SpeechRecognizer recognizer) {
+        if ((mAudioUploader == null) || (mAudioUploaderRecognizer != recognizer)) {
+            closeAudioUploader();
+            mAudioUploader = new PipelinedAudioUploader(recognizer);
+            mAudioUploaderRecognizer = recognizer;
+        }
+        mAudioUploader.setMaxInFlight(mMaxUploadsInFlight);
+        return mAudioUploader;
+    }
+
+    /**
+     * Close the connection of the uploader, e.g. when the recognizer is released.
+     */
+    protected void closeAudioUploader() {
+        if (mAudioUploader != null) {
+            mAudioUploader.abort();
+        }
+    }
+
+    /**
+     * Apply the quality chosen after the last acknowledgement before encoding the next block.
+     * Encode stage only, the encoder is not touched by the upload stage.
+     *
+     * @param encoder - Encoder created by openSpeexEncoder().
+     */
+    protected void updateSpeexQuality(Codec encoder) {
+        int quality = mSpeexQualityController.getQuality();
+        if (quality != mEncoderQuality) {
+            encoder.setQuality(quality);
+            mEncoderQuality = quality;
+        }
+    }
+
+    /**
+     * Apply the quality chosen after the last acknowledgement before encoding the next block.
+     * Encode stage only, the encoder is not touched by the upload stage.
+     *
+     * @param encoder - Encoder created by openJavaSpeexEncoder().
+     */
+    protected void updateSpeexQuality(JavaSpeexEncoder encoder) {
+        int quality = mSpeexQualityController.getQuality();
+        if (quality != mEncoderQuality) {
+            encoder.setQuality(quality);
+            mEncoderQuality = quality;
+        }
+    }
+
+    /**
+     * Create the buffer between the encode stage and the upload stage of a new stream,
+     * and clear the acknowledged audio of the last stream.
+     *
+     * @return Empty buffer.
+     */
+    protected EncodedAudioBuffer createEncodedAudioBuffer() {
+        mAcknowledgedMilliseconds = 0;
+        // Room for a whole upload of raw PCM, so the arrays rarely grow.
+        int blockMilliseconds = (getRecordDataSize() / getFrameSize()) * FRAME_LENGTH_MILLISECONDS;
+        int blocks = (getUploadAudioLengthMilliseconds() / blockMilliseconds) + 1;
+        return new EncodedAudioBuffer(blocks * getRecordDataSize());
+    }
+
+    protected EndOfUtterancePredictor getEndOfUtterancePredictor() {
+        return mEndOfUtterancePredictor;
+    }
+
+    protected AudioFrameQueue<ByteBuffer> createRecordDataQueue() {
+        return new AudioFrameQueue<ByteBuffer>(RECORD_QUEUE_SIZE, mRecordQueueWaitStrategy);
+    }
+
+    protected IAudioSource getAudioSource() {
+        if (mAudioSource == null) {
+            mAudioSource = new MicrophoneAudioSource(mResamplingQuality);
+        }
+        return mAudioSource;
     }
 
     protected int getMinUploadAudioLengthMilliseconds() {
@@ -159,6 +434,209 @@ public class SpeechRecognizerBase {
         setVADEndMilliseconds(milliseconds);
     }
 
+    /**
+     * Set length of the audio in milliseconds kept before the speech is detected,
+     * which will be uploaded as the head of the speech.
+     * A longer length avoids clipping the first syllable but uploads more audio.
+     * It takes effect from the next recognition.
+     *
+     * @param milliseconds - Length of the pre-roll audio. Default is 1000.
+     */
+    public void setLengthOfPreRoll(int milliseconds) {
+        if (milliseconds < 0) {
+            throw new IllegalArgumentException("The length cannot be less than 0");
+        }
+        mPreRollMilliseconds = milliseconds;
+    }
+
+    /**
+     * Set length of each frame analyzed by the VAD in milliseconds.
+     * A shorter frame detects the speech begin and end more precisely.
+     * It takes effect from the next recognition.
+     *
+     * @param milliseconds - 10 or 20. Default is 10.
+     */
+    public void setVADFrameLength(int milliseconds) {
+        if ((milliseconds != VoiceActivityDetector.FRAME_LENGTH_10_MILLISECONDS)
+                && (milliseconds != VoiceActivityDetector.FRAME_LENGTH_20_MILLISECONDS)) {
+            throw new IllegalArgumentException("The frame length must be 10 or 20");
+        }
+        mVADFrameMilliseconds = milliseconds;
+    }
+
+    /**
+     * Set how the VAD decides a frame as voice.
+     * VoiceActivityDetector.MODE_ADAPTIVE follows the background noise, so the recording
+     * stops in a noisy place and does not cut off a quiet speaker. The silence level is
+     * not used in this mode. VoiceActivityDetector.MODE_SPECTRAL also ignores fans and
+     * other non-voice sounds by their spectrum. It takes effect from the next recognition.
+     *
+     * @param mode - VoiceActivityDetector.MODE_FIXED_LEVEL (default), MODE_ADAPTIVE or MODE_SPECTRAL.
+     */
+    public void setVADMode(int mode) {
+        if ((mode != VoiceActivityDetector.MODE_FIXED_LEVEL)
+                && (mode != VoiceActivityDetector.MODE_ADAPTIVE)
+                && (mode != VoiceActivityDetector.MODE_SPECTRAL)) {
+            throw new IllegalArgumentException("Illegal VAD mode: " + mode);
+        }
+        mVADMode = mode;
+    }
+
+    /**
+     * Enable/Disable the native preprocessor, which suppresses stationary noise and
+     * controls the gain of the recorded audio in place, before the VAD and the encoding.
+     * The processed audio is delayed by 10 milliseconds.
+     * It takes effect from the next recognition.
+     *
+     * @param denoise - Set TRUE to suppress noise. Default is FALSE.
+     * @param agc - Set TRUE to enable automatic gain control. Default is FALSE.
+     */
+    public void enablePreprocessing(boolean denoise, boolean agc) {
+        mDenoiseEnabled = denoise;
+        mAGCEnabled = agc;
+    }
+
+    /**
+     * Get the current estimate of the background noise of the VAD, for diagnostics.
+     *
+     * @return Mean energy per sample of the noise, or -1 if not available.
+     */
+    public long getVADNoiseFloor() {
+        VoiceActivityDetector vad = mVoiceActivityDetector;
+        return (vad == null) ? -1 : vad.getNoiseFloor();
+    }
+
+    /**
+     * Enable/Disable to stop voice recording before the end time of the VAD,
+     * when the partial recognition result has not changed for some polls
+     * and the pause is longer than the specified length.
+     *
+     * @param enable - Set TRUE to enable, set FALSE to disable. Default is FALSE.
+     * @param milliseconds - Length of the pause to stop. Default is 600.
+     * @param stablePolls - Number of polls in a row which return the same partial result. Default is 2.
+     */
+    public void enablePredictiveEndOfUtterance(boolean enable, int milliseconds, int stablePolls) {
+        mEndOfUtterancePredictor.setShortTail(milliseconds, stablePolls);
+        mEndOfUtterancePredictor.setEnabled(enable);
+    }
+
+    /**
+     * Get the waiting time saved from the end time of the VAD in the current or the last recognition.
+     *
+     * @return Saved time in milliseconds, 0 if the recording was stopped by the end time of the VAD.
+     */
+    public int getSavedTailMilliseconds() {
+        return mEndOfUtterancePredictor.getSavedTailMilliseconds();
+    }
+
+    /**
+     * Choose how the audio is encoded by the Speex library of C++ or Java.
+     * It takes effect from the next recognition.
+     *
+     * @param profile - SPEEX_PROFILE_HIGH_QUALITY (default), SPEEX_PROFILE_BALANCED
+     *                  or SPEEX_PROFILE_LOW_BANDWIDTH.
+     */
+    public void setSpeexEncoderProfile(int profile) {
+        switch (profile) {
+            case SPEEX_PROFILE_HIGH_QUALITY:
+                setSpeexEncoderOptions(10, 0, false, false);
+                break;
+            case SPEEX_PROFILE_BALANCED:
+                setSpeexEncoderOptions(8, 0, true, false);
+                break;
+            case SPEEX_PROFILE_LOW_BANDWIDTH:
+                setSpeexEncoderOptions(6, 0, true, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal Speex profile: " + profile);
+        }
+    }
+
+    /**
+     * Set the options of the Speex encoder of C++ or Java one by one.
+     * It takes effect from the next recognition.
+     *
+     * @param quality - Quality from 0 to 10, the highest quality of the adaptive quality.
+     * @param complexity - CPU effort from 1 to 10, or 0 for the default of Speex.
+     * @param vbr - Set TRUE for variable bit-rate.
+     * @param dtx - Set TRUE for discontinuous transmission, which takes effect with VBR.
+     */
+    public void setSpeexEncoderOptions(int quality, int complexity, boolean vbr, boolean dtx) {
+        if ((quality < 0) || (quality > 10)) {
+            throw new IllegalArgumentException("The quality must be 0 to 10");
+        }
+        if ((complexity < 0) || (complexity > 10)) {
+            throw new IllegalArgumentException("The complexity must be 0 to 10");
+        }
+        mSpeexQuality = quality;
+        mSpeexComplexity = complexity;
+        mSpeexVBR = vbr;
+        mSpeexDTX = dtx;
+    }
+
+    /**
+     * Enable/Disable to lower the Speex quality when the upload falls behind the capture,
+     * and raise it again when the upload catches up, to keep the latency bounded on a slow network.
+     * The lag is the time between the capture of the last uploaded block and its acknowledgement.
+     *
+     * @param enable - Set TRUE to enable, set FALSE to disable. Default is FALSE.
+     * @param minQuality - Lowest quality to use. Default is 4.
+     * @param maxLagMilliseconds - Lag over which the quality is lowered. Default is 1500.
+     */
+    public void enableAdaptiveSpeexQuality(boolean enable, int minQuality, int maxLagMilliseconds) {
+        if ((minQuality < 0) || (minQuality > 10)) {
+            throw new IllegalArgumentException("The quality must be 0 to 10");
+        }
+        mSpeexQualityController.setMinQuality(minQuality);
+        mSpeexQualityController.setLagThresholds(maxLagMilliseconds * 2 / 5, maxLagMilliseconds);
+        mSpeexQualityController.setEnabled(enable);
+    }
+
+    /**
+     * Get the Speex quality used for the current or the last upload.
+     *
+     * @return Quality from 0 to 10.
+     */
+    public int getSpeexQuality() {
+        return mSpeexQualityController.getQuality();
+    }
+
+    /**
+     * Get the upload lag measured at the last acknowledged upload.
+     *
+     * @return Lag in milliseconds.
+     */
+    public long getUploadLagMilliseconds() {
+        return mSpeexQualityController.getLastLagMilliseconds();
+    }
+
+    /**
+     * Set the number of audio uploads which can wait for their responses at the same time.
+     * The uploads share one keep-alive connection and reach the server in order,
+     * so on a slow network the audio keeps up with the recording
+     * and the final upload only waits for the last part of the audio.
+     * It takes effect from the next recognition.
+     *
+     * @param count - 1 to wait for each response before the next upload, up to 16. Default is 3.
+     */
+    public void setMaxUploadsInFlight(int count) {
+        if ((count < 1) || (count > PipelinedAudioUploader.MAX_IN_FLIGHT_LIMIT)) {
+            throw new IllegalArgumentException("The number of uploads must be 1 to "
+                    + PipelinedAudioUploader.MAX_IN_FLIGHT_LIMIT);
+        }
+        mMaxUploadsInFlight = count;
+    }
+
+    /**
+     * Get length of the audio of the current or the last recognition acknowledged by the server.
+     * The difference to the recorded length is the audio still on the way.
+     *
+     * @return Length in milliseconds.
+     */
+    public int getAcknowledgedAudioMilliseconds() {
+        return mAcknowledgedMilliseconds;
+    }
+
     /**
      * Set level of silence volume of the VAD to stop voice recording automatically.
      *
@@ -171,6 +649,60 @@ public class SpeechRecognizerBase {
         setSilenceLevel(level);
     }
 
+    /**
+     * Get statistics of the audio capturing of the current or the last recognition.
+     * The values are updated by the recorder and the sender threads without any allocation,
+     * they can be polled at any time.
+     *
+     * @return Capture statistics.
+     */
+    public CaptureStatistics getCaptureStatistics() {
+        return mCaptureStatistics;
+    }
+
+    /**
+     * Set the source of the audio to recognize. The microphone is used by default.
+     * Change it only when the recognizer is not recording.
+     *
+     * @param source - Audio source, or null to use the microphone.
+     */
+    public void setAudioSource(IAudioSource source) {
+        mAudioSource = source;
+    }
+
+    /**
+     * Set how the recorder and the sender threads wait for each other
+     * when handing over the recorded audio. It takes effect from the next recognition.
+     *
+     * @param strategy - AudioFrameQueue.WaitStrategy.BLOCK (default) to save CPU,
+     *                   or AudioFrameQueue.WaitStrategy.SPIN_THEN_PARK for lower latency.
+     */
+    public void setRecordQueueWaitStrategy(AudioFrameQueue.WaitStrategy strategy) {
+        mRecordQueueWaitStrategy = strategy;
+    }
+
+    /**
+     * Set quality level of the resampler which converts the recorded audio to the upload sample rate.
+     * Higher quality costs more CPU time on the recorder thread.
+     *
+     * @param quality - AudioResampler.QUALITY_LOW, AudioResampler.QUALITY_MEDIUM
+     *                  or AudioResampler.QUALITY_HIGH.
+     */
+    public void setResamplingQuality(int quality) {
+        switch (quality) {
+            case AudioResampler.QUALITY_LOW:
+            case AudioResampler.QUALITY_MEDIUM:
+            case AudioResampler.QUALITY_HIGH:
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal resampling quality: " + quality);
+        }
+        mResamplingQuality = quality;
+        if (mAudioSource instanceof MicrophoneAudioSource) {
+            ((MicrophoneAudioSource) mAudioSource).setResamplingQuality(quality);
+        }
+    }
+
     /**
      * Set type of the recognition results of the query.
      *
@@ -189,11 +721,11 @@ public class SpeechRecognizerBase {
 
     /**
      * Set type of the audio compression library.
+     * The Java library is also used when the C++ library cannot be loaded.
      *
-     * @param type - Type of the recognition results:
-     *               RECOGNIZE_RESULT_TYPE_STT to get result of Speech-To-Text.
-     *               RECOGNIZE_RESULT_TYPE_ALL to get results of the all types.
-     *               RECOGNIZE_RESULT_TYPE_NLI to get results of Speech-To-Text and NLI.
+     * @param type - Type of the audio compression library:
+     *               AUDIO_COMPRESS_LIBRARY_TYPE_CPP (default) to encode by the Speex library of C++.
+     *               AUDIO_COMPRESS_LIBRARY_TYPE_JAVA to encode by the Speex library of Java.
      */
     public void setAudioCompressLibraryType(int type) {
         switch (type) {
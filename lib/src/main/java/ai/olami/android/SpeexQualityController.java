@@ -0,0 +1,148 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+
+package ai.olami.android;
+
+public class SpeexQualityController {
+
+    public static final int DEFAULT_MIN_QUALITY = 4;
+    public static final int DEFAULT_HIGH_LAG_MILLISECONDS = 1500;
+    public static final int DEFAULT_LOW_LAG_MILLISECONDS = 600;
+    // Acknowledgements in a row under the low lag before the quality is raised by one step.
+    public static final int RECOVERY_ACKNOWLEDGEMENTS = 3;
+    // The quality is lowered faster than it is raised.
+    public static final int DOWN_STEP = 2;
+
+    private volatile boolean mEnabled = false;
+    private volatile int mMinQuality = DEFAULT_MIN_QUALITY;
+    private volatile int mHighLagMilliseconds = DEFAULT_HIGH_LAG_MILLISECONDS;
+    private volatile int mLowLagMilliseconds = DEFAULT_LOW_LAG_MILLISECONDS;
+
+    private volatile int mMaxQuality = 10;
+    private volatile int mQuality = 10;
+    private volatile long mLastLagMilliseconds = 0;
+    private long mLagAtLastDrop = 0;
+    private int mRecoveryCount = 0;
+
+    /**
+     * Enable/Disable the adaptation. The quality stays at the maximum while disabled.
+     *
+     * @param enable - TRUE to enable.
+     */
+    public void setEnabled(boolean enable) {
+        mEnabled = enable;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Set the lowest quality the adaptation may choose.
+     *
+     * @param quality - Quality from 0 to 10.
+     */
+    public void setMinQuality(int quality) {
+        mMinQuality = quality;
+    }
+
+    /**
+     * Set the lag which lowers the quality and the lag which lets it rise again.
+     * The lag is the time between the capture of the last uploaded block and its acknowledgement.
+     *
+     * @param lowMilliseconds - Lag under which the quality may rise.
+     * @param highMilliseconds - Lag over which the quality is lowered.
+     */
+    public void setLagThresholds(int lowMilliseconds, int highMilliseconds) {
+        mLowLagMilliseconds = lowMilliseconds;
+        mHighLagMilliseconds = highMilliseconds;
+    }
+
+    /**
+     * Start a new stream at the specified quality, which is also the highest quality to choose.
+     *
+     * @param maxQuality - Quality of the encoder profile.
+     */
+    public void reset(int maxQuality) {
+        mMaxQuality = maxQuality;
+        mQuality = maxQuality;
+        mLastLagMilliseconds = 0;
+        mLagAtLastDrop = 0;
+        mRecoveryCount = 0;
+    }
+
+    /**
+     * Get the quality chosen for the next blocks.
+     *
+     * @return Quality from 0 to 10.
+     */
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * Get the lag measured at the last acknowledgement.
+     *
+     * @return Lag in milliseconds.
+     */
+    public long getLastLagMilliseconds() {
+        return mLastLagMilliseconds;
+    }
+
+    /**
+     * Update the quality by an acknowledged upload. Upload stage only.
+     *
+     * @param captureNanoseconds - Capture timestamp of the last block of the upload.
+     * @param acknowledgedNanoseconds - Time when the upload was acknowledged.
+     * @return TRUE if the quality has changed.
+     */
+    public boolean onAcknowledged(long captureNanoseconds, long acknowledgedNanoseconds) {
+        long lag = (acknowledgedNanoseconds - captureNanoseconds) / 1000000L;
+        mLastLagMilliseconds = lag;
+        if (!mEnabled) {
+            return false;
+        }
+
+        int quality = mQuality;
+        if (lag > mHighLagMilliseconds) {
+            mRecoveryCount = 0;
+            // The backlog takes a while to drain, lower it again only if the lag still grows.
+            if (lag > mLagAtLastDrop) {
+                quality = Math.max(quality - DOWN_STEP, Math.min(mMinQuality, mMaxQuality));
+                mLagAtLastDrop = lag;
+            }
+        } else {
+            mLagAtLastDrop = 0;
+            if (lag < mLowLagMilliseconds) {
+                if (++mRecoveryCount >= RECOVERY_ACKNOWLEDGEMENTS) {
+                    mRecoveryCount = 0;
+                    quality = Math.min(quality + 1, mMaxQuality);
+                }
+            } else {
+                mRecoveryCount = 0;
+            }
+        }
+
+        if (quality == mQuality) {
+            return false;
+        }
+        mQuality = quality;
+        return true;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package ai.olami.android;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import ai.olami.cloudService.SpeechRecognizer;
+
+public class StreamAudioSource implements IAudioSource {
+
+    private static final int WAVE_HEADER_CHUNK_SIZE = 8;
+
+    private InputStream mInputStream = null;
+    private boolean mWaveFormat = false;
+    private int mSampleRate = SpeechRecognizer.AUDIO_SAMPLE_RATE;
+    private int mResamplingQuality = AudioResampler.QUALITY_MEDIUM;
+
+    private AudioResampler mResampler = null;
+    private byte[] mReadData = null;
+    private short[] mInputSamples = null;
+    private short[] mPendingSamples = null;
+    private int mPendingCount = 0;
+
+    private boolean mOpened = false;
+    private boolean mEndOfStream = false;
+
+    /**
+     * Create an audio source of a WAVE stream.
+     * The stream must contain 16-bit mono PCM audio.
+     *
+     * @param waveStream - WAVE stream.
+     */
+    public StreamAudioSource(InputStream waveStream) {
+        mInputStream = waveStream;
+        mWaveFormat = true;
+    }
+
+    /**
+     * Create an audio source of a raw PCM stream.
+     * The stream must contain 16-bit little-endian mono PCM audio.
+     *
+     * @param pcmStream - PCM stream.
+     * @param sampleRate - Sample rate of the PCM audio.
+     */
+    public StreamAudioSource(InputStream pcmStream, int sampleRate) {
+        mInputStream = pcmStream;
+        mWaveFormat = false;
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * Set quality level of the resampler, which is used if the stream
+     * is not in the upload sample rate. It takes effect when the source is opened.
+     *
+     * @param quality - AudioResampler.QUALITY_LOW, AudioResampler.QUALITY_MEDIUM
+     *                  or AudioResampler.QUALITY_HIGH.
+     */
+    public void setResamplingQuality(int quality) {
+        mResamplingQuality = quality;
+    }
+
+    /**
+     * Get sample rate of the source audio.
+     *
+     * @return Sample rate.
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public void open() throws Exception {
+        if (mWaveFormat) {
+            readWaveHeader();
+        }
+        if (mSampleRate != SpeechRecognizer.AUDIO_SAMPLE_RATE) {
+            mResampler = new AudioResampler(
+                    mSampleRate,
+                    SpeechRecognizer.AUDIO_SAMPLE_RATE,
+                    mResamplingQuality);
+        }
+        mPendingCount = 0;
+        mEndOfStream = false;
+        mOpened = true;
+    }
+
+    @Override
+    public int read(ByteBuffer audioData, int size) throws Exception {
+        int samples = size / 2;
+        prepareBuffers(samples);
+
+        while ((mPendingCount < samples) && !mEndOfStream) {
+            int count = readInputSamples(mInputSamples);
+            if (count <= 0) {
+                mEndOfStream = true;
+                break;
+            }
+            if (mResampler != null) {
+                mPendingCount += mResampler.process(
+                        mInputSamples, 0, count, mPendingSamples, mPendingCount);
+            } else {
+                System.arraycopy(mInputSamples, 0, mPendingSamples, mPendingCount, count);
+                mPendingCount += count;
+            }
+        }
+
+        if (mPendingCount == 0) {
+            return -1;
+        }
+
+        // The last block is padded with silence.
+        for (int i = 0; i < samples; i++) {
+            audioData.putShort(i * 2, (i < mPendingCount) ? mPendingSamples[i] : 0);
+        }
+        if (mPendingCount > samples) {
+            System.arraycopy(mPendingSamples, samples, mPendingSamples, 0, mPendingCount - samples);
+            mPendingCount -= samples;
+        } else {
+            mPendingCount = 0;
+        }
+
+        return size;
+    }
+
+    @Override
+    public void close() {
+        mOpened = false;
+        try {
+            mInputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mOpened;
+    }
+
+    private void prepareBuffers(int samples) {
+        int inputLength = samples;
+        int pendingLength = samples * 2;
+        if (mResampler != null) {
+            inputLength = (int) ((long) samples * mSampleRate / SpeechRecognizer.AUDIO_SAMPLE_RATE) + 1;
+            pendingLength = samples + mResampler.getMaxOutputLength(inputLength);
+        }
+        if ((mInputSamples == null) || (mInputSamples.length != inputLength)) {
+            mInputSamples = new short[inputLength];
+            mReadData = new byte[inputLength * 2];
+        }
+        if ((mPendingSamples == null) || (mPendingSamples.length < pendingLength)) {
+            short[] pendingSamples = new short[pendingLength];
+            if (mPendingSamples != null) {
+                System.arraycopy(mPendingSamples, 0, pendingSamples, 0, mPendingCount);
+            }
+            mPendingSamples = pendingSamples;
+        }
+    }
+
+    private int readInputSamples(short[] samples) throws IOException {
+        int bytes = readFully(mReadData, 0, samples.length * 2);
+        int count = bytes / 2;
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) ((mReadData[2 * i] & 0xff) | (mReadData[2 * i + 1] << 8));
+        }
+        return count;
+    }
+
+    private int readFully(byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = mInputStream.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void readWaveHeader() throws IOException {
+        byte[] chunk = new byte[WAVE_HEADER_CHUNK_SIZE];
+        if ((readFully(chunk, 0, WAVE_HEADER_CHUNK_SIZE) != WAVE_HEADER_CHUNK_SIZE)
+                || !"RIFF".equals(new String(chunk, 0, 4, "US-ASCII"))) {
+            throw new IllegalArgumentException("The stream is not in WAVE format.");
+        }
+        if ((readFully(chunk, 0, 4) != 4) || !"WAVE".equals(new String(chunk, 0, 4, "US-ASCII"))) {
+            throw new IllegalArgumentException("The stream is not in WAVE format.");
+        }
+
+        // Walk through the chunks until the audio data.
+        while (readFully(chunk, 0, WAVE_HEADER_CHUNK_SIZE) == WAVE_HEADER_CHUNK_SIZE) {
+            String id = new String(chunk, 0, 4, "US-ASCII");
+            int size = (chunk[4] & 0xff) | ((chunk[5] & 0xff) << 8)
+                    | ((chunk[6] & 0xff) << 16) | ((chunk[7] & 0xff) << 24);
+            if ("data".equals(id)) {
+                return;
+            }
+            byte[] body = new byte[size + (size & 1)];
+            if (readFully(body, 0, body.length) != body.length) {
+                break;
+            }
+            if ("fmt ".equals(id)) {
+                int format = (body[0] & 0xff) | ((body[1] & 0xff) << 8);
+                int channels = (body[2] & 0xff) | ((body[3] & 0xff) << 8);
+                int bitsPerSample = (body[14] & 0xff) | ((body[15] & 0xff) << 8);
+                if ((format != 1) || (channels != 1) || (bitsPerSample != 16)) {
+                    throw new UnsupportedOperationException(
+                            "Only 16-bit mono PCM WAVE audio is supported.");
+                }
+                mSampleRate = (body[4] & 0xff) | ((body[5] & 0xff) << 8)
+                        | ((body[6] & 0xff) << 16) | ((body[7] & 0xff) << 24);
+            }
+        }
+
+        throw new IllegalArgumentException("No audio data found in the WAVE stream.");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+
+import ai.olami.cloudService.SpeechRecognizer;
+
+public class SyntheticAudioSource implements IAudioSource {
+
+    private final int mLeadingSilenceSamples;
+    private final int mToneSamples;
+    private final int mTotalSamples;
+    private final double mPhaseStep;
+    private final int mAmplitude;
+
+    private int mPosition = 0;
+    private boolean mOpened = false;
+
+    /**
+     * Create an audio source which generates silence, then a tone, then silence again.
+     * The audio is generated as fast as it is read.
+     *
+     * @param leadingSilenceMilliseconds - Length of the silence before the tone.
+     * @param toneMilliseconds - Length of the tone.
+     * @param trailingSilenceMilliseconds - Length of the silence after the tone.
+     * @param toneFrequency - Frequency of the tone in Hz.
+     * @param amplitude - Peak amplitude of the tone, from 0 to 32767.
+     */
+    public SyntheticAudioSource(
+            int leadingSilenceMilliseconds,
+            int toneMilliseconds,
+            int trailingSilenceMilliseconds,
+            int toneFrequency,
+            int amplitude
+    ) {
+        if ((amplitude < 0) || (amplitude > Short.MAX_VALUE)) {
+            throw new IllegalArgumentException("Illegal Argument [amplitude]: " + amplitude);
+        }
+        int samplesPerMillisecond = SpeechRecognizer.AUDIO_SAMPLE_RATE / 1000;
+        mLeadingSilenceSamples = leadingSilenceMilliseconds * samplesPerMillisecond;
+        mToneSamples = toneMilliseconds * samplesPerMillisecond;
+        mTotalSamples = mLeadingSilenceSamples + mToneSamples
+                + trailingSilenceMilliseconds * samplesPerMillisecond;
+        mPhaseStep = 2.0 * Math.PI * toneFrequency / SpeechRecognizer.AUDIO_SAMPLE_RATE;
+        mAmplitude = amplitude;
+    }
+
+    @Override
+    public void open() throws Exception {
+        mPosition = 0;
+        mOpened = true;
+    }
+
+    @Override
+    public int read(ByteBuffer audioData, int size) throws Exception {
+        if (mPosition >= mTotalSamples) {
+            return -1;
+        }
+
+        for (int i = 0; i < size / 2; i++, mPosition++) {
+            int toneIndex = mPosition - mLeadingSilenceSamples;
+            short sample = 0;
+            if ((toneIndex >= 0) && (toneIndex < mToneSamples)) {
+                sample = (short) (mAmplitude * Math.sin(mPhaseStep * toneIndex));
+            }
+            audioData.putShort(i * 2, sample);
+        }
+
+        return size;
+    }
+
+    @Override
+    public void close() {
+        mOpened = false;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mOpened;
+    }
+}
@@ -0,0 +1,490 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android;
+
+import java.nio.ByteBuffer;
+
+import ai.olami.android.jni.SpectralAnalyzer;
+
+public class VoiceActivityDetector {
+
+    public static final int EVENT_NONE = 0;
+    public static final int EVENT_SPEECH_BEGIN = 1;
+    public static final int EVENT_SPEECH_END = 2;
+
+    public static final int MODE_FIXED_LEVEL = 0;
+    public static final int MODE_ADAPTIVE = 1;
+    public static final int MODE_SPECTRAL = 2;
+
+    public static final int FRAME_LENGTH_10_MILLISECONDS = 10;
+    public static final int FRAME_LENGTH_20_MILLISECONDS = 20;
+
+    // Consecutive length of active frames to confirm the speech begin.
+    public static final int SPEECH_BEGIN_MILLISECONDS = 20;
+    // Frames crossing zero more often than this (per 1000 samples) sound like hiss, not voice.
+    public static final int MAX_SPEECH_ZERO_CROSSINGS = 450;
+    // Frames with lower RMS than this are clicks even if the peak is high.
+    public static final int MIN_SPEECH_RMS = 100;
+
+    // Default SNR thresholds of the adaptive mode, the end one is lower for hysteresis.
+    public static final int ADAPTIVE_BEGIN_SNR_DB = 9;
+    public static final int ADAPTIVE_END_SNR_DB = 4;
+    // Voice is harmonic, fans and hiss are flat. Spectral flatness of 300-4000 Hz above this is not voice.
+    public static final float MAX_SPEECH_FLATNESS = 0.4f;
+    // SNR in dB of 300-4000 Hz against the stationary noise spectrum, to begin and to keep the speech.
+    public static final float SPECTRAL_BEGIN_SNR_DB = 3.0f;
+    public static final float SPECTRAL_END_SNR_DB = 1.0f;
+    // Share of the frame energy which must be in 300-4000 Hz for voice.
+    public static final float MIN_SPEECH_BAND_RATIO = 0.5f;
+    // The noise floor will not go below this mean energy, so digital silence stays usable.
+    public static final int MIN_NOISE_FLOOR = 100;
+
+    private static final int RATIO_SHIFT = 8;
+    // The floor follows a quieter frame quickly and a louder frame slowly.
+    private static final int FLOOR_FALL_SHIFT = 3;
+
+    private final VoiceVolume mVoiceVolume = new VoiceVolume();
+
+    private final int mSampleRate;
+    private final int mFrameMilliseconds;
+    private final int mFrameSize;
+
+    private int mSilenceLevel = 5;
+    private int mEndFrames = 200;
+    private int mInstantNoiseFrames = 100;
+    private int mBeginFrames = 2;
+    private int mMode = MODE_FIXED_LEVEL;
+    private long mBeginRatio = dbToRatio(ADAPTIVE_BEGIN_SNR_DB);
+    private long mEndRatio = dbToRatio(ADAPTIVE_END_SNR_DB);
+    private final int mFloorRiseShift;
+
+    private boolean mSpeaking = false;
+    private int mActiveFrames = 0;
+    private int mSilenceFrames = 0;
+    private int mInstantNoiseCount = 0;
+    private int mPriLevel = 0;
+    private long mNoiseFloor = -1;
+
+    private int mVolume = 0;
+    private int mLastLevel = 0;
+    private long mLastEnergy = 0;
+    private int mLastZeroCrossings = 0;
+    private float mLastFlatness = 1.0f;
+    private float mLastSpeechBandRatio = 0;
+    private float mLastSpectralSnr = 0;
+
+    private SpectralAnalyzer mSpectralAnalyzer = null;
+    private ByteBuffer mSpectralFeatures = null;
+
+    /**
+     * Create a voice activity detector for 16-bit mono PCM.
+     *
+     * @param sampleRate - Sample rate of the audio.
+     * @param frameMilliseconds - FRAME_LENGTH_10_MILLISECONDS or FRAME_LENGTH_20_MILLISECONDS.
+     */
+    public VoiceActivityDetector(int sampleRate, int frameMilliseconds) {
+        if ((frameMilliseconds != FRAME_LENGTH_10_MILLISECONDS)
+                && (frameMilliseconds != FRAME_LENGTH_20_MILLISECONDS)) {
+            throw new IllegalArgumentException("Illegal frame length: " + frameMilliseconds);
+        }
+        mSampleRate = sampleRate;
+        mFrameMilliseconds = frameMilliseconds;
+        mFrameSize = (sampleRate / 1000) * frameMilliseconds * 2;
+        mBeginFrames = Math.max(SPEECH_BEGIN_MILLISECONDS / frameMilliseconds, 1);
+        // About 2.5 seconds to follow a rising noise.
+        mFloorRiseShift = (frameMilliseconds == FRAME_LENGTH_10_MILLISECONDS) ? 8 : 7;
+    }
+
+    /**
+     * Select how a frame is decided as voice.
+     * MODE_FIXED_LEVEL compares the volume with the silence level.
+     * MODE_ADAPTIVE compares the energy with a running estimate of the noise floor.
+     * MODE_SPECTRAL also requires a harmonic spectrum in the voice band, computed natively.
+     *
+     * @param mode - MODE_FIXED_LEVEL, MODE_ADAPTIVE or MODE_SPECTRAL.
+     */
+    public void setMode(int mode) {
+        if ((mode != MODE_FIXED_LEVEL) && (mode != MODE_ADAPTIVE) && (mode != MODE_SPECTRAL)) {
+            throw new IllegalArgumentException("Illegal VAD mode: " + mode);
+        }
+        if ((mode == MODE_SPECTRAL) && (mSpectralAnalyzer == null)) {
+            mSpectralAnalyzer = new SpectralAnalyzer(mSampleRate, mFrameSize / 2);
+        } else if ((mode != MODE_SPECTRAL) && (mSpectralAnalyzer != null)) {
+            release();
+        }
+        mMode = mode;
+    }
+
+    /**
+     * Release the native resources of the spectral mode.
+     */
+    public void release() {
+        if (mSpectralAnalyzer != null) {
+            mSpectralAnalyzer.close();
+            mSpectralAnalyzer = null;
+        }
+        mSpectralFeatures = null;
+    }
+
+    /**
+     * Get how a frame is decided as voice.
+     *
+     * @return MODE_FIXED_LEVEL, MODE_ADAPTIVE or MODE_SPECTRAL.
+     */
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Set SNR thresholds of the adaptive mode.
+     *
+     * @param beginDb - SNR in dB to detect the speech begin.
+     * @param endDb - SNR in dB below which a frame counts as the silence at the speech tail.
+     */
+    public void setAdaptiveThresholds(int beginDb, int endDb) {
+        if (endDb > beginDb) {
+            throw new IllegalArgumentException("The end threshold cannot be higher than the begin one");
+        }
+        mBeginRatio = dbToRatio(beginDb);
+        mEndRatio = dbToRatio(endDb);
+    }
+
+    /**
+     * Get length in milliseconds of each analysis frame.
+     *
+     * @return Frame length.
+     */
+    public int getFrameMilliseconds() {
+        return mFrameMilliseconds;
+    }
+
+    /**
+     * Get size in bytes of each analysis frame.
+     *
+     * @return Frame size.
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Set level of silence volume at the speech tail.
+     *
+     * @param level - Normalized level, the same scale as the volume.
+     */
+    public void setSilenceLevel(int level) {
+        mSilenceLevel = level;
+    }
+
+    /**
+     * Set length of the silence to end the speech.
+     *
+     * @param milliseconds - Length in milliseconds.
+     */
+    public void setEndMilliseconds(int milliseconds) {
+        mEndFrames = milliseconds / mFrameMilliseconds;
+    }
+
+    /**
+     * Set the longest decaying noise that will not interrupt the silence at the speech tail.
+     *
+     * @param milliseconds - Length in milliseconds.
+     */
+    public void setInstantNoiseMilliseconds(int milliseconds) {
+        mInstantNoiseFrames = milliseconds / mFrameMilliseconds;
+    }
+
+    /**
+     * Forget the past audio and wait for a new speech.
+     */
+    public void reset() {
+        mSpeaking = false;
+        mActiveFrames = 0;
+        mSilenceFrames = 0;
+        mInstantNoiseCount = 0;
+        mPriLevel = 0;
+        mNoiseFloor = -1;
+        mVolume = 0;
+        mLastLevel = 0;
+        mLastEnergy = 0;
+        mLastZeroCrossings = 0;
+        mLastFlatness = 1.0f;
+        mLastSpeechBandRatio = 0;
+        mLastSpectralSnr = 0;
+        if (mSpectralAnalyzer != null) {
+            mSpectralAnalyzer.reset();
+        }
+    }
+
+    /**
+     * Get length of the silence since the speech paused.
+     *
+     * @return Pause in milliseconds, 0 if not speaking or the voice goes on.
+     */
+    public int getPauseMilliseconds() {
+        return mSpeaking ? (mSilenceFrames * mFrameMilliseconds) : 0;
+    }
+
+    /**
+     * Check if the speech has begun and not ended yet.
+     *
+     * @return TRUE if speaking.
+     */
+    public boolean isSpeaking() {
+        return mSpeaking;
+    }
+
+    /**
+     * Get the normalized volume of the last processed block, the loudest of its frames.
+     *
+     * @return Volume level.
+     */
+    public int getVolume() {
+        return mVolume;
+    }
+
+    /**
+     * Get the mean energy per sample of the last analysis frame.
+     *
+     * @return Energy.
+     */
+    public long getLastEnergy() {
+        return mLastEnergy;
+    }
+
+    /**
+     * Get the zero crossing rate per 1000 samples of the last analysis frame.
+     *
+     * @return Zero crossing rate.
+     */
+    public int getLastZeroCrossings() {
+        return mLastZeroCrossings;
+    }
+
+    /**
+     * Get the spectral flatness of 300-4000 Hz of the last analysis frame.
+     * Only available in MODE_SPECTRAL.
+     *
+     * @return Flatness, from 0 (tonal) to 1 (noise-like).
+     */
+    public float getLastFlatness() {
+        return mLastFlatness;
+    }
+
+    /**
+     * Get SNR in dB of 300-4000 Hz of the last analysis frame against the spectrum of
+     * the stationary noise. Only available in MODE_SPECTRAL.
+     *
+     * @return SNR in dB.
+     */
+    public float getLastSpectralSnr() {
+        return mLastSpectralSnr;
+    }
+
+    /**
+     * Get the current estimate of the noise floor, as the mean energy per sample.
+     * It is tracked in any mode, for diagnostics.
+     *
+     * @return Noise floor, or -1 if no audio has been analyzed.
+     */
+    public long getNoiseFloor() {
+        return mNoiseFloor;
+    }
+
+    /**
+     * Get SNR in dB of the last analysis frame against the noise floor.
+     *
+     * @return SNR in dB.
+     */
+    public double getLastSnr() {
+        if (mNoiseFloor <= 0) {
+            return 0;
+        }
+        return 10.0 * Math.log10(Math.max(mLastEnergy, 1) / (double) mNoiseFloor);
+    }
+
+    /**
+     * Analyze a block of audio frame by frame.
+     * A partial frame at the end of the block is ignored.
+     *
+     * @param data - Audio buffer in native byte order.
+     * @param size - Size in bytes of the audio data.
+     * @return EVENT_NONE, or EVENT_SPEECH_BEGIN and EVENT_SPEECH_END combined by bits.
+     */
+    public int process(ByteBuffer data, int size) {
+        int events = EVENT_NONE;
+        int spectralFrames = 0;
+        mVolume = 0;
+        if (mMode == MODE_SPECTRAL) {
+            spectralFrames = analyzeSpectrum(data, size);
+        }
+        for (int offset = 0, frame = 0; offset + mFrameSize <= size; offset += mFrameSize, frame++) {
+            analyzeFrame(data, offset);
+            if (frame < spectralFrames) {
+                readSpectralFeatures(frame);
+            }
+            if (mLastLevel > mVolume) {
+                mVolume = mLastLevel;
+            }
+            events |= updateState();
+            updateNoiseFloor();
+        }
+        return events;
+    }
+
+    private void analyzeFrame(ByteBuffer data, int offset) {
+        int end = offset + mFrameSize;
+        int peak = 0;
+        long energy = 0;
+        int crossings = 0;
+        int previous = data.getShort(offset);
+        for (int i = offset; i < end; i += 2) {
+            int sample = data.getShort(i);
+            int magnitude = (sample < 0) ? -sample : sample;
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            energy += sample * sample;
+            if ((sample ^ previous) < 0) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        int samples = mFrameSize / 2;
+        mLastEnergy = energy / samples;
+        mLastZeroCrossings = crossings * 1000 / samples;
+        // The same scale as the old block volume, 2.5 times of the normalized level.
+        mLastLevel = (mVoiceVolume.getNormalizeVolume(peak) * 5) / 2;
+    }
+
+    private int analyzeSpectrum(ByteBuffer data, int size) {
+        int frames = size / mFrameSize;
+        if ((mSpectralFeatures == null)
+                || (mSpectralFeatures.capacity() < frames * SpectralAnalyzer.FEATURE_COUNT * 4)) {
+            mSpectralFeatures = SpectralAnalyzer.allocateFeatures(frames);
+        }
+        // All frames of the block in one native call.
+        return Math.max(mSpectralAnalyzer.analyze(data, 0, size, mSpectralFeatures), 0);
+    }
+
+    private void readSpectralFeatures(int frame) {
+        int base = frame * SpectralAnalyzer.FEATURE_COUNT * 4;
+        float total = 0;
+        float voiceBand = 0;
+        for (int band = 0; band < SpectralAnalyzer.BAND_COUNT; band++) {
+            float energy = mSpectralFeatures.getFloat(base + band * 4);
+            total += energy;
+            // 300-1000, 1000-2000 and 2000-4000 Hz
+            if ((band >= 1) && (band <= 3)) {
+                voiceBand += energy;
+            }
+        }
+        mLastSpeechBandRatio = (total > 0) ? (voiceBand / total) : 0;
+        mLastFlatness = mSpectralFeatures.getFloat(base + SpectralAnalyzer.FEATURE_FLATNESS * 4);
+        mLastSpectralSnr = mSpectralFeatures.getFloat(base + SpectralAnalyzer.FEATURE_SNR * 4);
+    }
+
+    private void updateNoiseFloor() {
+        long energy = Math.max(mLastEnergy, MIN_NOISE_FLOOR);
+        if (mNoiseFloor < 0) {
+            mNoiseFloor = energy;
+        } else if (energy < mNoiseFloor) {
+            mNoiseFloor += (energy - mNoiseFloor) >> FLOOR_FALL_SHIFT;
+        } else {
+            mNoiseFloor += (energy - mNoiseFloor) >> mFloorRiseShift;
+        }
+    }
+
+    private boolean isAboveFloor(long ratio) {
+        // Before the first frame is in the floor, nothing is above it.
+        return (mNoiseFloor >= 0) && ((mLastEnergy << RATIO_SHIFT) >= mNoiseFloor * ratio);
+    }
+
+    private boolean isSpeechFrame() {
+        if (mLastEnergy < MIN_SPEECH_RMS * MIN_SPEECH_RMS) {
+            return false;
+        }
+        if (mMode == MODE_SPECTRAL) {
+            // The spectrum tells hiss from voice better than the zero crossing rate.
+            return isAboveFloor(mBeginRatio)
+                    && (mLastSpectralSnr >= SPECTRAL_BEGIN_SNR_DB)
+                    && (mLastFlatness <= MAX_SPEECH_FLATNESS)
+                    && (mLastSpeechBandRatio >= MIN_SPEECH_BAND_RATIO);
+        }
+        boolean loud = (mMode == MODE_ADAPTIVE)
+                ? isAboveFloor(mBeginRatio)
+                : (mLastLevel > 0);
+        return loud && (mLastZeroCrossings <= MAX_SPEECH_ZERO_CROSSINGS);
+    }
+
+    private boolean isTailVoiceFrame() {
+        if (mMode == MODE_SPECTRAL) {
+            return (mLastSpectralSnr >= SPECTRAL_END_SNR_DB) && (mLastFlatness <= MAX_SPEECH_FLATNESS);
+        } else if (mMode == MODE_ADAPTIVE) {
+            return isAboveFloor(mEndRatio);
+        }
+        return (mLastLevel > mSilenceLevel);
+    }
+
+    private int updateState() {
+        int event = EVENT_NONE;
+        int level = mLastLevel;
+
+        if (!mSpeaking) {
+            if (isSpeechFrame()) {
+                mActiveFrames++;
+                if (mActiveFrames >= mBeginFrames) {
+                    mSpeaking = true;
+                    mSilenceFrames = 0;
+                    mInstantNoiseCount = 0;
+                    event = EVENT_SPEECH_BEGIN;
+                }
+            } else {
+                mActiveFrames = 0;
+            }
+        } else {
+            if (isTailVoiceFrame()) {
+                if (mSilenceFrames == 0) {
+                    mInstantNoiseCount = 0;
+                } else if (mInstantNoiseCount == 0) {
+                    mInstantNoiseCount++;
+                } else if ((mInstantNoiseCount < mInstantNoiseFrames) && (mPriLevel > level)) {
+                    // A decaying noise in the silence, such as a knock.
+                    mInstantNoiseCount++;
+                } else {
+                    mSilenceFrames = 0;
+                }
+            } else {
+                mSilenceFrames++;
+            }
+            if (mSilenceFrames > mEndFrames) {
+                mSpeaking = false;
+                mActiveFrames = 0;
+                event = EVENT_SPEECH_END;
+            }
+        }
+
+        mPriLevel = level;
+        return event;
+    }
+
+    private static long dbToRatio(int db) {
+        return Math.round(Math.pow(10.0, db / 10.0) * (1 << RATIO_SHIFT));
+    }
+}
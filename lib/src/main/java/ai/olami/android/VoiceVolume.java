@@ -19,12 +19,21 @@
 package ai.olami.android;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class VoiceVolume {
 
     public static final int VOLUME_LEVEL = 12;
 
+    // Level in dBFS reported for digital silence.
+    public static final double MIN_DBFS = -96.0;
+
+    private static final int FULL_SCALE = 32768;
+
+    private int mPeak = 0;
+    private long mSquareSum = 0;
+    private int mSamples = 0;
+    private int mClippedSamples = 0;
+
     /**
      * Get audio volume from audio buffer.
      *
@@ -32,16 +41,132 @@ public class VoiceVolume {
      * @return Volume.
      */
     public int getVoiceVolume(byte[] data){
-        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        measure(data, 0, data.length);
+        return mPeak;
+    }
 
-        int v = 0;
-        for (int i = 0 ; i < data.length ; i+=2) {
-            if (byteBuffer.getShort(i) > v) {
-                v = Math.abs(byteBuffer.getShort(i));
+    /**
+     * Get audio volume from audio buffer.
+     *
+     * @param data - Audio buffer in native byte order.
+     * @param size - Size in bytes of the audio data.
+     * @return Volume.
+     */
+    public int getVoiceVolume(ByteBuffer data, int size) {
+        measure(data, size);
+        return mPeak;
+    }
+
+    /**
+     * Measure peak, energy and clipping of a block of little-endian 16-bit PCM in one pass.
+     * The results are kept until the next measurement.
+     *
+     * @param data - Audio buffer.
+     * @param offset - Offset in bytes of the audio data.
+     * @param size - Size in bytes of the audio data.
+     */
+    public void measure(byte[] data, int offset, int size) {
+        int max = 0;
+        int min = 0;
+        long squareSum = 0;
+        int clipped = 0;
+        int end = offset + (size & ~1);
+        for (int i = offset; i < end; i += 2) {
+            int sample = (data[i] & 0x00ff) | (data[i + 1] << 8);
+            // Branches rather than Math.max/min, a new peak is rare after the first samples.
+            if (sample > max) {
+                max = sample;
+            } else if (sample < min) {
+                min = sample;
+            }
+            squareSum += sample * sample;
+        }
+        // Clipping is rare, count it only if the block reaches full scale.
+        if ((max >= Short.MAX_VALUE) || (min <= -Short.MAX_VALUE)) {
+            for (int i = offset; i < end; i += 2) {
+                int sample = (data[i] & 0x00ff) | (data[i + 1] << 8);
+                if ((sample >= Short.MAX_VALUE) || (sample <= -Short.MAX_VALUE)) {
+                    clipped++;
+                }
             }
         }
-        return v;
+        setMeasurement(Math.max(max, -min), squareSum, size / 2, clipped);
+    }
+
+    /**
+     * Measure peak, energy and clipping of a block of 16-bit PCM in one pass.
+     * The results are kept until the next measurement.
+     *
+     * @param data - Audio buffer in native byte order.
+     * @param size - Size in bytes of the audio data.
+     */
+    public void measure(ByteBuffer data, int size) {
+        int max = 0;
+        int min = 0;
+        long squareSum = 0;
+        int clipped = 0;
+        int end = size & ~1;
+        for (int i = 0; i < end; i += 2) {
+            int sample = data.getShort(i);
+            // Branches rather than Math.max/min, a new peak is rare after the first samples.
+            if (sample > max) {
+                max = sample;
+            } else if (sample < min) {
+                min = sample;
+            }
+            squareSum += sample * sample;
+        }
+        // Clipping is rare, count it only if the block reaches full scale.
+        if ((max >= Short.MAX_VALUE) || (min <= -Short.MAX_VALUE)) {
+            for (int i = 0; i < end; i += 2) {
+                int sample = data.getShort(i);
+                if ((sample >= Short.MAX_VALUE) || (sample <= -Short.MAX_VALUE)) {
+                    clipped++;
+                }
+            }
+        }
+        setMeasurement(Math.max(max, -min), squareSum, size / 2, clipped);
+    }
+
+    /**
+     * Get the absolute peak sample of the last measurement.
+     *
+     * @return Peak, from 0 to 32768.
+     */
+    public int getPeak() {
+        return mPeak;
+    }
+
+    /**
+     * Get RMS level of the last measurement in dB relative to full scale.
+     *
+     * @return RMS in dBFS, MIN_DBFS for silence.
+     */
+    public double getRmsDbfs() {
+        if ((mSamples == 0) || (mSquareSum == 0)) {
+            return MIN_DBFS;
+        }
+        double meanSquare = (double) mSquareSum / mSamples;
+        // 10 * log10(meanSquare / FULL_SCALE^2)
+        return Math.max(10.0 * Math.log10(meanSquare) - 20.0 * Math.log10(FULL_SCALE), MIN_DBFS);
+    }
+
+    /**
+     * Get number of samples at full scale in the last measurement.
+     *
+     * @return Number of clipped samples.
+     */
+    public int getClippedSamples() {
+        return mClippedSamples;
+    }
+
+    /**
+     * Get the normalized volume level, from 0 to VOLUME_LEVEL, of the last measurement.
+     *
+     * @return Volume level.
+     */
+    public int getLevel() {
+        return getNormalizeVolume(mPeak);
     }
 
     /**
@@ -56,7 +181,7 @@ public class VoiceVolume {
         final int MIN_VOLUME = 1;
         final int MAX_VOLUME = 32767;
         if (volume > nowVolumeMax) {
-            nowVolumeMax = (int) (volume * 1.5);
+            nowVolumeMax = volume + (volume >> 1);
         }
         if (nowVolumeMax > MAX_VOLUME) {
             nowVolumeMax = MAX_VOLUME;
@@ -69,8 +194,13 @@ public class VoiceVolume {
             v = (nowVolumeMax - MIN_VOLUME);
         }
 
-        int normalizeVolume = (int) ((v / (float) (nowVolumeMax - MIN_VOLUME + 1)) * (VOLUME_LEVEL + 1));
+        return (v * (VOLUME_LEVEL + 1)) / (nowVolumeMax - MIN_VOLUME + 1);
+    }
 
-        return normalizeVolume;
+    private void setMeasurement(int peak, long squareSum, int samples, int clipped) {
+        mPeak = peak;
+        mSquareSum = squareSum;
+        mSamples = samples;
+        mClippedSamples = clipped;
     }
 }
@@ -18,51 +18,322 @@
 
 package ai.olami.android.jni;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public class Codec {
+
+    // Builds of the Speex encoder, see speex/CMakeLists.txt
+    public static final String VARIANT_FLOAT = "float";
+    public static final String VARIANT_FIXED = "fixed";
+    public static final String VARIANT_NEON = "neon";
+
+    // System property to load a variant instead of the floating-point build, e.g. to benchmark each of them.
+    // The default stays floating-point until a variant is measured faster on ARM devices.
+    public static final String VARIANT_PROPERTY = "ai.olami.android.speex.variant";
+
+    private static String mVariant = null;
+
     static
     {
-        try
-        {
+        mVariant = loadVariant();
+    }
+
+    // Requests of nativeCtl(), must match speex_jni.cpp
+    private static final int SET_QUALITY = 0;
+    private static final int SET_COMPLEXITY = 1;
+    private static final int SET_VBR = 2;
+    private static final int SET_ABR = 3;
+    private static final int SET_DTX = 4;
+    private static final int GET_BITRATE = 5;
+
+    // Native encoder and decoder state owned by this instance.
+    private long mHandle = 0;
+
+    public int encodeByte(
+            byte lin[],
+            int offset,
+            int size,
+            byte encoded[]
+    ) {
+        return encodeBytes(lin, offset, size, encoded, null);
+    }
+
+    /**
+     * Encode all whole frames of little-endian 16-bit PCM bytes in a single native pass,
+     * without converting them to samples in Java.
+     *
+     * @param lin - Little-endian PCM bytes.
+     * @param offset - Offset in bytes of the PCM data.
+     * @param size - Size in bytes of the PCM data.
+     * @param encoded - Array for the encoded data, written from index 0.
+     * @param frameSizes - Array for the size in bytes of each encoded frame, or null if not needed.
+     *                     Frames beyond its length are encoded but not reported.
+     * @return Size in bytes of the encoded data.
+     */
+    public int encodeBytes(byte lin[], int offset, int size, byte encoded[], int frameSizes[]) {
+        if ((offset < 0) || (size < 0) || (lin.length - offset < size)) {
+            throw new IllegalArgumentException("Insufficient Samples to encode");
+        }
+        return nativeEncodeBytes(getHandle(), lin, offset, size, encoded, frameSizes);
+    }
+
+    /**
+     * Encode all whole frames of little-endian 16-bit PCM bytes of a direct buffer
+     * into another direct buffer, whatever the byte order of the buffer is set to.
+     *
+     * @param lin - Direct buffer of little-endian PCM bytes.
+     * @param offset - Offset in bytes of the PCM data.
+     * @param size - Size in bytes of the PCM data.
+     * @param encoded - Direct buffer for the encoded data, written from index 0.
+     * @param frameSizes - Array for the size in bytes of each encoded frame, or null if not needed.
+     * @return Size in bytes of the encoded data, or -1 if any buffer is not direct.
+     */
+    public int encodeBytes(ByteBuffer lin, int offset, int size, ByteBuffer encoded, int frameSizes[]) {
+        return nativeEncodeBytesBuffer(getHandle(), lin, offset, size, encoded, frameSizes);
+    }
+
+    /**
+     * Create the encoder and the decoder of this instance.
+     * Each instance has its own state, so instances can be used by different threads at the same time.
+     * An instance which is already open is closed first.
+     *
+     * @param mode - 0 for narrowband, 1 for wideband or 2 for ultra-wideband.
+     * @param quality - Encoding quality from 0 to 10.
+     * @return 0 if successful, or -1 if the mode is not supported.
+     */
+    public int open(int mode, int quality) {
+        close();
+        mHandle = nativeOpen(mode, quality);
+        return (mHandle == 0) ? -1 : 0;
+    }
+
+    /**
+     * Set the encoding quality, it can be changed between blocks of the same stream.
+     * It applies to both the constant and the variable bit-rate.
+     *
+     * @param quality - Quality from 0 to 10.
+     */
+    public void setQuality(int quality) {
+        nativeCtl(getHandle(), SET_QUALITY, quality);
+    }
+
+    /**
+     * Set the CPU effort of the encoder. Speex uses 2 by default.
+     *
+     * @param complexity - Complexity from 1 to 10.
+     */
+    public void setComplexity(int complexity) {
+        nativeCtl(getHandle(), SET_COMPLEXITY, complexity);
+    }
+
+    /**
+     * Enable or disable variable bit-rate, so that easy frames such as silence take fewer bytes.
+     *
+     * @param enable - TRUE to enable.
+     */
+    public void setVBR(boolean enable) {
+        nativeCtl(getHandle(), SET_VBR, enable ? 1 : 0);
+    }
+
+    /**
+     * Enable average bit-rate, which adjusts the VBR quality to reach the specified bit-rate.
+     *
+     * @param bitsPerSecond - Target bit-rate, or 0 to disable.
+     */
+    public void setABR(int bitsPerSecond) {
+        nativeCtl(getHandle(), SET_ABR, bitsPerSecond);
+    }
+
+    /**
+     * Enable or disable discontinuous transmission, which encodes silence in tiny frames.
+     * It takes effect with VBR.
+     *
+     * @param enable - TRUE to enable.
+     */
+    public void setDTX(boolean enable) {
+        nativeCtl(getHandle(), SET_DTX, enable ? 1 : 0);
+    }
+
+    /**
+     * Get the bit-rate of the current encoder mode.
+     *
+     * @return Bits per second.
+     */
+    public int getBitRate() {
+        return nativeCtl(getHandle(), GET_BITRATE, 0);
+    }
+
+    public int getFrameSize() {
+        return nativeGetFrameSize(getHandle());
+    }
+
+    /**
+     * Decode one encoded frame. Both arrays are pinned once for the whole call.
+     *
+     * @param encoded - Encoded frame.
+     * @param lin - Array for the decoded samples, at least one frame long.
+     * @param size - Size in bytes of the encoded frame.
+     * @return Number of decoded samples, or -1 if any size is out of range.
+     */
+    public int decode(byte encoded[], short lin[], int size) {
+        return nativeDecode(getHandle(), encoded, lin, size);
+    }
+
+    /**
+     * Encode all whole frames of PCM samples in a single native pass.
+     * Both arrays are pinned once for the whole call instead of copied for each frame.
+     *
+     * @param lin - PCM samples.
+     * @param offset - Offset of the samples.
+     * @param size - Number of samples.
+     * @param encoded - Array for the encoded data, written from index 0.
+     * @return Size in bytes of the encoded data, or -1 if the range is out of the samples.
+     */
+    public int encode(short lin[], int offset, int size, byte encoded[]) {
+        return nativeEncode(getHandle(), lin, offset, size, encoded);
+    }
+
+    /**
+     * Encode PCM audio of a direct buffer into another direct buffer without any Java copy.
+     *
+     * @param lin - Direct buffer of 16-bit PCM samples in native byte order.
+     * @param offset - Offset in bytes of the PCM data.
+     * @param size - Size in bytes of the PCM data.
+     * @param encoded - Direct buffer for the encoded data, written from index 0.
+     * @return Size in bytes of the encoded data, or -1 if any buffer is not direct
+     *         or the range is out of the PCM buffer.
+     */
+    public int encodeBuffer(ByteBuffer lin, int offset, int size, ByteBuffer encoded) {
+        return nativeEncodeBuffer(getHandle(), lin, offset, size, encoded);
+    }
+
+    /**
+     * Release the native state of this instance, other instances are not affected.
+     */
+    public void close() {
+        if (mHandle != 0) {
+            nativeClose(mHandle);
+            mHandle = 0;
+        }
+    }
+
+    /**
+     * Get the build of the Speex encoder used by all instances.
+     *
+     * @return VARIANT_FLOAT, VARIANT_FIXED or VARIANT_NEON, or null if no library is loaded.
+     */
+    public static String getVariant() {
+        return mVariant;
+    }
+
+    /**
+     * Load the Speex build forced by VARIANT_PROPERTY if the CPU supports it,
+     * otherwise speexjni (floating-point).
+     * A variant library registers the natives of this class when it is loaded.
+     */
+    private static String loadVariant() {
+        String forced = System.getProperty(VARIANT_PROPERTY);
+        if ((forced != null) && !forced.equals(VARIANT_FLOAT) && isSupportedByCpu(forced)) {
+            try {
+                System.loadLibrary("speexjni_" + forced);
+                return forced;
+            } catch (UnsatisfiedLinkError e) {
+                // Not built for this ABI, use the floating-point build.
+            }
+        }
+
+        try {
             System.loadLibrary("speexjni");
-        } catch (UnsatisfiedLinkError e)
-        {
+            return VARIANT_FLOAT;
+        } catch (UnsatisfiedLinkError e) {
             e.printStackTrace();
         }
+        return null;
     }
 
-    private static void convertByte2Short(
-            byte[] byData,
-            int offset1,
-            short[] sData,
-            int offset2,
-            int sizeFloat
-    ) {
-        if(byData.length - offset1 < 2 * sizeFloat) {
-            throw new IllegalArgumentException("Insufficient Samples to convert to floats");
-        } else if(sData.length - offset2 < sizeFloat) {
-            throw new IllegalArgumentException("Insufficient float buffer to convert the samples");
-        } else {
-            for(int i = 0; i < sizeFloat; ++i) {
-                sData[offset2 + i] = (short)(byData[offset1 + 2 * i] & 255 | byData[offset1 + 2 * i + 1] << 8);
+    /**
+     * Check if a variant can run on this CPU, whether or not it is built for the ABI.
+     */
+    private static boolean isSupportedByCpu(String variant) {
+        if (!variant.equals(VARIANT_NEON)) {
+            return true;
+        }
+        String arch = System.getProperty("os.arch", "").toLowerCase();
+        if (arch.startsWith("aarch64") || arch.startsWith("arm64")) {
+            // NEON is part of ARMv8-A.
+            return true;
+        }
+        // NEON is optional on ARMv7-A, a NEON build would crash without it.
+        return arch.startsWith("arm") && hasNeon();
+    }
+
+    private static boolean hasNeon() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/cpuinfo"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Features") && line.contains(" neon")) {
+                    return true;
+                }
             }
+        } catch (IOException e) {
+            // Unknown, assume no NEON.
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing to do.
+                }
+            }
+        }
+        return false;
+    }
 
+    private long getHandle() {
+        if (mHandle == 0) {
+            throw new IllegalStateException("The codec is not open.");
         }
+        return mHandle;
     }
 
-    public int encodeByte(
-            byte lin[],
+    private static native long nativeOpen(int mode, int quality);
+    private static native int nativeCtl(long handle, int request, int value);
+    private static native int nativeGetFrameSize(long handle);
+    private static native int nativeDecode(long handle, byte encoded[], short lin[], int size);
+    private static native int nativeEncode(
+            long handle,
+            short lin[],
             int offset,
             int size,
             byte encoded[]
-    ) {
-        short[] sData = new short[size / 2];
-        convertByte2Short(lin, offset, sData, 0, size / 2);
-        return encode(sData, 0, size / 2, encoded);
-    }
-
-    public native int open(int mode, int quality);
-    public native int getFrameSize();
-    public native int decode(byte encoded[], short lin[], int size);
-    public native int encode(short lin[], int offset, int size, byte encoded[]);
-    public native void close();
+    );
+    private static native int nativeEncodeBuffer(
+            long handle,
+            ByteBuffer lin,
+            int offset,
+            int size,
+            ByteBuffer encoded
+    );
+    private static native int nativeEncodeBytes(
+            long handle,
+            byte lin[],
+            int offset,
+            int size,
+            byte encoded[],
+            int frameSizes[]
+    );
+    private static native int nativeEncodeBytesBuffer(
+            long handle,
+            ByteBuffer lin,
+            int offset,
+            int size,
+            ByteBuffer encoded,
+            int frameSizes[]
+    );
+    private static native void nativeClose(long handle);
 }
@@ -0,0 +1,169 @@
+/*
+	Copyright 2017, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+
+package ai.olami.android.jni;
+
+import java.nio.ByteBuffer;
+
+public class Preprocessor {
+    static
+    {
+        try
+        {
+            System.loadLibrary("speexjni");
+        } catch (UnsatisfiedLinkError e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    // Requests of nativeCtl(), must match preprocess_jni.c
+    private static final int SET_DENOISE = 0;
+    private static final int SET_NOISE_SUPPRESS = 1;
+    private static final int SET_AGC = 2;
+    private static final int SET_AGC_LEVEL = 3;
+    private static final int SET_AGC_MAX_GAIN = 4;
+
+    public static final int DEFAULT_NOISE_SUPPRESS_DB = -15;
+    public static final int DEFAULT_AGC_LEVEL_DBFS = -20;
+    public static final int DEFAULT_AGC_MAX_GAIN_DB = 30;
+
+    private long mHandle = 0;
+    private final int mFrameSize;
+
+    /**
+     * Create a speech preprocessor which suppresses stationary noise, controls the gain
+     * and detects voice of each frame with the KISS FFT of the native library.
+     * Frames are processed in place with 50% overlap-add, so the output is delayed by one frame,
+     * and continuous frames must be passed in order.
+     * Noise suppression is enabled and AGC is disabled by default.
+     *
+     * @param sampleRate - Sample rate of the audio.
+     * @param frameSize - Number of samples of each frame.
+     */
+    public Preprocessor(int sampleRate, int frameSize) {
+        mHandle = nativeOpen(sampleRate, frameSize);
+        if (mHandle == 0) {
+            throw new IllegalArgumentException("Unsupported frame: " + sampleRate + "Hz, " + frameSize);
+        }
+        mFrameSize = frameSize;
+    }
+
+    /**
+     * Get number of samples of each frame.
+     *
+     * @return Frame size.
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Enable or disable noise suppression.
+     *
+     * @param enable - TRUE to enable.
+     */
+    public void setDenoise(boolean enable) {
+        ctl(SET_DENOISE, enable ? 1 : 0);
+    }
+
+    /**
+     * Set the maximum attenuation of the noise.
+     *
+     * @param db - Attenuation in dB, such as -15.
+     */
+    public void setNoiseSuppress(int db) {
+        ctl(SET_NOISE_SUPPRESS, db);
+    }
+
+    /**
+     * Enable or disable automatic gain control.
+     *
+     * @param enable - TRUE to enable.
+     */
+    public void setAGC(boolean enable) {
+        ctl(SET_AGC, enable ? 1 : 0);
+    }
+
+    /**
+     * Set the level of voice which the AGC aims at.
+     *
+     * @param dbfs - RMS level in dBFS, such as -20.
+     */
+    public void setAGCLevel(int dbfs) {
+        ctl(SET_AGC_LEVEL, dbfs);
+    }
+
+    /**
+     * Set the maximum gain of the AGC.
+     *
+     * @param db - Gain in dB, such as 30.
+     */
+    public void setAGCMaxGain(int db) {
+        ctl(SET_AGC_MAX_GAIN, db);
+    }
+
+    /**
+     * Process the whole frames of 16-bit PCM audio in a direct buffer in place.
+     *
+     * @param pcm - Direct buffer of 16-bit PCM samples in native byte order.
+     * @param offset - Offset in bytes of the PCM data.
+     * @param size - Size in bytes of the PCM data.
+     * @return Number of frames detected as voice, or -1 if the buffer is not direct.
+     */
+    public int process(ByteBuffer pcm, int offset, int size) {
+        if (mHandle == 0) {
+            throw new IllegalStateException("The preprocessor is closed.");
+        }
+        return nativeProcess(mHandle, pcm, offset, size);
+    }
+
+    /**
+     * Forget the noise estimate, the gain and the overlap,
+     * then the next frame will be processed as a new stream.
+     */
+    public void reset() {
+        if (mHandle != 0) {
+            nativeReset(mHandle);
+        }
+    }
+
+    /**
+     * Release the native resources.
+     */
+    public void close() {
+        if (mHandle != 0) {
+            nativeClose(mHandle);
+            mHandle = 0;
+        }
+    }
+
+    private void ctl(int request, int value) {
+        if (mHandle == 0) {
+            throw new IllegalStateException("The preprocessor is closed.");
+        }
+        nativeCtl(mHandle, request, value);
+    }
+
+    private static native long nativeOpen(int sampleRate, int frameSize);
+    private static native int nativeCtl(long handle, int request, int value);
+    private static native int nativeProcess(long handle, ByteBuffer pcm, int offset, int size);
+    private static native void nativeReset(long handle);
+    private static native void nativeClose(long handle);
+}
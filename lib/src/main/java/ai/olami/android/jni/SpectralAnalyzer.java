@@ -0,0 +1,130 @@
+/*
+	Copyright 2018, VIA Technologies, Inc. & OLAMI Team.
+
+	http://olami.ai
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package ai.olami.android.jni;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class SpectralAnalyzer {
+    static
+    {
+        try
+        {
+            System.loadLibrary("speexjni");
+        } catch (UnsatisfiedLinkError e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    // Bands: 0-300, 300-1000, 1000-2000, 2000-4000 Hz and 4000 Hz to the Nyquist frequency.
+    public static final int BAND_COUNT = 5;
+    // Index of the spectral flatness of 300-4000 Hz, from 0 (tonal) to 1 (noise-like).
+    public static final int FEATURE_FLATNESS = BAND_COUNT;
+    // Index of the mean SNR in dB of 300-4000 Hz against the tracked spectrum of stationary noise.
+    public static final int FEATURE_SNR = BAND_COUNT + 1;
+    // Number of float features written for each frame.
+    public static final int FEATURE_COUNT = BAND_COUNT + 2;
+
+    private long mHandle = 0;
+    private final int mFrameSize;
+
+    /**
+     * Create a spectral analyzer which computes band energies, spectral flatness and SNR
+     * of each frame with the KISS FFT of the native library.
+     * The noise spectrum is tracked over frames, so continuous frames must be passed in order.
+     *
+     * @param sampleRate - Sample rate of the audio.
+     * @param frameSize - Number of samples of each frame, must be even.
+     */
+    public SpectralAnalyzer(int sampleRate, int frameSize) {
+        mHandle = nativeOpen(sampleRate, frameSize);
+        if (mHandle == 0) {
+            throw new IllegalArgumentException("Unsupported frame: " + sampleRate + "Hz, " + frameSize);
+        }
+        mFrameSize = frameSize;
+    }
+
+    /**
+     * Allocate a direct buffer to hold the features of the specified number of frames.
+     *
+     * @param frames - Number of frames.
+     * @return Feature buffer in native byte order.
+     */
+    public static ByteBuffer allocateFeatures(int frames) {
+        return ByteBuffer.allocateDirect(frames * FEATURE_COUNT * 4).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Get number of samples of each frame.
+     *
+     * @return Frame size.
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Analyze the whole frames of 16-bit PCM audio in a direct buffer.
+     * FEATURE_COUNT floats are written for each frame, the features of frame n
+     * start at byte (n * FEATURE_COUNT * 4) of the feature buffer.
+     *
+     * @param pcm - Direct buffer of 16-bit PCM samples in native byte order.
+     * @param offset - Offset in bytes of the PCM data.
+     * @param size - Size in bytes of the PCM data.
+     * @param features - Direct buffer for the features, see allocateFeatures().
+     * @return Number of analyzed frames, or -1 if any buffer is not direct.
+     */
+    public int analyze(ByteBuffer pcm, int offset, int size, ByteBuffer features) {
+        if (mHandle == 0) {
+            throw new IllegalStateException("The analyzer is closed.");
+        }
+        return nativeAnalyze(mHandle, pcm, offset, size, features);
+    }
+
+    /**
+     * Forget the tracked noise spectrum, then the next frame will be analyzed as a new stream.
+     */
+    public void reset() {
+        if (mHandle != 0) {
+            nativeReset(mHandle);
+        }
+    }
+
+    /**
+     * Release the native resources.
+     */
+    public void close() {
+        if (mHandle != 0) {
+            nativeClose(mHandle);
+            mHandle = 0;
+        }
+    }
+
+    private static native long nativeOpen(int sampleRate, int frameSize);
+    private static native int nativeAnalyze(
+            long handle,
+            ByteBuffer pcm,
+            int offset,
+            int size,
+            ByteBuffer features
+    );
+    private static native void nativeReset(long handle);
+    private static native void nativeClose(long handle);
+}